@@ -7,25 +7,26 @@ import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
 
+import ru.euphoria.messenger.adapter.AttachmentPager;
 import ru.euphoria.messenger.adapter.AudiosAdapter;
 import ru.euphoria.messenger.adapter.BaseAdapter;
 import ru.euphoria.messenger.adapter.DocsAdapter;
 import ru.euphoria.messenger.adapter.LinksAdapter;
 import ru.euphoria.messenger.adapter.PhotosAdapter;
-import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.adapter.VideosAdapter;
 import ru.euphoria.messenger.api.model.VKAttachments;
 import ru.euphoria.messenger.api.model.VKAudio;
 import ru.euphoria.messenger.api.model.VKDoc;
 import ru.euphoria.messenger.api.model.VKLink;
 import ru.euphoria.messenger.api.model.VKModel;
 import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKVideo;
 import ru.euphoria.messenger.util.AndroidUtils;
 import ru.euphoria.messenger.view.SpacesItemDecoration;
 
@@ -43,8 +44,9 @@ public class DialogAttachmentsFragment extends Fragment {
     private long peerId;
 
     private RecyclerView recycler;
-    private RecyclerView.LayoutManager layoutManager;
-    private BaseAdapter adapter;
+    private LinearLayoutManager layoutManager;
+    private BaseAdapter<? extends VKModel, ?> adapter;
+    private AttachmentPager pager;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -62,10 +64,19 @@ public class DialogAttachmentsFragment extends Fragment {
         recycler = (RecyclerView) rootView.findViewById(R.id.recyclerView);
         recycler.setHasFixedSize(true);
 
-        getAttachments();;
+        createAdapter();
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (pager != null) {
+            pager.destroy();
+            pager = null;
+        }
+    }
+
     public static DialogAttachmentsFragment newInstance(int pos, long id) {
         Bundle args = new Bundle();
         args.putInt("position", pos);
@@ -77,72 +88,60 @@ public class DialogAttachmentsFragment extends Fragment {
     }
 
 
-    private void getAttachments() {
-        String type = "";
+    private void createAdapter() {
+        String type;
         switch (position) {
-            case TAB_IMAGES: type = VKAttachments.TYPE_PHOTO; break;
-            case TAB_AUDIOS: type = VKAttachments.TYPE_AUDIO; break;
-            case TAB_LINKS: type = VKAttachments.TYPE_LINK; break;
-            case TAB_DOCS: type = VKAttachments.TYPE_DOC; break;
-        }
-
-        if (TextUtils.isEmpty(type)) {
-            return;
+            case TAB_IMAGES:
+                type = VKAttachments.TYPE_PHOTO;
+                layoutManager = new GridLayoutManager(getActivity(), 3);
+                recycler.addItemDecoration(new SpacesItemDecoration(Math.round(AndroidUtils.px(1)), 3));
+                adapter = new PhotosAdapter(getActivity(), new ArrayList<VKPhoto>());
+                break;
+
+            case TAB_VIDEOS:
+                type = VKAttachments.TYPE_VIDEO;
+                layoutManager = new GridLayoutManager(getActivity(), 3);
+                recycler.addItemDecoration(new SpacesItemDecoration(Math.round(AndroidUtils.px(1)), 3));
+                adapter = new VideosAdapter(getActivity(), new ArrayList<VKVideo>());
+                break;
+
+            case TAB_AUDIOS:
+                type = VKAttachments.TYPE_AUDIO;
+                layoutManager = new LinearLayoutManager(getActivity());
+                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
+                adapter = new AudiosAdapter(getActivity(), new ArrayList<VKAudio>());
+                break;
+
+            case TAB_DOCS:
+                type = VKAttachments.TYPE_DOC;
+                layoutManager = new LinearLayoutManager(getActivity());
+                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
+                adapter = new DocsAdapter(getActivity(), new ArrayList<VKDoc>());
+                break;
+
+            case TAB_LINKS:
+                type = VKAttachments.TYPE_LINK;
+                layoutManager = new LinearLayoutManager(getActivity());
+                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
+                adapter = new LinksAdapter(getActivity(), new ArrayList<VKLink>());
+                break;
+
+            default:
+                return;
         }
 
-        VKApi.messages().getHistoryAttachments()
-                .mediaType(type)
-                .peerId(peerId)
-                .count(200)
-                .execute(VKModel.class, new VKApi.OnResponseListener<VKModel>() {
-                    @Override
-                    public void onSuccess(ArrayList<VKModel> attachments) {
-                        if (!isAdded()) {
-                            return;
-                        }
-                        switch (position) {
-                            case TAB_IMAGES:
-                                layoutManager = new GridLayoutManager(getActivity(), 3);
-                                recycler.addItemDecoration(new SpacesItemDecoration(Math.round(AndroidUtils.px(1)), 3));
-
-                                ArrayList<VKPhoto> photos = AndroidUtils.unsafeCast(attachments);
-                                adapter = new PhotosAdapter(getActivity(), photos);
-                                break;
-
-                            case TAB_AUDIOS:
-                                layoutManager = new LinearLayoutManager(getActivity());
-                                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
-
-                                ArrayList<VKAudio> audios = AndroidUtils.unsafeCast(attachments);
-                                adapter = new AudiosAdapter(getActivity(), audios);
-                                break;
-
-                            case TAB_DOCS:
-                                layoutManager = new LinearLayoutManager(getActivity());
-                                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
-
-                                ArrayList<VKDoc> docs = AndroidUtils.unsafeCast(attachments);
-                                adapter = new DocsAdapter(getActivity(), docs);
-                                break;
-
-                            case TAB_LINKS:
-                                layoutManager = new LinearLayoutManager(getActivity());
-                                recycler.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
-
-                                ArrayList<VKLink> links = AndroidUtils.unsafeCast(attachments);
-                                adapter = new LinksAdapter(getActivity(), links);
-                                break;
-
-                        }
-
-                        recycler.setLayoutManager(layoutManager);
-                        recycler.setAdapter(adapter);
-                    }
-
-                    @Override
-                    public void onError(Exception ex) {
-
-                    }
-                });
+        recycler.setLayoutManager(layoutManager);
+        recycler.setAdapter(adapter);
+        recycler.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (pager != null) {
+                    pager.onScrolled(layoutManager.findLastVisibleItemPosition());
+                }
+            }
+        });
+
+        pager = new AttachmentPager(adapter, peerId, type);
+        pager.start();
     }
 }
@@ -37,9 +37,12 @@ import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.Future;
 
 import ru.euphoria.messenger.adapter.DialogAdapter;
+import ru.euphoria.messenger.adapter.DialogPager;
 import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.VKBatch;
 import ru.euphoria.messenger.api.method.MessageMethodSetter;
 import ru.euphoria.messenger.api.model.VKApp;
 import ru.euphoria.messenger.api.model.VKGroup;
@@ -60,7 +63,7 @@ import ru.euphoria.messenger.util.ArrayUtil;
 
 public class DialogsFragment extends Fragment
         implements SwipeRefreshLayout.OnRefreshListener,
-        DialogAdapter.OnItemClickListener, View.OnClickListener {
+        DialogAdapter.OnItemClickListener, DialogPager.OnLoadRemoteListener, View.OnClickListener {
 
     private View rootView;
     private RecyclerView recyclerView;
@@ -70,7 +73,8 @@ public class DialogsFragment extends Fragment
 
     private LinearLayoutManager layoutManager;
     private DialogAdapter adapter;
-    private boolean loading;
+    private DialogPager pager;
+    private Future<?> loadTask;
 
     @Nullable
     @Override
@@ -103,9 +107,10 @@ public class DialogsFragment extends Fragment
         refreshLayout.setOnRefreshListener(this);
         refreshLayout.setColorSchemeColors(Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN, Color.BLACK);
 
-        getCachedDialogs(0, 30);
+        pager = new DialogPager(this);
+        getCachedDialogs();
         if (!PrefManager.getOffline() || adapter == null) {
-            getDialogs(0, 30);
+            getDialogs(0, DialogPager.PAGE_SIZE);
         }
         setTitle(0);
 
@@ -120,6 +125,10 @@ public class DialogsFragment extends Fragment
     public void onDestroy() {
         super.onDestroy();
 
+        if (loadTask != null) {
+            loadTask.cancel(false);
+        }
+        pager.destroy();
         if (adapter != null) {
             adapter.destroy();
         }
@@ -138,7 +147,12 @@ public class DialogsFragment extends Fragment
 
     @Override
     public void onRefresh() {
-        getDialogs(0, 30);
+        getDialogs(0, DialogPager.PAGE_SIZE);
+    }
+
+    @Override
+    public void onLoadRemote(int offset, int count) {
+        getDialogs(offset, count);
     }
 
     @Override
@@ -186,39 +200,48 @@ public class DialogsFragment extends Fragment
             return;
         }
         if (offset != 0) {
-            adapter.add(messages);
-            adapter.notifyDataSetChanged();
+            int start = adapter.getItemCount();
+            adapter.notifyItemRangeInserted(start, adapter.add(messages));
             return;
         }
 
         if (adapter != null) {
-            adapter.changeItems(messages);
-            adapter.notifyDataSetChanged();
+            // older dialogs are read from cache again, after the new list
+            // is applied, so the cursor is not moved by a page appended meanwhile
+            adapter.submitItems(messages, new Runnable() {
+                @Override
+                public void run() {
+                    pager.reset();
+                }
+            });
             return;
         }
         adapter = new DialogAdapter(getActivity(), messages);
         adapter.setListener(this);
+        pager.setAdapter(adapter);
         recyclerView.setAdapter(adapter);
     }
 
-    private void getCachedDialogs(int offset, int count) {
-        ArrayList<VKMessage> dialogs = CacheStorage.getDialogs();
-        if (ArrayUtil.isEmpty(dialogs)) {
-            return;
-        }
-
-        createAdapter(dialogs, 0);
+    /**
+     * Shows the first page of cached dialogs,
+     * other pages are read by {@link DialogPager} on scroll
+     */
+    private void getCachedDialogs() {
+        createAdapter(DialogPager.getFirstPage(), 0);
     }
 
     private void getDialogs(final int offset, final int count) {
         if (!AndroidUtils.hasConnection()) {
             snackbarNoConnection();
             refreshLayout.setRefreshing(false);
+            if (offset != 0) {
+                pager.onRemoteFailed();
+            }
             return;
         }
 
         refreshLayout.setRefreshing(true);
-        ThreadExecutor.execute(new AsyncCallback(getActivity()) {
+        loadTask = ThreadExecutor.execute(new AsyncCallback(getActivity()) {
             private ArrayList<VKMessage> messages;
 
             @Override
@@ -228,14 +251,9 @@ public class DialogsFragment extends Fragment
                         .offset(offset)
                         .count(count)
                         .execute(VKMessage.class);
-                if (messages.isEmpty()) {
-                    loading = true;
-                }
 
-                if (offset == 0) {
-                    CacheStorage.delete(DatabaseHelper.DIALOGS_TABLE);
-                    CacheStorage.insert(DatabaseHelper.DIALOGS_TABLE, messages);
-                }
+                // writes only new and changed dialogs
+                CacheStorage.syncDialogs(messages, offset == 0);
 
                 HashSet<Integer> userIds = new HashSet<>();
                 HashSet<Integer> groupIds = new HashSet<>();
@@ -260,22 +278,24 @@ public class DialogsFragment extends Fragment
                 Integer[] ids = new Integer[userIds.size()];
                 userIds.toArray(ids);
 
-                final ArrayList<VKUser> users = VKApi.users()
+                // users and groups are requested within one execute request
+                VKBatch batch = new VKBatch();
+                VKBatch.Call<VKUser> usersCall = batch.add(VKApi.users()
                         .get()
                         .userIds(ids)
-                        .fields(VKUser.DEFAULT_FIELDS)
-                        .execute(VKUser.class);
+                        .fields(VKUser.DEFAULT_FIELDS), VKUser.class);
 
-                CacheStorage.insert(DatabaseHelper.USERS_TABLE, users);
-
-                ArrayList<VKGroup> groups = null;
+                VKBatch.Call<VKGroup> groupsCall = null;
                 if (hasGroups) {
-                    groups = VKApi.groups()
+                    groupsCall = batch.add(VKApi.groups()
                             .getById()
-                            .groupIds(groupIds.toArray(new Integer[groupIds.size()]))
-                            .execute(VKGroup.class);
-                    ;
-                    CacheStorage.insert(DatabaseHelper.GROUPS_TABLE, groups);
+                            .groupIds(groupIds.toArray(new Integer[groupIds.size()])), VKGroup.class);
+                }
+                batch.execute();
+
+                CacheStorage.insert(DatabaseHelper.USERS_TABLE, usersCall.get());
+                if (groupsCall != null) {
+                    CacheStorage.insert(DatabaseHelper.GROUPS_TABLE, groupsCall.get());
                 }
             }
 
@@ -289,8 +309,8 @@ public class DialogsFragment extends Fragment
                 refreshLayout.setRefreshing(false);
                 setTitle(VKMessage.count);
 
-                if (!messages.isEmpty()) {
-                    loading = false;
+                if (offset != 0) {
+                    pager.onRemoteLoaded(messages.size());
                 }
             }
 
@@ -299,6 +319,9 @@ public class DialogsFragment extends Fragment
                 super.error(e);
 
                 refreshLayout.setRefreshing(false);
+                if (offset != 0) {
+                    pager.onRemoteFailed();
+                }
                 Snackbar.make(fab, e.getMessage(), Snackbar.LENGTH_LONG).show();
             }
         });
@@ -507,10 +530,6 @@ public class DialogsFragment extends Fragment
                             .translationY(fab.getHeight() + getMarginBottom())
                             .start();
                 }
-                if (isLastItem(recyclerView) && !loading) {
-                    loading = true;
-                    getDialogs(adapter.getItemCount(), 30);
-                }
             } else {
                 // Scrolling down
                 if (state == STATE_HIDDEN) {
@@ -525,10 +544,8 @@ public class DialogsFragment extends Fragment
                             .start();
                 }
             }
-        }
 
-        private boolean isLastItem(RecyclerView v) {
-            return adapter.getCurrentPosition() > adapter.getItemCount() - 10;
+            pager.onScrolled(layoutManager.findLastVisibleItemPosition());
         }
     }
 }
@@ -41,6 +41,7 @@ import java.util.Locale;
 import ru.euphoria.messenger.adapter.MessageAdapter;
 import ru.euphoria.messenger.api.Identifiers;
 import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.VKBatch;
 import ru.euphoria.messenger.api.model.VKGroup;
 import ru.euphoria.messenger.api.model.VKMessage;
 import ru.euphoria.messenger.api.model.VKUser;
@@ -224,7 +225,6 @@ public class MessagesActivity extends BaseActivity
     private void createAdapter(ArrayList<VKMessage> messages) {
         if (adapter != null) {
             adapter.changeItems(messages);
-            adapter.notifyDataSetChanged();
         } else {
             adapter = new MessageAdapter(this, messages, chatId, userId);
             recyclerView.setAdapter(adapter);
@@ -242,14 +242,15 @@ public class MessagesActivity extends BaseActivity
                 adapter.insert(messages);
                 adapter.notifyItemRangeInserted(0, messages.size());
             } else {
+                int start = adapter.getMessagesCount();
                 adapter.getValues().addAll(messages);
-                adapter.notifyDataSetChanged();
+                adapter.notifyItemRangeInserted(start, messages.size());
             }
         }
     }
 
     private void getCachedMessages() {
-        ArrayList<VKMessage> messages = CacheStorage.getMessages(userId, chatId);
+        ArrayList<VKMessage> messages = CacheStorage.getMessages(userId, chatId, 30);
         if (!ArrayUtil.isEmpty(messages)) {
             createAdapter(messages);
         }
@@ -339,58 +340,55 @@ public class MessagesActivity extends BaseActivity
 
     private void getMessages(final int offset) {
         loading = true;
-        VKApi.messages().getHistory()
+
+        // history and user status are independent, so send them as one request
+        VKBatch batch = new VKBatch();
+        batch.add(VKApi.messages().getHistory()
                 .rev(chronologyOrder)
                 .peerId(getPeerId())
                 .offset(offset)
-                .count(30)
-                .execute(VKMessage.class, new VKApi.OnResponseListener<VKMessage>() {
-                    @Override
-                    public void onSuccess(ArrayList<VKMessage> messages) {
-                        if (!chronologyOrder) {
-                            Collections.reverse(messages);
-                        }
-                        if (offset == 0) {
-                            CacheStorage.deleteMessages(userId, chatId);
-                            CacheStorage.insert(DatabaseHelper.MESSAGES_TABLE, messages);
-                            createAdapter(messages);
-                        } else {
-                            insertMessages(messages);
-                        }
-                        loading = messages.isEmpty();
-                        if (!messages.isEmpty()) {
-                            getUsers(messages);
-                        }
-                    }
-
-                    @Override
-                    public void onError(Exception ex) {
-                        Toast.makeText(MessagesActivity.this, ex.getMessage(), Toast.LENGTH_LONG).show();
-                    }
-                });
-
-        if (offset != 0) {
-            return;
-        }
-
-        if (chatId > 0 || groupId > 0) {
-            return;
-        }
-
-        VKApi.users().get()
-                .fields(VKUser.DEFAULT_FIELDS)
-                .userId(userId).execute(VKUser.class, new VKApi.OnResponseListener<VKUser>() {
+                .count(30), VKMessage.class, new VKApi.OnResponseListener<VKMessage>() {
             @Override
-            public void onSuccess(ArrayList<VKUser> users) {
-                CacheStorage.insert(DatabaseHelper.USERS_TABLE, users);
-                getSupportActionBar().setSubtitle(getSubtitleStatus());
+            public void onSuccess(ArrayList<VKMessage> messages) {
+                if (!chronologyOrder) {
+                    Collections.reverse(messages);
+                }
+                // writes only new and changed messages, older history is kept
+                CacheStorage.syncMessages(userId, chatId, messages, offset == 0 && !chronologyOrder);
+                if (offset == 0) {
+                    createAdapter(messages);
+                } else {
+                    insertMessages(messages);
+                }
+                loading = messages.isEmpty();
+                if (!messages.isEmpty()) {
+                    getUsers(messages);
+                }
             }
 
             @Override
             public void onError(Exception ex) {
-
+                Toast.makeText(MessagesActivity.this, ex.getMessage(), Toast.LENGTH_LONG).show();
             }
         });
+
+        if (offset == 0 && chatId <= 0 && groupId <= 0) {
+            batch.add(VKApi.users().get()
+                    .fields(VKUser.DEFAULT_FIELDS)
+                    .userId(userId), VKUser.class, new VKApi.OnResponseListener<VKUser>() {
+                @Override
+                public void onSuccess(ArrayList<VKUser> users) {
+                    CacheStorage.insert(DatabaseHelper.USERS_TABLE, users);
+                    getSupportActionBar().setSubtitle(getSubtitleStatus());
+                }
+
+                @Override
+                public void onError(Exception ex) {
+
+                }
+            });
+        }
+        batch.executeAsync();
     }
 
     private void sendMessage() {
@@ -406,7 +404,7 @@ public class MessagesActivity extends BaseActivity
         message.setTag(MessageAdapter.SendStatus.SENDING);
         message.is_out = true;
 
-        adapter.add(message, false);
+        adapter.add(message);
         recyclerView.scrollToPosition(adapter.getMessagesCount());
         editMessage.setText("");
 
@@ -422,7 +420,10 @@ public class MessagesActivity extends BaseActivity
                 CacheStorage.insert(DatabaseHelper.MESSAGES_TABLE,
                         ArrayUtil.singletonList(message));
 
-                adapter.notifyDataSetChanged();
+                int position = adapter.getValues().indexOf(message);
+                if (position >= 0) {
+                    adapter.notifyItemChanged(position);
+                }
             }
 
             @Override
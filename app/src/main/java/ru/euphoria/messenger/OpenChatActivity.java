@@ -16,11 +16,11 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 import ru.euphoria.messenger.adapter.FriendsPagerAdapter;
 import ru.euphoria.messenger.api.VKApi;
 import ru.euphoria.messenger.api.model.VKUser;
-import ru.euphoria.messenger.common.AppGlobal;
 import ru.euphoria.messenger.concurrent.AsyncCallback;
 import ru.euphoria.messenger.concurrent.ThreadExecutor;
 import ru.euphoria.messenger.database.CacheStorage;
@@ -37,6 +37,7 @@ public class OpenChatActivity extends BaseActivity
     private TabLayout tabLayout;
     private ViewPager viewPager;
     private SwipeRefreshLayout swipeRefresh;
+    private Future<?> friendsTask;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -78,6 +79,15 @@ public class OpenChatActivity extends BaseActivity
         getFriends();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (friendsTask != null) {
+            friendsTask.cancel(false);
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.friends_menu, menu);
@@ -130,7 +140,7 @@ public class OpenChatActivity extends BaseActivity
         }
 
         swipeRefresh.setRefreshing(true);
-        ThreadExecutor.execute(new AsyncCallback(this) {
+        friendsTask = ThreadExecutor.execute(new AsyncCallback(this) {
             @Override
             public void ready() throws Exception {
                 ArrayList<VKUser> friends = VKApi.friends()
@@ -139,9 +149,8 @@ public class OpenChatActivity extends BaseActivity
                         .fields(VKUser.DEFAULT_FIELDS)
                         .execute(VKUser.class);
 
-                CacheStorage.delete(DatabaseHelper.FRIENDS_TABLE,
-                        String.format(AppGlobal.locale, "%s = %d",
-                                DatabaseHelper.USER_ID, VKApi.config.userId));
+                CacheStorage.delete(DatabaseHelper.FRIENDS_TABLE, DatabaseHelper.USER_ID + " = ?",
+                        String.valueOf(VKApi.config.userId));
                 CacheStorage.insert(DatabaseHelper.FRIENDS_TABLE, friends);
                 CacheStorage.insert(DatabaseHelper.USERS_TABLE, friends);
             }
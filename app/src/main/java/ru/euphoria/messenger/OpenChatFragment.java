@@ -88,14 +88,11 @@ public class OpenChatFragment extends Fragment {
         if (adapter == null) {
             adapter = new FriendsAdapter(this, friends);
             recycler.setAdapter(adapter);
+            updateTabTitle();
         } else {
-            adapter.getValues().clear();
-            adapter.getValues().addAll(friends);
-
-            adapter.notifyDataSetChanged();
+            // the title is updated, when the list is applied
+            adapter.submitList(friends);
         }
-
-        updateTabTitle();
     }
 
 }
@@ -0,0 +1,233 @@
+package ru.euphoria.messenger.adapter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+
+import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.method.MessageMethodSetter;
+import ru.euphoria.messenger.api.model.VKAttachments;
+import ru.euphoria.messenger.api.model.VKAttachmentsPage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.database.CacheStorage;
+import ru.euphoria.messenger.database.DatabaseHelper;
+import ru.euphoria.messenger.util.AndroidUtils;
+
+/**
+ * Streams attachments of dialog into {@link BaseAdapter} page by page.
+ * <p/>
+ * Pages of network are requested by "next_from" cursor of the previous
+ * page, when the user scrolls within {@link #PREFETCH_DISTANCE} of the end.
+ * Photos, audios and docs are also written to the cache: the cached first
+ * page is shown until the first page of network arrives, and without
+ * connection pages are read from the cache by message id.
+ * <p/>
+ * All methods must be called on the main thread.
+ */
+public class AttachmentPager {
+    private static final String TAG = "Euphoria.AttachmentPager";
+
+    /** The number of attachments in page of network, max is 200 */
+    public static final int PAGE_SIZE = 50;
+    /** The number of attachments to the end of list, when the next page is loaded */
+    public static final int PREFETCH_DISTANCE = 30;
+
+    private final BaseAdapter<? extends VKModel, ?> adapter;
+    private final long peerId;
+    private final String type;
+    /** The table of cached attachments, or null if the type is not cached */
+    private final String table;
+
+    private Future<?> task;
+    private boolean loading;
+    private boolean destroyed;
+
+    /** True while pages are requested from network, false after an error */
+    private boolean remote;
+    private boolean remoteShown;
+    private String nextFrom;
+    private int lastMessageId;
+    private boolean end;
+
+    /**
+     * @param type the type of attachments, e.g. {@link VKAttachments#TYPE_PHOTO}
+     */
+    public AttachmentPager(BaseAdapter<? extends VKModel, ?> adapter, long peerId, String type) {
+        this.adapter = adapter;
+        this.peerId = peerId;
+        this.type = type;
+        this.table = tableOf(type);
+    }
+
+    /**
+     * Shows the cached first page and requests the first page of network
+     */
+    public void start() {
+        remote = AndroidUtils.hasConnection();
+        if (table != null) {
+            loadCached(true);
+        }
+        if (remote) {
+            loadRemote(null);
+        }
+    }
+
+    /**
+     * Called on scroll of list, loads the next page
+     *
+     * @param lastVisible the position of the last visible attachment
+     */
+    public void onScrolled(int lastVisible) {
+        if (loading || end || lastVisible < adapter.getItemCount() - PREFETCH_DISTANCE) {
+            return;
+        }
+
+        if (remote && remoteShown) {
+            if (nextFrom == null) {
+                end = true;
+            } else {
+                loadRemote(nextFrom);
+            }
+        } else if (!remote && table != null) {
+            loadCached(false);
+        }
+    }
+
+    public void destroy() {
+        destroyed = true;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private void loadRemote(final String cursor) {
+        loading = true;
+        task = ThreadExecutor.execute(ThreadExecutor.NETWORK, ThreadExecutor.PRIORITY_NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                VKAttachmentsPage page = null;
+                Exception error = null;
+                try {
+                    MessageMethodSetter setter = VKApi.messages().getHistoryAttachments()
+                            .mediaType(type)
+                            .peerId(peerId);
+                    if (cursor != null) {
+                        setter.startFrom(cursor);
+                    }
+                    page = setter.count(PAGE_SIZE)
+                            .execute(VKAttachmentsPage.class)
+                            .get(0);
+
+                    if (table != null) {
+                        CacheStorage.putAttachments(table, peerId, page, cursor == null);
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                final VKAttachmentsPage result = page;
+                final Exception failure = error;
+                AppGlobal.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (destroyed) {
+                            return;
+                        }
+                        if (failure != null) {
+                            onRemoteFailed(failure);
+                        } else {
+                            onRemotePage(result, cursor == null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadCached(final boolean first) {
+        loading = !first;
+        final int before = first ? 0 : lastMessageId;
+        Future<?> read = ThreadExecutor.execute(ThreadExecutor.DISK, ThreadExecutor.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                final VKAttachmentsPage page = CacheStorage.getAttachments(table, peerId, before, PAGE_SIZE);
+                AppGlobal.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the first page of network replaces the cache
+                        if (!destroyed && !remoteShown) {
+                            onCachedPage(page, first);
+                        }
+                    }
+                });
+            }
+        });
+        if (!first) {
+            task = read;
+        }
+    }
+
+    private void onRemotePage(VKAttachmentsPage page, boolean first) {
+        loading = false;
+        task = null;
+        if (first) {
+            int count = adapter.getItemCount();
+            adapter.getValues().clear();
+            adapter.notifyItemRangeRemoved(0, count);
+            remoteShown = true;
+        }
+
+        append(page);
+        nextFrom = page.next_from;
+        end = nextFrom == null;
+    }
+
+    private void onRemoteFailed(Exception e) {
+        Log.w(TAG, "Failed to load attachments of " + peerId, e);
+        loading = false;
+        task = null;
+
+        // continue from the cache
+        remote = false;
+        remoteShown = false;
+    }
+
+    private void onCachedPage(VKAttachmentsPage page, boolean first) {
+        if (!first) {
+            loading = false;
+            task = null;
+            end = page.isEmpty();
+        } else if (adapter.getItemCount() != 0) {
+            return;
+        }
+        append(page);
+    }
+
+    private void append(VKAttachmentsPage page) {
+        if (page.isEmpty()) {
+            return;
+        }
+
+        ArrayList<VKModel> values = AndroidUtils.unsafeCast(adapter.getValues());
+        int start = values.size();
+        values.addAll(page.items);
+        adapter.notifyItemRangeInserted(start, page.items.size());
+        lastMessageId = page.lastMessageId();
+    }
+
+    private static String tableOf(String type) {
+        switch (type) {
+            case VKAttachments.TYPE_PHOTO:
+                return DatabaseHelper.PHOTOS_TABLE;
+            case VKAttachments.TYPE_AUDIO:
+                return DatabaseHelper.AUDIOS_TABLE;
+            case VKAttachments.TYPE_DOC:
+                return DatabaseHelper.DOCS_TABLE;
+        }
+        return null;
+    }
+}
@@ -6,6 +6,7 @@ import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by Igor on 10.03.17.
@@ -16,6 +17,8 @@ public class BaseAdapter<T, VH extends RecyclerView.ViewHolder>
     private ArrayList<T> values;
     private ArrayList<T> cleanValues;
 
+    private ListDiffer<T> differ;
+
     protected Context context;
     protected LayoutInflater inflater;
 
@@ -24,6 +27,38 @@ public class BaseAdapter<T, VH extends RecyclerView.ViewHolder>
         this.values = values;
 
         this.inflater = LayoutInflater.from(context);
+        this.differ = new ListDiffer<T>(this) {
+            @Override
+            protected int size() {
+                return BaseAdapter.this.values.size();
+            }
+
+            @Override
+            protected T get(int position) {
+                return BaseAdapter.this.values.get(position);
+            }
+
+            @Override
+            protected void set(List<T> items) {
+                BaseAdapter.this.values.clear();
+                BaseAdapter.this.values.addAll(items);
+            }
+
+            @Override
+            protected long getId(T item) {
+                return getDiffId(item);
+            }
+
+            @Override
+            protected boolean areContentsTheSame(T oldItem, T newItem) {
+                return BaseAdapter.this.areContentsTheSame(oldItem, newItem);
+            }
+
+            @Override
+            protected void onApplied() {
+                onListChanged();
+            }
+        };
     }
 
     @Override
@@ -45,25 +80,56 @@ public class BaseAdapter<T, VH extends RecyclerView.ViewHolder>
         return values.get(position);
     }
 
+    /**
+     * Replaces values with the new list in background, only updated
+     * items are notified, see {@link ListDiffer}
+     */
+    public void submitList(ArrayList<T> values) {
+        differ.submit(values);
+    }
+
+    /**
+     * Returns the id of item to find it in the new list, see {@link #submitList(ArrayList)}.
+     * Override to return the id of model, by default items are compared by hash code.
+     */
+    protected long getDiffId(T item) {
+        return item.hashCode();
+    }
+
+    /**
+     * Returns true if the item with the same id is displayed the same way,
+     * called on the cpu pool. By default items are always rebound.
+     */
+    protected boolean areContentsTheSame(T oldItem, T newItem) {
+        return false;
+    }
+
+    /**
+     * Called after the list from {@link #submitList(ArrayList)} is applied
+     */
+    protected void onListChanged() {
+    }
+
     public void filter(String query) {
         String lowerQuery = query.toLowerCase();
 
         if (cleanValues == null) {
             cleanValues = new ArrayList<>(values);
         }
-        values.clear();
 
+        ArrayList<T> filtered;
         if (query.isEmpty()) {
-            values.addAll(cleanValues);
+            filtered = cleanValues;
         } else {
+            filtered = new ArrayList<>();
             for (T value : cleanValues) {
                 if (onQueryItem(value, lowerQuery)) {
-                    values.add(value);
+                    filtered.add(value);
                 }
             }
         }
 
-        notifyDataSetChanged();
+        submitList(filtered);
     }
 
     public boolean onQueryItem(T item, String lowerQuery) {
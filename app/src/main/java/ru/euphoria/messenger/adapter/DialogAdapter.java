@@ -26,9 +26,8 @@ import org.w3c.dom.Text;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 
 import ru.euphoria.messenger.R;
@@ -47,6 +46,7 @@ import ru.euphoria.messenger.api.model.VKVideo;
 import ru.euphoria.messenger.common.AppGlobal;
 import ru.euphoria.messenger.common.ThemeManager;
 import ru.euphoria.messenger.database.MemoryCache;
+import ru.euphoria.messenger.service.LongPollUpdates;
 import ru.euphoria.messenger.util.AndroidUtils;
 import ru.euphoria.messenger.util.ArrayUtil;
 import ru.euphoria.messenger.util.ThemeUtil;
@@ -56,45 +56,98 @@ import ru.euphoria.messenger.util.ThemeUtil;
  */
 
 public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder> {
-    public ArrayList<VKMessage> messages;
+    public DialogList messages;
+    private ListDiffer<VKMessage> differ;
+    /** Called when the submitted list is applied */
+    private Runnable onSubmitted;
 
     private LayoutInflater inflater;
     private Context context;
 
-    private Comparator<VKMessage> comparator;
     private ColorDrawable placeholder;
     private OnItemClickListener listener;
-    private int position;
 
     private int titleColor = -1;
     private int bodyColor = -1;
     private int dateColor = -1;
 
     public DialogAdapter(Context context, ArrayList<VKMessage> messages) {
-        this.messages = messages;
+        this.messages = new DialogList(messages);
+        this.differ = new ListDiffer<VKMessage>(this) {
+            @Override
+            protected int size() {
+                return DialogAdapter.this.messages.size();
+            }
 
-        this.context = context;
-        this.inflater = LayoutInflater.from(context);
+            @Override
+            protected VKMessage get(int position) {
+                return DialogAdapter.this.messages.get(position);
+            }
+
+            @Override
+            protected void set(List<VKMessage> items) {
+                DialogAdapter.this.messages.clear();
+                DialogAdapter.this.messages.addAll(items);
+            }
+
+            @Override
+            protected long getId(VKMessage item) {
+                // a dialog is the same, while the last message changes
+                return LongPollUpdates.peerOf(item);
+            }
 
-        this.placeholder = new ColorDrawable(
-                ThemeManager.isNightMode() ? Color.DKGRAY : Color.GRAY);
-        comparator = new Comparator<VKMessage>() {
             @Override
-            public int compare(VKMessage o1, VKMessage o2) {
-                long x = o1.date;
-                long y = o2.date;
+            protected boolean areContentsTheSame(VKMessage oldItem, VKMessage newItem) {
+                return oldItem.id == newItem.id
+                        && oldItem.date == newItem.date
+                        && oldItem.read_state == newItem.read_state
+                        && oldItem.is_out == newItem.is_out
+                        && oldItem.unread == newItem.unread
+                        && TextUtils.equals(oldItem.body, newItem.body)
+                        && TextUtils.equals(oldItem.title, newItem.title)
+                        && TextUtils.equals(oldItem.photo_50, newItem.photo_50);
+            }
 
-                return (x > y) ? -1 : ((x == y) ? 1 : 0);
+            @Override
+            protected void onApplied() {
+                Runnable callback = onSubmitted;
+                onSubmitted = null;
+                if (callback != null) {
+                    callback.run();
+                }
             }
         };
 
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+
+        this.placeholder = new ColorDrawable(
+                ThemeManager.isNightMode() ? Color.DKGRAY : Color.GRAY);
+
         EventBus.getDefault().register(this);
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
-    public void onNewMessage(VKMessage message) {
-        int index = searchMessageIndex(message.user_id, message.chat_id);
-        if (index >= 0) {
+    public void onUpdates(LongPollUpdates updates) {
+        // the list is sorted by date, so a dialog with new message
+        // only moves to the top, without sort and full rebind
+        for (int i = 0; i < updates.messages.size(); i++) {
+            VKMessage message = updates.messages.get(i);
+            if (!updates.isLast(message)) {
+                continue;
+            }
+
+            int peer = LongPollUpdates.peerOf(message);
+            int index = messages.indexOfPeer(peer);
+            if (index < 0) {
+                // only the first pages are loaded, the dialog
+                // may be older or new, it's the newest now
+                message.unread = message.is_out ? 0 : updates.incomingCounts.get(peer);
+                messages.addFirst(message);
+                notifyItemInserted(0);
+                continue;
+            }
+
             VKMessage current = messages.get(index);
             current.id = message.id;
             current.body = message.body;
@@ -104,24 +157,28 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
             current.chat_id = message.chat_id;
             current.read_state = message.read_state;
             current.is_out = message.is_out;
-            current.unread++;
+            current.unread += updates.incomingCounts.get(peer);
             if (current.is_out) {
                 current.unread = 0;
             }
 
-            Collections.sort(messages, comparator);
-            notifyDataSetChanged();
+            // also reindexes the new message id
+            messages.moveToFront(index);
+            if (index != 0) {
+                notifyItemMoved(index, 0);
+            }
+            notifyItemChanged(0);
         }
-    }
 
-    @Subscribe(threadMode = ThreadMode.MAIN)
-    public void onReadMessage(Integer id) {
-        VKMessage message = searchMessage(id);
-        if (message != null) {
-            message.read_state = true;
-            message.unread = 0;
+        for (int i = 0; i < updates.readIds.size(); i++) {
+            int index = searchMessageIndex(updates.readIds.keyAt(i));
+            if (index >= 0) {
+                VKMessage message = messages.get(index);
+                message.read_state = true;
+                message.unread = 0;
 
-            notifyDataSetChanged();
+                notifyItemChanged(index);
+            }
         }
     }
 
@@ -133,8 +190,7 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
 
     @Override
     public void onBindViewHolder(final ViewHolder holder, int position) {
-        this.position = position;
-        initListeners(holder.itemView, position);
+        initListeners(holder);
 
         if (dateColor == -1) {
             dateColor = holder.date.getCurrentTextColor();
@@ -229,10 +285,6 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
                 .into(holder.avatar);
     }
 
-    public int getCurrentPosition() {
-        return position;
-    }
-
     @Override
     public int getItemCount() {
         return messages.size();
@@ -242,8 +294,22 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
         this.listener = l;
     }
 
-    public void add(ArrayList<VKMessage> messages) {
-        this.messages.addAll(messages);
+    /**
+     * Appends the page of older dialogs, skips dialogs, which are already
+     * in the list, e.g. moved to the top by a new message
+     *
+     * @return the number of appended dialogs
+     */
+    public int add(ArrayList<VKMessage> messages) {
+        int count = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            VKMessage dialog = messages.get(i);
+            if (this.messages.indexOfPeer(dialog.user_id, dialog.chat_id) < 0) {
+                this.messages.add(dialog);
+                count++;
+            }
+        }
+        return count;
     }
 
     public void remove(int position) {
@@ -264,13 +330,27 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
                 ? group.photo_50 : user.photo_50;
     }
 
-    public void changeItems(ArrayList<VKMessage> messages) {
+    /**
+     * Replaces dialogs with the new list in background, only moved,
+     * new and changed dialogs are notified, see {@link ListDiffer}
+     *
+     * @param onApplied called on the main thread after the list is applied, or null
+     */
+    public void submitItems(ArrayList<VKMessage> messages, Runnable onApplied) {
         if (!ArrayUtil.isEmpty(messages)) {
-            this.messages.clear();
-            this.messages.addAll(messages);
+            onSubmitted = onApplied;
+            differ.submit(messages);
         }
     }
 
+    /**
+     * Returns true if the submitted list is not applied yet,
+     * dialogs appended meanwhile would be replaced
+     */
+    public boolean isSubmitting() {
+        return differ.isPending();
+    }
+
     private String getActionBody(VKMessage msg) {
         switch (msg.action) {
             case VKMessage.ACTION_CHAT_KICK_USER:
@@ -331,20 +411,26 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
         return context.getString(res);
     }
 
-    private void initListeners(View v, final int position) {
-        v.setOnLongClickListener(new View.OnLongClickListener() {
+    /**
+     * Rows are moved and inserted without rebinding,
+     * so the position is read on click, not on bind
+     */
+    private void initListeners(final ViewHolder holder) {
+        holder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
             public boolean onLongClick(View v) {
-                if (listener != null) {
+                int position = holder.getAdapterPosition();
+                if (listener != null && position != RecyclerView.NO_POSITION) {
                     listener.onItemLongClick(v, position);
                 }
                 return true;
             }
         });
-        v.setOnClickListener(new View.OnClickListener() {
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (listener != null) {
+                int position = holder.getAdapterPosition();
+                if (listener != null && position != RecyclerView.NO_POSITION) {
                     listener.onItemClick(v, position);
                 }
             }
@@ -367,27 +453,16 @@ public class DialogAdapter extends RecyclerView.Adapter<DialogAdapter.ViewHolder
     }
 
     public int searchMessageIndex(int userId, int chatId) {
-        for (int i = 0; i < messages.size(); i++) {
-            VKMessage msg = messages.get(i);
-            if (msg.chat_id == chatId && chatId > 0) {
-                return i;
-            }
-
-            if (msg.user_id == userId && chatId == 0) {
-                return i;
-            }
-        }
-        return -1;
+        return messages.indexOfPeer(userId, chatId);
     }
 
     public VKMessage searchMessage(int id) {
-        for (int i = 0; i < messages.size(); i++) {
-            VKMessage msg = messages.get(i);
-            if (msg.id == id) {
-                return msg;
-            }
-        }
-        return null;
+        int index = searchMessageIndex(id);
+        return index >= 0 ? messages.get(index) : null;
+    }
+
+    public int searchMessageIndex(int id) {
+        return messages.indexOfMessage(id);
     }
 
     public void destroy() {
@@ -0,0 +1,362 @@
+package ru.euphoria.messenger.adapter;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.util.AndroidUtils;
+
+/**
+ * The list of dialogs, ordered by date of the last message,
+ * with indexes by peer id and by id of the last message.
+ * <p/>
+ * Dialogs are stored in slots of an array: older dialogs are appended
+ * to the tail, a dialog with a new message is moved to a free slot
+ * before the head. The position of a slot is the number of used slots
+ * before it, counted by a Fenwick tree, so {@link #get(int)},
+ * {@link #indexOfPeer(int)}, {@link #moveToFront(int)} and
+ * {@link #remove(int)} take O(log n), without shifting of other dialogs.
+ * Slots are compacted when the head or tail reaches the end of array.
+ * <p/>
+ * Call {@link #reindex(int)} after changing of id, user_id or chat_id
+ * of a dialog in the list. Instances of this class are not thread safe.
+ */
+public class DialogList {
+    private static final int MIN_CAPACITY = 16;
+
+    private VKMessage[] slots;
+    /** Fenwick tree of used slots, 1-based */
+    private int[] tree;
+    /** The peer id and message id, a slot is indexed with */
+    private int[] slotPeers;
+    private int[] slotIds;
+
+    /** The first used slot (or the next free, if empty) and the next free slot after the last */
+    private int head;
+    private int tail;
+    private int size;
+
+    private final IntIntMap peers = new IntIntMap();
+    private final IntIntMap ids = new IntIntMap();
+
+    public DialogList() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public DialogList(Collection<VKMessage> dialogs) {
+        allocate(Math.max(MIN_CAPACITY, dialogs.size() * 2));
+        addAll(dialogs);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the dialog at position, the newest dialog is at 0
+     */
+    public VKMessage get(int position) {
+        return slots[slotAt(position)];
+    }
+
+    /**
+     * Returns the position of dialog with user or chat, or -1
+     */
+    public int indexOfPeer(int userId, int chatId) {
+        return indexOfPeer((int) AndroidUtils.getPeerId(userId, chatId, 0));
+    }
+
+    /**
+     * Returns the position of dialog by peer id, or -1
+     */
+    public int indexOfPeer(int peerId) {
+        int slot = peers.get(peerId);
+        return slot < 0 ? -1 : positionOf(slot);
+    }
+
+    /**
+     * Returns the position of dialog, which last message has the id, or -1
+     */
+    public int indexOfMessage(int id) {
+        int slot = ids.get(id);
+        return slot < 0 ? -1 : positionOf(slot);
+    }
+
+    /**
+     * Appends the dialog to the end of list, e.g. the next page of older dialogs
+     */
+    public void add(VKMessage dialog) {
+        if (tail == slots.length) {
+            compact(size + 1);
+        }
+        put(tail++, dialog);
+    }
+
+    public void addAll(Collection<VKMessage> dialogs) {
+        if (tail + dialogs.size() > slots.length) {
+            compact(size + dialogs.size());
+        }
+        for (VKMessage dialog : dialogs) {
+            put(tail++, dialog);
+        }
+    }
+
+    /**
+     * Inserts the dialog at the top of list, e.g. a dialog with a new message
+     */
+    public void addFirst(VKMessage dialog) {
+        if (head == 0) {
+            compact(size + 1);
+        }
+        put(--head, dialog);
+    }
+
+    /**
+     * Moves the dialog at position to the top of list and updates its indexes
+     *
+     * @return the dialog
+     */
+    public VKMessage moveToFront(int position) {
+        VKMessage dialog = remove(position);
+        addFirst(dialog);
+        return dialog;
+    }
+
+    /**
+     * Updates indexes of the dialog at position, after its id or peer was changed
+     */
+    public void reindex(int position) {
+        int slot = slotAt(position);
+        unindex(slot);
+        index(slot, slots[slot]);
+    }
+
+    public VKMessage remove(int position) {
+        int slot = slotAt(position);
+        VKMessage dialog = slots[slot];
+
+        unindex(slot);
+        slots[slot] = null;
+        update(slot, -1);
+        size--;
+
+        if (size == 0) {
+            head = tail = slots.length / 2;
+        }
+        return dialog;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, null);
+        Arrays.fill(tree, 0);
+        peers.clear();
+        ids.clear();
+        head = tail = slots.length / 2;
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        slots = new VKMessage[capacity];
+        tree = new int[capacity + 1];
+        slotPeers = new int[capacity];
+        slotIds = new int[capacity];
+        head = tail = capacity / 2;
+    }
+
+    private void put(int slot, VKMessage dialog) {
+        slots[slot] = dialog;
+        index(slot, dialog);
+        update(slot, 1);
+        size++;
+    }
+
+    private void index(int slot, VKMessage dialog) {
+        int peer = (int) AndroidUtils.getPeerId(dialog.user_id, dialog.chat_id, 0);
+        slotPeers[slot] = peer;
+        slotIds[slot] = dialog.id;
+
+        peers.put(peer, slot);
+        if (dialog.id != 0) {
+            ids.put(dialog.id, slot);
+        }
+    }
+
+    private void unindex(int slot) {
+        // remove only own entries, the peer may be indexed by a newer slot
+        if (peers.get(slotPeers[slot]) == slot) {
+            peers.remove(slotPeers[slot]);
+        }
+        if (slotIds[slot] != 0 && ids.get(slotIds[slot]) == slot) {
+            ids.remove(slotIds[slot]);
+        }
+    }
+
+    /**
+     * Moves used slots to the middle of a new array, so there is
+     * free space for required dialogs before the head and after the tail
+     */
+    private void compact(int required) {
+        VKMessage[] old = slots;
+        int oldHead = head;
+        int oldTail = tail;
+        int count = size;
+
+        allocate(Math.max(MIN_CAPACITY, required * 2));
+        peers.clear();
+        ids.clear();
+
+        head = tail = (slots.length - count) / 2;
+        for (int i = oldHead; i < oldTail; i++) {
+            if (old[i] != null) {
+                slots[tail] = old[i];
+                index(tail, old[i]);
+                tail++;
+            }
+        }
+        build();
+    }
+
+    /** Builds Fenwick tree of used slots in O(n) */
+    private void build() {
+        Arrays.fill(tree, 0);
+        for (int i = 1; i < tree.length; i++) {
+            if (slots[i - 1] != null) {
+                tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private void update(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private int positionOf(int slot) {
+        // number of used slots before this one
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    private int slotAt(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + position + ", size is " + size);
+        }
+
+        // the lowest slot with prefix count = position + 1
+        int slot = 0;
+        int remaining = position + 1;
+        for (int step = Integer.highestOneBit(tree.length - 1); step != 0; step >>= 1) {
+            int next = slot + step;
+            if (next < tree.length && tree[next] < remaining) {
+                slot = next;
+                remaining -= tree[next];
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Open addressing int to int map with linear probing,
+     * values are slots, so -1 marks an empty cell.
+     */
+    private static class IntIntMap {
+        private int[] keys = new int[32];
+        private int[] values = newValues(32);
+        private int size;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != -1; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != -1) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != -1 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == -1) {
+                return;
+            }
+
+            // backward shift, so probe chains stay without holes
+            int free = i;
+            for (int j = (i + 1) & mask; values[j] != -1; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - free) & mask)) {
+                    keys[free] = keys[j];
+                    values[free] = values[j];
+                    free = j;
+                }
+            }
+            values[free] = -1;
+            size--;
+        }
+
+        void clear() {
+            Arrays.fill(values, -1);
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = newValues(capacity);
+            size = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != -1) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, -1);
+            return values;
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package ru.euphoria.messenger.adapter;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.database.CacheStorage;
+
+/**
+ * Pages the dialogs list of {@link DialogAdapter} from cache and network.
+ * <p/>
+ * Only the first page is read on start. When the user scrolls within
+ * {@link #PREFETCH_DISTANCE} of the end, the next page is read from
+ * {@link CacheStorage} by keyset after the last dialog, and when the cache
+ * has no more dialogs, the next page is requested from network.
+ * <p/>
+ * Dialogs are materialised from the top, because new messages move
+ * dialogs to the top by peer. When the user scrolls back up, pages
+ * beyond {@link #MAX_PAGES} below the visible position are dropped
+ * and read from cache again when needed.
+ * <p/>
+ * All methods must be called on the main thread.
+ */
+public class DialogPager {
+    public static final int PAGE_SIZE = 30;
+    /** The number of dialogs to the end of list, when the next page is loaded */
+    public static final int PREFETCH_DISTANCE = 10;
+    /** The max number of pages below the visible position */
+    public static final int MAX_PAGES = 4;
+
+    public interface OnLoadRemoteListener {
+        /**
+         * Called when the cache has no more dialogs,
+         * call {@link #onRemoteLoaded(int)} when the page is loaded
+         */
+        void onLoadRemote(int offset, int count);
+    }
+
+    private final OnLoadRemoteListener listener;
+    private DialogAdapter adapter;
+    private Future<?> task;
+
+    private boolean loading;
+    private boolean cacheEnd;
+    private boolean remoteEnd;
+    /** The offset of the next network page, dialogs of page may be already in list */
+    private int remoteOffset;
+    /** The last dialog read from cache, or null to read after the last dialog of list */
+    private VKMessage cursor;
+    /** Changed by {@link #reset()}, so pages read before are dropped */
+    private int generation;
+    /** The last visible position of the scheduled trim */
+    private int trimPosition;
+    private boolean trimPending;
+
+    public DialogPager(OnLoadRemoteListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the first page of cached dialogs, it is read on the calling
+     * thread, so the list is shown without an empty frame
+     */
+    public static ArrayList<VKMessage> getFirstPage() {
+        return CacheStorage.getDialogs(null, PAGE_SIZE);
+    }
+
+    public void setAdapter(DialogAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Called after the list was replaced by the newest dialogs, e.g. after
+     * refresh, when the new list is applied. Older dialogs will be read
+     * from cache again, pages are not loaded while the list is submitted,
+     * see {@link DialogAdapter#isSubmitting()}.
+     */
+    public void reset() {
+        generation++;
+        cancelTask();
+        loading = false;
+        cacheEnd = false;
+        remoteEnd = false;
+        remoteOffset = 0;
+        cursor = null;
+    }
+
+    /**
+     * Called on scroll of list, loads the next page or drops far pages
+     *
+     * @param lastVisible the position of the last visible dialog
+     */
+    public void onScrolled(int lastVisible) {
+        if (adapter == null) {
+            return;
+        }
+
+        int size = adapter.getItemCount();
+        if (lastVisible >= size - PREFETCH_DISTANCE) {
+            loadNext();
+        } else {
+            scheduleTrim(lastVisible);
+        }
+    }
+
+    /**
+     * Called when the page of network was appended to the list
+     *
+     * @param count the number of dialogs in the page, 0 if there are no more
+     */
+    public void onRemoteLoaded(int count) {
+        loading = false;
+        remoteOffset += count;
+        if (count == 0) {
+            remoteEnd = true;
+        }
+    }
+
+    /**
+     * Called when the page of network was not loaded, e.g. no connection.
+     * Network pages are not requested until {@link #reset()}.
+     */
+    public void onRemoteFailed() {
+        loading = false;
+        remoteEnd = true;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public void destroy() {
+        generation++;
+        cancelTask();
+        adapter = null;
+    }
+
+    private void loadNext() {
+        // the pager is reset, when the submitted list is applied
+        if (loading || adapter.isSubmitting() || (cacheEnd && remoteEnd)) {
+            return;
+        }
+
+        loading = true;
+        if (cacheEnd) {
+            remoteOffset = Math.max(remoteOffset, adapter.getItemCount());
+            listener.onLoadRemote(remoteOffset, PAGE_SIZE);
+            return;
+        }
+
+        final VKMessage last = cursor != null || adapter.getItemCount() == 0 ? cursor
+                : adapter.messages.get(adapter.getItemCount() - 1);
+        final int expected = generation;
+        task = ThreadExecutor.execute(ThreadExecutor.DISK, ThreadExecutor.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<VKMessage> page = CacheStorage.getDialogs(last, PAGE_SIZE);
+                AppGlobal.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (expected != generation || adapter == null) {
+                            return;
+                        }
+                        if (adapter.isSubmitting()) {
+                            // read after the old list, the pager is reset on apply
+                            task = null;
+                            loading = false;
+                            return;
+                        }
+                        onCachedPage(page);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCachedPage(ArrayList<VKMessage> page) {
+        task = null;
+        loading = false;
+        if (page.size() < PAGE_SIZE) {
+            cacheEnd = true;
+        }
+        if (!page.isEmpty()) {
+            cursor = page.get(page.size() - 1);
+        }
+
+        int start = adapter.getItemCount();
+        int count = adapter.add(page);
+        if (count > 0) {
+            adapter.notifyItemRangeInserted(start, count);
+        } else {
+            // all dialogs of page are in list, continue with the next page
+            loadNext();
+        }
+    }
+
+    /**
+     * Trims the list on the next frame, RecyclerView must not be
+     * notified while it dispatches the scroll
+     */
+    private void scheduleTrim(int lastVisible) {
+        trimPosition = lastVisible;
+        if (trimPending) {
+            return;
+        }
+
+        trimPending = true;
+        final int expected = generation;
+        AppGlobal.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                trimPending = false;
+                if (expected == generation && adapter != null) {
+                    trim(trimPosition);
+                }
+            }
+        });
+    }
+
+    private void trim(int lastVisible) {
+        int keep = (lastVisible / PAGE_SIZE + 1 + MAX_PAGES) * PAGE_SIZE;
+        int size = adapter.getItemCount();
+        if (size - keep < PAGE_SIZE || loading) {
+            return;
+        }
+
+        for (int i = size - 1; i >= keep; i--) {
+            adapter.remove(i);
+        }
+        adapter.notifyItemRangeRemoved(keep, size - keep);
+
+        // dropped dialogs are synced to cache
+        cacheEnd = false;
+        remoteEnd = false;
+        remoteOffset = 0;
+        cursor = null;
+    }
+
+    private void cancelTask() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+}
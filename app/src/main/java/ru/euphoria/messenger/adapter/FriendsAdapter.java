@@ -141,9 +141,22 @@ public class FriendsAdapter extends BaseAdapter<VKUser, FriendsAdapter.ViewHolde
     }
 
     @Override
-    public void filter(String query) {
-        super.filter(query);
+    protected long getDiffId(VKUser item) {
+        return item.id;
+    }
 
+    @Override
+    protected boolean areContentsTheSame(VKUser oldItem, VKUser newItem) {
+        return oldItem.online == newItem.online
+                && oldItem.last_seen == newItem.last_seen
+                && TextUtils.equals(oldItem.first_name, newItem.first_name)
+                && TextUtils.equals(oldItem.last_name, newItem.last_name)
+                && TextUtils.equals(oldItem.photo_50, newItem.photo_50)
+                && TextUtils.equals(oldItem.deactivated, newItem.deactivated);
+    }
+
+    @Override
+    protected void onListChanged() {
         fragment.updateTabTitle();
     }
 
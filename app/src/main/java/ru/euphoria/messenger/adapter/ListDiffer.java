@@ -0,0 +1,177 @@
+package ru.euphoria.messenger.adapter;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.util.ListDiff;
+
+/**
+ * Replaces items of {@link RecyclerView.Adapter} with a new list
+ * and notifies only updated positions.
+ * <p/>
+ * The diff of the current and the new list is computed by {@link ListDiff}
+ * on the cpu pool, then the new list is set and inserts, removals, moves
+ * and changes are dispatched on the main thread. If a newer list is
+ * submitted meanwhile, the result is dropped. If the items were changed
+ * meanwhile by other code, e.g. a new message was added, the diff no
+ * longer applies, so the new list is set with a full rebind.
+ * <p/>
+ * Methods must be called on the main thread.
+ */
+public abstract class ListDiffer<T> {
+    private final RecyclerView.Adapter<?> adapter;
+    private int generation;
+    private Future<?> task;
+
+    public ListDiffer(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    /** Returns the number of current items */
+    protected abstract int size();
+
+    protected abstract T get(int position);
+
+    /** Replaces current items with the new list */
+    protected abstract void set(List<T> items);
+
+    /** Returns the id of item, e.g. the id of model, equal ids mean the same item */
+    protected abstract long getId(T item);
+
+    /**
+     * Returns true if the item is displayed the same way, called on the cpu pool
+     */
+    protected abstract boolean areContentsTheSame(T oldItem, T newItem);
+
+    /**
+     * Called after the new list is set and notified
+     */
+    protected void onApplied() {
+    }
+
+    /**
+     * Computes the diff in background and applies the new list
+     */
+    public void submit(List<T> items) {
+        cancel();
+        final int current = generation;
+
+        final ArrayList<T> oldItems = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            oldItems.add(get(i));
+        }
+        final ArrayList<T> newItems = new ArrayList<>(items);
+
+        task = ThreadExecutor.execute(ThreadExecutor.CPU, ThreadExecutor.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                final ListDiff.Result result = ListDiff.calculate(new ListDiff.Callback() {
+                    @Override
+                    public int getOldSize() {
+                        return oldItems.size();
+                    }
+
+                    @Override
+                    public int getNewSize() {
+                        return newItems.size();
+                    }
+
+                    @Override
+                    public long getOldId(int oldPosition) {
+                        return getId(oldItems.get(oldPosition));
+                    }
+
+                    @Override
+                    public long getNewId(int newPosition) {
+                        return getId(newItems.get(newPosition));
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return ListDiffer.this.areContentsTheSame(
+                                oldItems.get(oldPosition), newItems.get(newPosition));
+                    }
+                });
+
+                AppGlobal.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (current == generation) {
+                            task = null;
+                            apply(oldItems, newItems, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns true if a submitted list is not applied yet
+     */
+    public boolean isPending() {
+        return task != null;
+    }
+
+    /**
+     * Drops the pending list, e.g. when items are replaced directly
+     */
+    public void cancel() {
+        generation++;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private void apply(ArrayList<T> oldItems, ArrayList<T> newItems, ListDiff.Result result) {
+        if (!isSame(oldItems)) {
+            set(newItems);
+            adapter.notifyDataSetChanged();
+            onApplied();
+            return;
+        }
+
+        set(newItems);
+        result.dispatchTo(new ListDiff.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                adapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                adapter.notifyItemRangeChanged(position, count);
+            }
+        });
+        onApplied();
+    }
+
+    /** Returns true if current items are the snapshot, the diff was computed from */
+    private boolean isSame(ArrayList<T> snapshot) {
+        if (snapshot.size() != size()) {
+            return false;
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i) != get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
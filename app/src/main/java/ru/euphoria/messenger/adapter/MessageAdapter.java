@@ -4,11 +4,9 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.v4.content.ContextCompat;
@@ -26,7 +24,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 
 import org.greenrobot.eventbus.EventBus;
@@ -34,6 +31,9 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
 import ru.euphoria.messenger.ImageViewActivity;
@@ -47,14 +47,16 @@ import ru.euphoria.messenger.api.model.VKLink;
 import ru.euphoria.messenger.api.model.VKMessage;
 import ru.euphoria.messenger.api.model.VKModel;
 import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKPhotoSizes;
 import ru.euphoria.messenger.api.model.VKSticker;
 import ru.euphoria.messenger.api.model.VKUser;
 import ru.euphoria.messenger.api.model.VKVideo;
 import ru.euphoria.messenger.common.AppGlobal;
-import ru.euphoria.messenger.common.BlurTransform;
-import ru.euphoria.messenger.common.RoundTransform;
+import ru.euphoria.messenger.common.ImagePipeline;
 import ru.euphoria.messenger.common.ThemeManager;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
 import ru.euphoria.messenger.database.MemoryCache;
+import ru.euphoria.messenger.service.LongPollUpdates;
 import ru.euphoria.messenger.util.AndroidUtils;
 import ru.euphoria.messenger.util.ArrayUtil;
 import ru.euphoria.messenger.util.ColorUtil;
@@ -78,11 +80,20 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
     }
 
     private AttachmentInflater attacher;
+    private ImagePipeline images;
     private int bubbleColor, bubbleInColor, padding;
     private int chatId;
     private int userId;
     private boolean chatBg;
 
+    private MessageLayout.Factory layoutFactory;
+    /**
+     * Layouts by message identity, layouts do not reference messages,
+     * so messages removed from the list are dropped
+     */
+    private final Map<VKMessage, MessageLayout> layouts =
+            Collections.synchronizedMap(new WeakHashMap<VKMessage, MessageLayout>());
+
     public static int getDefaultBubbleColor() {
         return ThemeManager.isNightMode() ? BUBBLE_DARK_COLOR : BUBBLE_LIGHT_COLOR;
     }
@@ -97,10 +108,14 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         this.bubbleInColor = getDefaultBubbleColor();
         this.padding = (int) AndroidUtils.px(64);
         this.attacher = new AttachmentInflater();
+        this.images = new ImagePipeline(context);
 
         String path = AppGlobal.preferences.getString(SettingsFragment.PREF_KEY_CHAT_BACKGROUND, "");
         chatBg = !TextUtils.isEmpty(path);
 
+        this.layoutFactory = createLayoutFactory();
+        prepareLayouts(messages);
+
         EventBus.getDefault().register(this);
     }
 
@@ -121,50 +136,67 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         }
 
         final VKMessage item = getItem(position);
+        if (item.getTag() == null || ((int) item.getTag()) == SendStatus.SENT) {
+            holder.indicator.setVisibility(View.GONE);
+        } else {
+            holder.indicator.setVisibility(View.VISIBLE);
+        }
 
-        holder.root.setGravity(item.is_out ? Gravity.END : Gravity.START);
-        ((LinearLayout) holder.bubble.getParent()).setGravity(item.is_out ? Gravity.END : Gravity.START);
-
-        holder.bubble.setVisibility(View.VISIBLE);
-        holder.bubble.setMaxWidth(AppGlobal.screenWidth - (AppGlobal.screenWidth / 4));
-        holder.bubble.setBackgroundResource(item.is_out ? R.drawable.message_sent_shadow
-                : R.drawable.message_received_shadow);
-
-        int tintColor = getTintColor(item);
+        MessageLayout layout = getLayout(item);
+        if (layout.showAvatar && layout.author == null) {
+            VKUser user = MemoryCache.getUser(item.user_id);
+            if (user != null) {
+                layout = layout.withAuthor(user);
+                layouts.put(item, layout);
+            }
+        }
 
-        Drawable background = holder.bubble.getBackground();
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            background = DrawableCompat.wrap(background);
+        MessageLayout bound = holder.layout;
+        if (bound == layout) {
+            // e.g. only the send status was changed
+            return;
         }
+        holder.layout = layout;
 
-        DrawableCompat.setTintMode(background, PorterDuff.Mode.MULTIPLY);
-        DrawableCompat.setTint(background, tintColor);
+        holder.root.setGravity(layout.gravity);
+        ((LinearLayout) holder.bubble.getParent()).setGravity(layout.gravity);
 
-        holder.body.setVisibility(TextUtils.isEmpty(item.body) ? View.GONE : View.VISIBLE);
-        holder.body.setText(item.body);
+        holder.bubble.setVisibility(layout.showBubble ? View.VISIBLE : View.GONE);
+        holder.bubble.setMaxWidth(layout.maxWidth);
+        if (layout.transparentBubble) {
+            holder.bubble.setBackgroundColor(Color.TRANSPARENT);
+        } else if (bound == null || bound.transparentBubble
+                || bound.background != layout.background || bound.tintColor != layout.tintColor) {
+            holder.bubble.setBackgroundResource(layout.background);
 
-        if (item.getTag() == null || ((int) item.getTag()) == SendStatus.SENT) {
-            holder.indicator.setVisibility(View.GONE);
-        } else {
-            holder.indicator.setVisibility(View.VISIBLE);
+            Drawable background = holder.bubble.getBackground();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                background = DrawableCompat.wrap(background);
+            }
 
+            DrawableCompat.setTintMode(background, PorterDuff.Mode.MULTIPLY);
+            DrawableCompat.setTint(background, layout.tintColor);
         }
 
-        holder.avatar.setVisibility(!item.is_out && chatId > 0 ? View.VISIBLE : View.GONE);
-        if (holder.avatar.getVisibility() == View.VISIBLE) {
-            VKUser user = MemoryCache.getUser(item.user_id);
-            if (user == null) {
-                return;
-            }
+        holder.body.setVisibility(layout.showText ? View.VISIBLE : View.GONE);
+        holder.body.setText(item.body);
 
-            onAvatarClick(holder.avatar, user);
-            Picasso.with(context)
-                    .load(user.photo_50)
-                    .placeholder(new ColorDrawable(Color.TRANSPARENT))
-                    .into(holder.avatar);
+        holder.avatar.setVisibility(layout.showAvatar ? View.VISIBLE : View.GONE);
+        if (layout.showAvatar) {
+            if (layout.author != null) {
+                onAvatarClick(holder.avatar, layout.author);
+                Picasso.with(context)
+                        .load(layout.author.photo_50)
+                        .placeholder(images.getPlaceholder())
+                        .into(holder.avatar);
+            } else {
+                Picasso.with(context).cancelRequest(holder.avatar);
+                holder.avatar.setImageDrawable(images.getPlaceholder());
+                holder.avatar.setOnLongClickListener(null);
+            }
         }
 
-        if (!ArrayUtil.isEmpty(item.fws_messages) || !ArrayUtil.isEmpty(item.attachments)) {
+        if (layout.hasAttachments) {
             holder.attachments.setVisibility(View.VISIBLE);
             holder.attachments.removeAllViews();
 
@@ -176,7 +208,7 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         }
 
         if (!ArrayUtil.isEmpty(item.attachments)) {
-            showAttachments(item, holder);
+            inflateAttachments(holder.attachments, holder.images, item, layout);
         }
 
         if (!ArrayUtil.isEmpty(item.fws_messages)) {
@@ -192,17 +224,27 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
-    public void onNewMessage(VKMessage message) {
-        if (message.is_out) {
-            return;
+    public void onUpdates(LongPollUpdates updates) {
+        int start = getMessagesCount();
+        for (int i = 0; i < updates.messages.size(); i++) {
+            VKMessage message = updates.messages.get(i);
+            if (message.is_out) {
+                continue;
+            }
+
+            if (message.chat_id == chatId && message.isChat() || message.user_id == userId) {
+                getValues().add(message);
+            }
         }
 
-        if (message.chat_id == chatId && message.isChat() || message.user_id == userId) {
-            getValues().add(message);
-            notifyDataSetChanged();
+        int count = getMessagesCount() - start;
+        if (count > 0) {
+            // inserted before the footer
+            notifyItemRangeInserted(start, count);
+
+            MessagesActivity root = (MessagesActivity) context;
+            root.getRecycler().scrollToPosition(getMessagesCount());
         }
-        MessagesActivity root = (MessagesActivity) context;
-        root.getRecycler().scrollToPosition(getMessagesCount());
     }
 
     public void destroy() {
@@ -227,35 +269,101 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         return getValues().size();
     }
 
+    /**
+     * Replaces messages with the new page, e.g. loaded from network after cache,
+     * only new and changed messages are rebound
+     */
     public void changeItems(ArrayList<VKMessage> messages) {
         if (!ArrayUtil.isEmpty(messages)) {
-            this.getValues().clear();
-            this.getValues().addAll(messages);
+            prepareLayouts(messages);
+            submitList(messages);
         }
     }
 
-    public void add(VKMessage message, boolean anim) {
+    public void add(VKMessage message) {
         getValues().add(message);
-        if (anim) {
-            notifyItemInserted(getValues().size() - 1);
-        } else {
-            notifyDataSetChanged();
-        }
+        // inserted before the footer
+        notifyItemInserted(getValues().size() - 1);
     }
 
     public void insert(ArrayList<VKMessage> messages) {
         this.getValues().addAll(0, messages);
+        prepareLayouts(messages);
     }
 
     public void change(VKMessage message) {
         for (int i = 0; i < getValues().size(); i++) {
             if (getValues().get(i).date == message.date) {
+                layouts.remove(getValues().get(i));
                 notifyItemChanged(i);
                 return;
             }
         }
     }
 
+    @Override
+    protected long getDiffId(VKMessage item) {
+        // messages, which are not sent yet, have no id
+        return item.id != 0 ? item.id : -1L - System.identityHashCode(item);
+    }
+
+    @Override
+    protected boolean areContentsTheSame(VKMessage oldItem, VKMessage newItem) {
+        return oldItem.read_state == newItem.read_state
+                && oldItem.is_important == newItem.is_important
+                && TextUtils.equals(oldItem.body, newItem.body)
+                && ArrayUtil.size(oldItem.attachments) == ArrayUtil.size(newItem.attachments)
+                && ArrayUtil.size(oldItem.fws_messages) == ArrayUtil.size(newItem.fws_messages)
+                && (oldItem.getTag() == null
+                ? newItem.getTag() == null : oldItem.getTag().equals(newItem.getTag()));
+    }
+
+    /**
+     * Creates layouts of messages on the cpu pool,
+     * so the page is bound without computing them
+     */
+    private void prepareLayouts(ArrayList<VKMessage> messages) {
+        if (ArrayUtil.isEmpty(messages)) {
+            return;
+        }
+
+        final ArrayList<VKMessage> copy = new ArrayList<>(messages);
+        ThreadExecutor.execute(ThreadExecutor.CPU, ThreadExecutor.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                for (VKMessage message : copy) {
+                    if (!layouts.containsKey(message)) {
+                        layouts.put(message, layoutFactory.create(message));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the prepared layout of message, or creates it if it's not ready
+     */
+    private MessageLayout getLayout(VKMessage message) {
+        MessageLayout layout = layouts.get(message);
+        if (layout == null) {
+            layout = layoutFactory.create(message);
+            layouts.put(message, layout);
+        }
+        return layout;
+    }
+
+    private MessageLayout.Factory createLayoutFactory() {
+        int maxWidth = AppGlobal.screenWidth - (AppGlobal.screenWidth / 4);
+
+        int outColor = bubbleColor;
+        int inColor = bubbleInColor;
+        if (chatBg) {
+            outColor = ColorUtil.alphaColor(outColor, 0.8f);
+            inColor = ColorUtil.alphaColor(inColor, 0.8f);
+        }
+        return new MessageLayout.Factory(chatId, maxWidth, outColor, inColor);
+    }
+
     private void onMessageClick(final ViewHolder holder, VKUser user, final VKMessage item) {
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
         builder.setTitle(user + " - Сообщение");
@@ -309,55 +417,26 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         }
     }
 
-    private void showAttachments(VKMessage item, ViewHolder holder) {
-        boolean onlyPhotos = true;
-        if (TextUtils.isEmpty(item.body)) {
-            for (VKModel attach : item.attachments) {
-                boolean isPhoto = attach instanceof VKPhoto;
-                if (!isPhoto) {
-                    onlyPhotos = false;
-                    break;
-                }
-            }
-            if (onlyPhotos) {
-                holder.bubble.setVisibility(View.GONE);
-            }
-        }
-
-        inflateAttachments(holder.attachments, holder.images,
-                item.attachments, holder.bubble, holder.bubble.getMaxWidth());
-    }
-
-    private void inflateAttachments(ViewGroup parent, ViewGroup images, ArrayList<VKModel> attachments, BoundedLinearLayout bubble, int maxWidth) {
+    private void inflateAttachments(ViewGroup parent, ViewGroup images, VKMessage item, MessageLayout layout) {
+        ArrayList<VKModel> attachments = item.attachments;
         for (int i = 0; i < attachments.size(); i++) {
             VKModel attach = attachments.get(i);
             if (attach instanceof VKAudio) {
                 attacher.audio(parent, (VKAudio) attach);
             } else if (attach instanceof VKPhoto) {
-                attacher.photo(images, (VKPhoto) attach, maxWidth);
+                attacher.photo(images, (VKPhoto) attach, layout.maxWidth, layout.heights[i]);
             } else if (attach instanceof VKSticker) {
-                if (bubble != null) {
-                    bubble.setBackgroundColor(Color.TRANSPARENT);
-                }
-                attacher.sticker(parent, (VKSticker) attach, maxWidth);
+                attacher.sticker(parent, (VKSticker) attach, layout.maxWidth, layout.heights[i]);
             } else if (attach instanceof VKDoc) {
                 attacher.doc(parent, (VKDoc) attach);
             } else if (attach instanceof VKLink) {
                 attacher.link(parent, (VKLink) attach);
             } else if (attach instanceof VKVideo) {
-                attacher.video(parent, (VKVideo) attach, maxWidth);
+                attacher.video(parent, (VKVideo) attach, layout.maxWidth, layout.heights[i]);
             }
         }
     }
 
-    private int getTintColor(VKMessage item) {
-        int tintColor = item.is_out ? bubbleColor : bubbleInColor;
-        if (chatBg) {
-            tintColor = ColorUtil.alphaColor(tintColor, 0.8f);
-        }
-        return tintColor;
-    }
-
     private static class FooterViewHolder extends ViewHolder {
         View footer;
 
@@ -395,6 +474,8 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
         private ImageView avatar;
         private ImageView indicator;
         private TextView body;
+        /** The layout, which is applied to views, or null */
+        private MessageLayout layout;
 
         public ViewHolder(View v) {
             super(v);
@@ -414,67 +495,42 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
     }
 
     private class AttachmentInflater {
-        private void loadImage(final ImageView image, String smallSrc, final String normalSrc, final boolean round) {
-            Picasso.with(context)
-                    .load(smallSrc)
-                    .config(Bitmap.Config.RGB_565)
-                    .priority(Picasso.Priority.HIGH)
-                    .placeholder(new ColorDrawable(Color.TRANSPARENT))
-                    .transform(new BlurTransform(4, true))
-                    .transform(new RoundTransform(round ? 0.04f : 0))
-                    .into(image, new Callback.EmptyCallback() {
-                        @Override
-                        public void onSuccess() {
-                            Picasso.with(context)
-                                    .load(normalSrc)
-                                    .priority(Picasso.Priority.LOW)
-                                    .placeholder(image.getDrawable())
-                                    .transform(new RoundTransform(round ? 0.04f : 0))
-                                    .into(image);
-                        }
-                    });
-        }
+        private final int iconSize = (int) AndroidUtils.px(40);
 
-        private int getHeight(float width, float height, int layoutMaxWidth) {
-            float scale = Math.max(width, layoutMaxWidth) /
-                    Math.min(width, layoutMaxWidth);
-            return Math.round(width < layoutMaxWidth ? height * scale : height / scale);
+        private void loadImage(ImageView image, String smallSrc, String normalSrc, int width, boolean round) {
+            images.load(image, smallSrc, normalSrc, width, round);
         }
 
-        private LinearLayout.LayoutParams getParams(float sw, float sh, int layoutWidth) {
-            if (layoutWidth == -1) {
+        private LinearLayout.LayoutParams getParams(int height) {
+            if (height == MessageLayout.WRAP_CONTENT) {
                 return new LinearLayout.LayoutParams(
                         ViewGroup.LayoutParams.MATCH_PARENT,
                         ViewGroup.LayoutParams.WRAP_CONTENT);
             }
             return new LinearLayout.LayoutParams(
-                    ViewGroup.LayoutParams.MATCH_PARENT,
-                    getHeight(sw, sh, layoutWidth)
-            );
+                    ViewGroup.LayoutParams.MATCH_PARENT, height);
         }
 
-        private FrameLayout.LayoutParams getFrameParams(float sw, float sh, int layoutWidth) {
-            if (layoutWidth == -1) {
+        private FrameLayout.LayoutParams getFrameParams(int height) {
+            if (height == MessageLayout.WRAP_CONTENT) {
                 return new FrameLayout.LayoutParams(
                         ViewGroup.LayoutParams.MATCH_PARENT,
                         ViewGroup.LayoutParams.WRAP_CONTENT);
             }
             return new FrameLayout.LayoutParams(
-                    ViewGroup.LayoutParams.MATCH_PARENT,
-                    getHeight(sw, sh, layoutWidth)
-            );
+                    ViewGroup.LayoutParams.MATCH_PARENT, height);
         }
 
-        public void sticker(ViewGroup parent, VKSticker source, int width) {
+        public void sticker(ViewGroup parent, VKSticker source, int width, int height) {
             final ImageView image = (ImageView)
                     inflater.inflate(R.layout.msg_attach_photo, parent, false);
 
-            image.setLayoutParams(getParams(256f, 256f, width));
-            loadImage(image, source.photo_64, source.photo_256, false);
+            image.setLayoutParams(getParams(height));
+            loadImage(image, source.photo_64, source.photo_256, width, false);
             parent.addView(image);
         }
 
-        public void video(ViewGroup parent, VKVideo source, int width) {
+        public void video(ViewGroup parent, VKVideo source, int width, int height) {
             View v = inflater.inflate(R.layout.msg_attach_video, parent, false);
 
             ImageView image = (ImageView) v.findViewById(R.id.videoImage);
@@ -486,17 +542,19 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
 
             title.setText(source.title);
             time.setText(duration);
-            image.setLayoutParams(getFrameParams(320f, 240f, width));
+            image.setLayoutParams(getFrameParams(height));
 
-            loadImage(image, source.photo_130, source.photo_320, false);
+            String cover = width > 320 && !TextUtils.isEmpty(source.photo_640)
+                    ? source.photo_640 : source.photo_320;
+            loadImage(image, source.photo_130, cover, width, false);
             parent.addView(v);
         }
 
-        public void photo(ViewGroup parent, final VKPhoto source, int width) {
+        public void photo(ViewGroup parent, final VKPhoto source, int width, int height) {
             final ImageView image = (ImageView)
                     inflater.inflate(R.layout.msg_attach_photo, parent, false);
 
-            image.setLayoutParams(getParams(source.width, source.height, width));
+            image.setLayoutParams(getParams(height));
             image.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -506,7 +564,8 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
                 }
             });
 
-            loadImage(image, source.photo_75, source.photo_604, true);
+            String src = source.srcForWidth(width > 0 ? width : AppGlobal.screenWidth);
+            loadImage(image, source.photo_75, src, width, true);
             parent.addView(image);
         }
 
@@ -585,11 +644,13 @@ public class MessageAdapter extends BaseAdapter<VKMessage, MessageAdapter.ViewHo
             title.setText(source.title);
             size.setText(AndroidUtils.parseSize(source.size));
 
-            boolean hasPhoto = source.photo_sizes != null && source.photo_sizes.forType('s') != null;
+            VKPhotoSizes.PhotoSize photo = source.photo_sizes == null ? null
+                    : source.photo_sizes.forWidth(iconSize);
+            boolean hasPhoto = photo != null;
             icon.setVisibility(hasPhoto ? View.GONE : View.VISIBLE);
             if (hasPhoto) {
                 Picasso.with(context)
-                        .load(source.photo_sizes.forType('s').src)
+                        .load(photo.src)
                         .into(background);
             }
 
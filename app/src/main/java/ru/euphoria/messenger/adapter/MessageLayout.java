@@ -0,0 +1,152 @@
+package ru.euphoria.messenger.adapter;
+
+import android.text.TextUtils;
+import android.view.Gravity;
+
+import ru.euphoria.messenger.R;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKSticker;
+import ru.euphoria.messenger.api.model.VKUser;
+import ru.euphoria.messenger.api.model.VKVideo;
+import ru.euphoria.messenger.database.MemoryCache;
+import ru.euphoria.messenger.util.ArrayUtil;
+
+/**
+ * Immutable render model of {@link VKMessage} for {@link MessageAdapter}.
+ * <p/>
+ * Everything, which does not depend on the view, is resolved once by
+ * {@link Factory}, possibly on a background thread: the author, the bubble
+ * and its tint and the heights of attachments. Binding only applies the model.
+ * <p/>
+ * The layout does not reference its message, so it can be a value
+ * of a map with weak keys of messages.
+ */
+public class MessageLayout {
+    /** The height of attachment, which is not scaled to the bubble width */
+    public static final int WRAP_CONTENT = -1;
+
+    /** The gravity of bubble, e.g. {@link Gravity#END} for outgoing messages */
+    public final int gravity;
+    /** The max width of bubble in pixels */
+    public final int maxWidth;
+    /** The background drawable of bubble */
+    public final int background;
+    public final int tintColor;
+    /** False if the message has only photos, they are shown without bubble */
+    public final boolean showBubble;
+    /** True if the message has a sticker, it's shown without background */
+    public final boolean transparentBubble;
+
+    public final boolean showAvatar;
+    /** The author of message, or null if it's not loaded yet or the avatar is hidden */
+    public final VKUser author;
+
+    /** False if the text is empty */
+    public final boolean showText;
+    /** True if the message has attachments or forwarded messages */
+    public final boolean hasAttachments;
+
+    /** The heights of attachments in pixels, or {@link #WRAP_CONTENT} */
+    public final int[] heights;
+
+    private MessageLayout(int gravity, int maxWidth, int background, int tintColor,
+                          boolean showBubble, boolean transparentBubble, boolean showAvatar,
+                          VKUser author, boolean showText, boolean hasAttachments, int[] heights) {
+        this.gravity = gravity;
+        this.maxWidth = maxWidth;
+        this.background = background;
+        this.tintColor = tintColor;
+        this.showBubble = showBubble;
+        this.transparentBubble = transparentBubble;
+        this.showAvatar = showAvatar;
+        this.author = author;
+        this.showText = showText;
+        this.hasAttachments = hasAttachments;
+        this.heights = heights;
+    }
+
+    /**
+     * Returns a copy of this layout with the author, e.g. when users were loaded after
+     */
+    public MessageLayout withAuthor(VKUser author) {
+        return new MessageLayout(gravity, maxWidth, background, tintColor,
+                showBubble, transparentBubble, showAvatar, author, showText, hasAttachments, heights);
+    }
+
+    /**
+     * Returns the height of attachment, which is scaled to the layout width
+     */
+    public static int getHeight(float width, float height, int layoutMaxWidth) {
+        float scale = Math.max(width, layoutMaxWidth) /
+                Math.min(width, layoutMaxWidth);
+        return Math.round(width < layoutMaxWidth ? height * scale : height / scale);
+    }
+
+    /**
+     * Creates layouts of messages of one chat. Methods are thread-safe.
+     */
+    public static class Factory {
+        private final int chatId;
+        private final int maxWidth;
+        private final int outColor;
+        private final int inColor;
+
+        /**
+         * @param maxWidth the max width of bubble in pixels
+         * @param outColor the tint of outgoing messages
+         * @param inColor  the tint of incoming messages
+         */
+        public Factory(int chatId, int maxWidth, int outColor, int inColor) {
+            this.chatId = chatId;
+            this.maxWidth = maxWidth;
+            this.outColor = outColor;
+            this.inColor = inColor;
+        }
+
+        public MessageLayout create(VKMessage message) {
+            boolean showAvatar = !message.is_out && chatId > 0;
+            VKUser author = showAvatar ? MemoryCache.getUser(message.user_id) : null;
+
+            boolean onlyPhotos = TextUtils.isEmpty(message.body) && !ArrayUtil.isEmpty(message.attachments);
+            boolean sticker = false;
+            int[] heights = new int[message.attachments == null ? 0 : message.attachments.size()];
+            for (int i = 0; i < heights.length; i++) {
+                VKModel attach = message.attachments.get(i);
+                if (!(attach instanceof VKPhoto)) {
+                    onlyPhotos = false;
+                }
+
+                if (attach instanceof VKPhoto) {
+                    VKPhoto photo = (VKPhoto) attach;
+                    heights[i] = scaledHeight(photo.width, photo.height);
+                } else if (attach instanceof VKSticker) {
+                    sticker = true;
+                    heights[i] = scaledHeight(256, 256);
+                } else if (attach instanceof VKVideo) {
+                    heights[i] = scaledHeight(320, 240);
+                } else {
+                    heights[i] = WRAP_CONTENT;
+                }
+            }
+
+            return new MessageLayout(
+                    message.is_out ? Gravity.END : Gravity.START,
+                    maxWidth,
+                    message.is_out ? R.drawable.message_sent_shadow : R.drawable.message_received_shadow,
+                    message.is_out ? outColor : inColor,
+                    !onlyPhotos, sticker, showAvatar, author,
+                    !TextUtils.isEmpty(message.body),
+                    heights.length > 0 || !ArrayUtil.isEmpty(message.fws_messages),
+                    heights);
+        }
+
+        private int scaledHeight(int width, int height) {
+            if (maxWidth == -1 || width <= 0 || height <= 0) {
+                return WRAP_CONTENT;
+            }
+            return getHeight(width, height, maxWidth);
+        }
+    }
+}
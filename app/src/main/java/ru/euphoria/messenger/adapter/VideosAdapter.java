@@ -0,0 +1,71 @@
+package ru.euphoria.messenger.adapter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.squareup.picasso.Picasso;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.model.VKVideo;
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.common.ThemeManager;
+
+/**
+ * Grid of video covers of dialog
+ */
+public class VideosAdapter extends BaseAdapter<VKVideo, VideosAdapter.ViewHolder> {
+    private ColorDrawable placeholder;
+
+    public VideosAdapter(Context context, ArrayList<VKVideo> values) {
+        super(context, values);
+
+        this.placeholder = new ColorDrawable(
+                ThemeManager.isNightMode() ? Color.DKGRAY : Color.LTGRAY);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ImageView view = new ImageView(parent.getContext());
+        view.setLayoutParams(new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                AppGlobal.screenWidth / 3));
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        super.onBindViewHolder(holder, position);
+
+        ImageView image = (ImageView) holder.itemView;
+        VKVideo item = getItem(position);
+
+        String cover = TextUtils.isEmpty(item.photo_320) ? item.photo_130 : item.photo_320;
+        if (TextUtils.isEmpty(cover)) {
+            image.setImageDrawable(placeholder);
+            return;
+        }
+
+        Picasso.with(context)
+                .load(cover)
+                .fit()
+                .centerCrop()
+                .placeholder(placeholder)
+                .config(Bitmap.Config.RGB_565)
+                .into(image);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+
+        public ViewHolder(View itemView) {
+            super(itemView);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ru.euphoria.messenger.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ru.euphoria.messenger.api.model.VKAudio;
+import ru.euphoria.messenger.api.model.VKDoc;
+import ru.euphoria.messenger.api.model.VKGift;
+import ru.euphoria.messenger.api.model.VKLink;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKSticker;
+import ru.euphoria.messenger.api.model.VKVideo;
+
+/**
+ * Statistics of message history, collected by {@link HistoryAnalyzer}.
+ * Can be saved to bytes and restored, to continue analysis later.
+ */
+public class AnalysisResult {
+    private static final int VERSION = 1;
+
+    public final long peerId;
+
+    /** The number of messages in history, -1 if unknown yet */
+    public int historyCount = -1;
+
+    /** The number of analysed messages, from the oldest one */
+    public int total;
+    public int out, in;
+    public int words, chars;
+    public int photos, videos, audios, docs, links;
+    public int stickers, gifts;
+
+    /** Words of messages, null for progress snapshots */
+    public final WordCounter counter;
+
+    public AnalysisResult(long peerId) {
+        this(peerId, new WordCounter());
+    }
+
+    private AnalysisResult(long peerId, WordCounter counter) {
+        this.peerId = peerId;
+        this.counter = counter;
+    }
+
+    /**
+     * Returns the progress of analysis in percents
+     */
+    public int getProgress() {
+        if (historyCount <= 0) {
+            return historyCount == 0 ? 100 : 0;
+        }
+        return (int) Math.min(100, (long) total * 100 / historyCount);
+    }
+
+    /**
+     * Returns a copy of counts without words, e.g. to show progress
+     */
+    public AnalysisResult snapshot() {
+        AnalysisResult copy = new AnalysisResult(peerId, null);
+        copy.historyCount = historyCount;
+        copy.total = total;
+        copy.out = out;
+        copy.in = in;
+        copy.words = words;
+        copy.chars = chars;
+        copy.photos = photos;
+        copy.videos = videos;
+        copy.audios = audios;
+        copy.docs = docs;
+        copy.links = links;
+        copy.stickers = stickers;
+        copy.gifts = gifts;
+        return copy;
+    }
+
+    void addAll(ArrayList<VKMessage> messages) {
+        total += messages.size();
+        for (int i = 0; i < messages.size(); i++) {
+            VKMessage msg = messages.get(i);
+            if (msg.is_out) {
+                out++;
+            } else {
+                in++;
+            }
+
+            if (msg.body != null) {
+                chars += msg.body.length();
+                words += counter.addText(msg.body);
+            }
+
+            ArrayList<VKModel> attachments = msg.attachments;
+            if (attachments == null) {
+                continue;
+            }
+            for (int j = 0; j < attachments.size(); j++) {
+                VKModel attach = attachments.get(j);
+                if (attach instanceof VKPhoto) {
+                    photos++;
+                } else if (attach instanceof VKVideo) {
+                    videos++;
+                } else if (attach instanceof VKAudio) {
+                    audios++;
+                } else if (attach instanceof VKDoc) {
+                    docs++;
+                } else if (attach instanceof VKLink) {
+                    links++;
+                } else if (attach instanceof VKSticker) {
+                    stickers++;
+                } else if (attach instanceof VKGift) {
+                    gifts++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves counts and words to gzipped bytes
+     */
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(historyCount);
+            out.writeInt(total);
+            out.writeInt(this.out);
+            out.writeInt(in);
+            out.writeInt(words);
+            out.writeInt(chars);
+            out.writeInt(photos);
+            out.writeInt(videos);
+            out.writeInt(audios);
+            out.writeInt(docs);
+            out.writeInt(links);
+            out.writeInt(stickers);
+            out.writeInt(gifts);
+            counter.write(out);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the result, saved by {@link #encode()}
+     *
+     * @return the result or null, if data has unknown version
+     */
+    static AnalysisResult decode(long peerId, byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+
+            AnalysisResult result = new AnalysisResult(peerId);
+            result.historyCount = in.readInt();
+            result.total = in.readInt();
+            result.out = in.readInt();
+            result.in = in.readInt();
+            result.words = in.readInt();
+            result.chars = in.readInt();
+            result.photos = in.readInt();
+            result.videos = in.readInt();
+            result.audios = in.readInt();
+            result.docs = in.readInt();
+            result.links = in.readInt();
+            result.stickers = in.readInt();
+            result.gifts = in.readInt();
+            result.counter.read(in);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+}
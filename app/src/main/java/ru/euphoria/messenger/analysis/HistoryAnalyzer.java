@@ -0,0 +1,312 @@
+package ru.euphoria.messenger.analysis;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+
+import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.model.VKHistoryPage;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.database.CacheStorage;
+
+/**
+ * Analyses message history of a dialog or chat.
+ * <p/>
+ * Pages are requested in chronological order (rev = 1), so offsets
+ * stay valid while new messages arrive. Several pages are requested
+ * concurrently with low priority, within the shared rate limit
+ * of {@link VKApi}, so requests of the UI go first. Workers run on
+ * {@link ThreadExecutor#BULK} pool, waits for the rate limit and retries
+ * do not hold threads of the network pool.
+ * Pages are merged into {@link AnalysisResult} strictly in order, and the
+ * result is saved to {@link CacheStorage} every {@link #CHECKPOINT_PAGES}
+ * pages and on cancel. The next analysis of the same peer continues from
+ * the saved offset, e.g. after restart of the app, or only analyses
+ * messages, which arrived after the last run.
+ * <p/>
+ * Callbacks of {@link Listener} are called on the main thread.
+ */
+public class HistoryAnalyzer {
+    private static final String TAG = "Euphoria.Analyzer";
+
+    /** The max count of messages.getHistory */
+    public static final int PAGE_SIZE = 200;
+    /** The number of concurrent requests */
+    public static final int PARALLEL_REQUESTS = 3;
+
+    private static final int CHECKPOINT_PAGES = 10;
+    private static final int MAX_ATTEMPTS = 3;
+
+    public interface Listener {
+        /** Called after each merged page, result has no words */
+        void onProgress(AnalysisResult result);
+
+        /** Called when the whole history is analysed */
+        void onFinish(AnalysisResult result);
+
+        void onError(Exception e);
+    }
+
+    private final long peerId;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final SparseArray<ArrayList<VKMessage>> pending = new SparseArray<>();
+    private final Future<?>[] workers = new Future<?>[PARALLEL_REQUESTS];
+
+    private AnalysisResult result;
+    private int nextOffset;
+    private int endOffset = Integer.MAX_VALUE;
+    /** The history count was received in this run, a saved one may be outdated */
+    private boolean counted;
+    private int running;
+    private int uncheckedPages;
+    private int checkpoints;
+    private volatile boolean cancelled;
+
+    public HistoryAnalyzer(long peerId, Listener listener) {
+        this.peerId = peerId;
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the saved state and starts analysis in background
+     */
+    public void start() {
+        ThreadExecutor.execute(ThreadExecutor.DISK, new Runnable() {
+            @Override
+            public void run() {
+                AnalysisResult saved = restore();
+                synchronized (HistoryAnalyzer.this) {
+                    result = saved != null ? saved : new AnalysisResult(peerId);
+                    nextOffset = result.total;
+                    if (cancelled) {
+                        return;
+                    }
+
+                    running = PARALLEL_REQUESTS;
+                    for (int i = 0; i < PARALLEL_REQUESTS; i++) {
+                        workers[i] = ThreadExecutor.execute(ThreadExecutor.BULK,
+                                ThreadExecutor.PRIORITY_LOW, new Worker());
+                    }
+                }
+                postProgress(result.snapshot());
+            }
+        });
+    }
+
+    /**
+     * Stops analysis and saves the progress in background
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            for (Future<?> worker : workers) {
+                if (worker != null) {
+                    worker.cancel(true);
+                }
+            }
+        }
+
+        // encoding of words may take a while, not on the main thread
+        ThreadExecutor.execute(ThreadExecutor.DISK, ThreadExecutor.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        });
+    }
+
+    private AnalysisResult restore() {
+        try {
+            byte[] state = CacheStorage.getAnalysis(peerId);
+            return state == null ? null : AnalysisResult.decode(peerId, state);
+        } catch (Exception e) {
+            // broken state, start again
+            Log.w(TAG, "Failed to restore analysis of " + peerId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the offset of next page to request, or -1 if there are no more pages
+     */
+    private synchronized int claimPage() {
+        if (cancelled || nextOffset >= endOffset
+                || (counted && nextOffset >= result.historyCount)) {
+            return -1;
+        }
+
+        int offset = nextOffset;
+        nextOffset += PAGE_SIZE;
+        return offset;
+    }
+
+    private VKHistoryPage fetch(int offset) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ArrayList<VKHistoryPage> pages = VKApi.messages()
+                        .getHistory()
+                        .peerId(peerId)
+                        .rev(true)
+                        .offset(offset)
+                        .count(PAGE_SIZE)
+                        .priority(ThreadExecutor.PRIORITY_LOW)
+                        .execute(VKHistoryPage.class);
+                return pages == null || pages.isEmpty() ? new VKHistoryPage() : pages.get(0);
+            } catch (Exception e) {
+                if (attempt == MAX_ATTEMPTS || cancelled) {
+                    throw e;
+                }
+                Thread.sleep(attempt * 1_000);
+            }
+        }
+    }
+
+    /**
+     * Merges the page and all following pages, which are already loaded
+     */
+    private void onPage(int offset, ArrayList<VKMessage> messages, int historyCount) {
+        AnalysisResult progress;
+        boolean save;
+        synchronized (this) {
+            if (historyCount > 0) {
+                result.historyCount = historyCount;
+                counted = true;
+            }
+            if (messages.size() < PAGE_SIZE) {
+                endOffset = Math.min(endOffset, offset + messages.size());
+            }
+
+            pending.put(offset, messages);
+            int merged = 0;
+            ArrayList<VKMessage> page;
+            while (result.total < endOffset && (page = pending.get(result.total)) != null) {
+                pending.remove(result.total);
+                result.addAll(page);
+                merged++;
+                if (page.isEmpty()) {
+                    break;
+                }
+            }
+            if (merged == 0) {
+                return;
+            }
+
+            uncheckedPages += merged;
+            save = uncheckedPages >= CHECKPOINT_PAGES;
+            progress = result.snapshot();
+        }
+
+        if (save) {
+            checkpoint();
+        }
+        postProgress(progress);
+    }
+
+    private void onWorkerFinished() {
+        synchronized (this) {
+            if (--running != 0 || cancelled) {
+                return;
+            }
+            if (result.historyCount < result.total) {
+                result.historyCount = result.total;
+            }
+        }
+
+        checkpoint();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    listener.onFinish(result);
+                }
+            }
+        });
+    }
+
+    private void onError(final Exception e) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+        }
+
+        checkpoint();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Saves the merged pages, pages loaded out of order are requested again next time
+     */
+    private void checkpoint() {
+        final byte[] state;
+        final int checkpoint;
+        synchronized (this) {
+            if (result == null) {
+                return;
+            }
+            uncheckedPages = 0;
+            checkpoint = ++checkpoints;
+            try {
+                state = result.encode();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to save analysis of " + peerId, e);
+                return;
+            }
+        }
+
+        ThreadExecutor.execute(ThreadExecutor.DISK, new Runnable() {
+            @Override
+            public void run() {
+                // disk pool has several threads, don't overwrite a newer state
+                synchronized (HistoryAnalyzer.this) {
+                    if (checkpoint == checkpoints) {
+                        CacheStorage.putAnalysis(peerId, state);
+                    }
+                }
+            }
+        });
+    }
+
+    private void postProgress(final AnalysisResult progress) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    listener.onProgress(progress);
+                }
+            }
+        });
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                int offset;
+                while ((offset = claimPage()) >= 0) {
+                    VKHistoryPage page = fetch(offset);
+                    onPage(offset, page.items, page.count);
+                }
+            } catch (InterruptedException ignored) {
+                // cancelled
+            } catch (Exception e) {
+                onError(e);
+            } finally {
+                onWorkerFinished();
+            }
+        }
+    }
+}
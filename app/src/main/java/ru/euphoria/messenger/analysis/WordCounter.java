@@ -0,0 +1,265 @@
+package ru.euphoria.messenger.analysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts words of texts without regex and boxing.
+ * <p/>
+ * A word is a run of letters or digits in any language, lowercased.
+ * Words are kept in an open addressing table of strings and int counts,
+ * tokens are compared with table entries as chars, so a string
+ * is allocated only for a word, which is seen for the first time.
+ * <p/>
+ * The number of distinct words is bounded: when the table exceeds
+ * the max size, words seen only once are dropped, so counts of rare
+ * words are approximate, but the top words are kept. Tokens longer
+ * than {@link #MAX_WORD_LENGTH} are not counted, e.g. base64 or links.
+ */
+public class WordCounter {
+    /** The default max number of distinct words */
+    public static final int DEFAULT_MAX_WORDS = 1 << 16;
+    /** The max length of word, so saved words always fit {@link DataOutputStream#writeUTF(String)} */
+    public static final int MAX_WORD_LENGTH = 256;
+
+    private String[] words;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private final int maxWords;
+
+    private char[] token = new char[32];
+
+    public WordCounter() {
+        this(DEFAULT_MAX_WORDS);
+    }
+
+    public WordCounter(int maxWords) {
+        this.maxWords = maxWords;
+        allocate(64);
+    }
+
+    /**
+     * Counts words of text
+     *
+     * @return the number of words in text
+     */
+    public int addText(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+
+        int found = 0;
+        int length = 0;
+        int hash = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (length < MAX_WORD_LENGTH) {
+                    c = Character.toLowerCase(c);
+                    if (length == token.length) {
+                        token = Arrays.copyOf(token, length * 2);
+                    }
+                    token[length] = c;
+                    hash = 31 * hash + c;
+                }
+                length++;
+            } else if (length != 0) {
+                if (length <= MAX_WORD_LENGTH) {
+                    increment(token, length, hash, 1);
+                    found++;
+                }
+                length = 0;
+                hash = 0;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds count to the word, as is
+     */
+    public void add(String word, int count) {
+        if (word.isEmpty() || word.length() > MAX_WORD_LENGTH) {
+            return;
+        }
+        char[] chars = word.toCharArray();
+        increment(chars, chars.length, word.hashCode(), count);
+    }
+
+    /**
+     * Returns the count of word, or 0
+     */
+    public int count(String word) {
+        int mask = words.length - 1;
+        int hash = word.hashCode();
+        for (int i = mix(hash) & mask; words[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && words[i].equals(word)) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the number of distinct words */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the most frequent words, in descending order of count
+     *
+     * @param outWords  the array to fill with words, its length is the max number of words
+     * @param outCounts the array to fill with counts
+     * @return the number of found words
+     */
+    public int top(String[] outWords, int[] outCounts) {
+        if (outWords.length == 0 || outCounts.length < outWords.length) {
+            return 0;
+        }
+
+        int found = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] == null) {
+                continue;
+            }
+
+            int count = counts[i];
+            if (found == outWords.length && outCounts[found - 1] >= count) {
+                continue;
+            }
+
+            // insertion into the sorted top
+            int j = found < outWords.length ? found++ : found - 1;
+            while (j > 0 && outCounts[j - 1] < count) {
+                outWords[j] = outWords[j - 1];
+                outCounts[j] = outCounts[j - 1];
+                j--;
+            }
+            outWords[j] = words[i];
+            outCounts[j] = count;
+        }
+        return found;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        // words are bounded on adding, but a word over 64KB
+        // of modified UTF-8 would fail the whole state
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (isWritable(words[i])) {
+                count++;
+            }
+        }
+
+        out.writeInt(count);
+        for (int i = 0; i < words.length; i++) {
+            if (isWritable(words[i])) {
+                out.writeUTF(words[i]);
+                out.writeInt(counts[i]);
+            }
+        }
+    }
+
+    void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            add(in.readUTF(), in.readInt());
+        }
+    }
+
+    private void increment(char[] chars, int length, int hash, int count) {
+        int mask = words.length - 1;
+        int i = mix(hash) & mask;
+        while (words[i] != null) {
+            if (hashes[i] == hash && equals(words[i], chars, length)) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        words[i] = new String(chars, 0, length);
+        hashes[i] = hash;
+        counts[i] = count;
+        size++;
+
+        if (size > maxWords) {
+            prune();
+        } else if (size * 2 > words.length) {
+            rehash(words.length * 2, 0);
+        }
+    }
+
+    /** Drops words seen only once, or more if needed */
+    private void prune() {
+        int min = 2;
+        while (true) {
+            int kept = 0;
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] != null && counts[i] >= min) {
+                    kept++;
+                }
+            }
+            if (kept <= maxWords / 2) {
+                break;
+            }
+            min++;
+        }
+        rehash(words.length, min);
+    }
+
+    private void rehash(int capacity, int minCount) {
+        String[] oldWords = words;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldWords.length; i++) {
+            if (oldWords[i] == null || oldCounts[i] < minCount) {
+                continue;
+            }
+
+            int j = mix(oldHashes[i]) & mask;
+            while (words[j] != null) {
+                j = (j + 1) & mask;
+            }
+            words[j] = oldWords[i];
+            hashes[j] = oldHashes[i];
+            counts[j] = oldCounts[i];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        words = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        size = 0;
+    }
+
+    private static boolean isWritable(String word) {
+        // a char takes at most 3 bytes of modified UTF-8
+        return word != null && word.length() <= 0xFFFF / 3;
+    }
+
+    private static boolean equals(String word, char[] chars, int length) {
+        if (word.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
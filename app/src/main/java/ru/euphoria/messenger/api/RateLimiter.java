@@ -0,0 +1,140 @@
+package ru.euphoria.messenger.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+
+/**
+ * Token bucket, which limits the rate of requests shared by all threads.
+ * <p/>
+ * A request takes one token, tokens are refilled at the current rate
+ * up to the burst size. Waiting requests of higher priority go first:
+ * a request waits while there are waiters of higher priority,
+ * e.g. sending of message is not delayed by background requests.
+ * <p/>
+ * The rate is adaptive: it is halved when the server reports too many
+ * requests, and slowly returns to the max rate after successful requests.
+ * Priorities are the same as of {@link ThreadExecutor}.
+ */
+public class RateLimiter {
+    /** The min rate after throttling, requests per second */
+    private static final double MIN_RATE = 0.5;
+    /** The rate added after each successful request */
+    private static final double RECOVERY_STEP = 0.1;
+
+    private final double maxRate;
+    private final double burst;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final int[] waiting = new int[ThreadExecutor.PRIORITY_HIGH + 1];
+
+    private double rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Creates a new limiter with full bucket
+     *
+     * @param maxRate the max number of requests per second, also the burst size
+     */
+    public RateLimiter(double maxRate) {
+        this.maxRate = maxRate;
+        this.burst = maxRate;
+        this.rate = maxRate;
+        this.tokens = maxRate;
+    }
+
+    /**
+     * Waits for a token and takes it
+     *
+     * @param priority the priority of request, e.g. {@link ThreadExecutor#PRIORITY_HIGH}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(int priority) throws InterruptedException {
+        lock.lock();
+        try {
+            waiting[priority]++;
+            try {
+                while (true) {
+                    refill();
+                    if (!hasWaitersAbove(priority)) {
+                        if (tokens >= 1) {
+                            tokens -= 1;
+                            return;
+                        }
+                        // time until the next token
+                        available.awaitNanos((long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)));
+                    } else {
+                        available.await();
+                    }
+                }
+            } finally {
+                waiting[priority]--;
+                // waiters of lower priority may go now
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when the server rejected a request by rate limit,
+     * halves the rate and drains the bucket
+     */
+    public void onThrottled() {
+        lock.lock();
+        try {
+            refill();
+            rate = Math.max(MIN_RATE, rate / 2);
+            tokens = Math.min(tokens, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when a request was not rejected by rate limit
+     */
+    public void onSuccess() {
+        lock.lock();
+        try {
+            if (rate < maxRate) {
+                refill();
+                rate = Math.min(maxRate, rate + RECOVERY_STEP);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current rate, requests per second
+     */
+    public double getRate() {
+        lock.lock();
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    private boolean hasWaitersAbove(int priority) {
+        for (int i = priority + 1; i < waiting.length; i++) {
+            if (waiting[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
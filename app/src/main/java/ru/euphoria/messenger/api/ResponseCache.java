@@ -0,0 +1,210 @@
+package ru.euphoria.messenger.api;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Shares responses of identical read requests.
+ * <p/>
+ * Concurrent calls with the same key wait for the first one, so they
+ * cost one connection and one parse (single flight). Responses of
+ * methods with TTL are also kept in memory for a short time.
+ * The key is the method, class of models and params without access token,
+ * prefixed by id of the current user.
+ * <p/>
+ * Each caller gets own copy of the list, but models are shared,
+ * so they must not be changed by callers.
+ */
+class ResponseCache {
+    /** The max number of cached responses */
+    private static final int MAX_SIZE = 64;
+
+    /** Read methods, which are shared, and for how long (ms), 0 - only while in flight */
+    private static final HashMap<String, Long> methods = new HashMap<>();
+
+    static {
+        methods.put("users.get", 30_000L);
+        methods.put("groups.getById", 60_000L);
+        methods.put("friends.get", 10_000L);
+        methods.put("apps.get", 300_000L);
+        methods.put("messages.getChat", 30_000L);
+        methods.put("messages.getChatUsers", 30_000L);
+
+        methods.put("messages.get", 0L);
+        methods.put("messages.getById", 0L);
+        methods.put("messages.getDialogs", 0L);
+        methods.put("messages.getHistory", 0L);
+        methods.put("messages.getHistoryAttachments", 0L);
+        methods.put("messages.search", 0L);
+    }
+
+    private static final HashMap<String, Flight> flights = new HashMap<>();
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    // only static methods
+    private ResponseCache() {
+    }
+
+    /**
+     * Returns true if responses of the method can be shared
+     */
+    static boolean isShared(String method) {
+        return methods.containsKey(method);
+    }
+
+    /**
+     * Returns the key of request
+     *
+     * @param url  the signed url, with params if GET
+     * @param body the params of POST, or null
+     */
+    static String key(String method, String url, String body, Class<?> cls) {
+        String params = body != null ? body : url;
+        StringBuilder key = new StringBuilder(params.length() + 64);
+        key.append(VKApi.config == null ? 0 : VKApi.config.userId)
+                .append(':').append(cls.getName())
+                .append(':').append(method)
+                .append('?');
+
+        // the token is the same for the user, and may be refreshed
+        int start = params.indexOf('?') + 1;
+        while (start < params.length()) {
+            int end = params.indexOf('&', start);
+            if (end < 0) {
+                end = params.length();
+            }
+            if (!params.startsWith(UserConfig.ACCESS_TOKEN + "=", start)) {
+                key.append(params, start, end).append('&');
+            }
+            start = end + 1;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached response, or the response of identical request
+     * in flight, or executes the request
+     *
+     * @param method  the vk method name, must be {@link #isShared(String)}
+     * @param key     the key of request, see {@link #key(String, String, String, Class)}
+     * @param request executes the request, called at most once on this thread
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ArrayList<T> get(String method, String key, Callable<ArrayList<T>> request) throws Exception {
+        long ttl = methods.get(method);
+
+        Flight flight;
+        boolean leader = false;
+        synchronized (ResponseCache.class) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (SystemClock.elapsedRealtime() < entry.expires) {
+                    return copy((ArrayList<T>) entry.models);
+                }
+                entries.remove(key);
+            }
+
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                flights.put(key, flight);
+                leader = true;
+            }
+        }
+
+        if (!leader) {
+            flight.done.await();
+            if (flight.error != null) {
+                throw flight.error;
+            }
+            return copy((ArrayList<T>) flight.models);
+        }
+
+        try {
+            flight.models = request.call();
+            return copy((ArrayList<T>) flight.models);
+        } catch (Exception e) {
+            flight.error = e;
+            throw e;
+        } finally {
+            synchronized (ResponseCache.class) {
+                flights.remove(key);
+                if (ttl > 0 && flight.error == null && flight.models != null) {
+                    entries.put(key, new Entry(flight.models, SystemClock.elapsedRealtime() + ttl));
+                }
+            }
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Called after a successful request, drops responses,
+     * which may be changed by the method
+     */
+    static void onExecuted(String method) {
+        if (isShared(method)) {
+            return;
+        }
+
+        switch (method) {
+            case "messages.editChat":
+            case "messages.addChatUser":
+            case "messages.removeChatUser":
+                invalidate("messages.getChat");
+                break;
+
+            case "groups.join":
+                invalidate("groups.getById");
+                break;
+        }
+    }
+
+    /**
+     * Drops cached responses of methods, which names start with prefix
+     */
+    static synchronized void invalidate(String prefix) {
+        ResponseStore.invalidate(prefix);
+
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            // user id and class are before the method
+            int start = key.indexOf(':', key.indexOf(':') + 1) + 1;
+            if (key.startsWith(prefix, start)) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static <T> ArrayList<T> copy(ArrayList<T> models) {
+        return models == null ? null : new ArrayList<>(models);
+    }
+
+    private static class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile ArrayList<?> models;
+        volatile Exception error;
+    }
+
+    private static class Entry {
+        final ArrayList<?> models;
+        final long expires;
+
+        Entry(ArrayList<?> models, long expires) {
+            this.models = models;
+            this.expires = expires;
+        }
+    }
+}
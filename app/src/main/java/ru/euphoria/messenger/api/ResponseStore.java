@@ -0,0 +1,167 @@
+package ru.euphoria.messenger.api;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ru.euphoria.messenger.api.binder.ResponseBinder;
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.io.BytesOutputStream;
+import ru.euphoria.messenger.io.FileStreams;
+import ru.euphoria.messenger.net.DiskCache;
+
+/**
+ * Keeps raw responses of static-ish methods on disk, e.g. users.get.
+ * <p/>
+ * VK does not send cache headers or ETags, so an HTTP cache can't be
+ * used, entries expire by TTL of method instead. A fresh entry is returned
+ * without request. A stale entry is returned at once too, e.g. names and
+ * avatars on a cold start, and the request is repeated in background
+ * to update the entry. Any entry is returned if there is no connection.
+ */
+class ResponseStore {
+    private static final String TAG = "Euphoria.ResponseStore";
+    private static final long MAX_SIZE = 4 * FileStreams.ONE_MB;
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    /** Methods to TTLs: how long an entry is fresh, and how long stale one can be used */
+    private static final HashMap<String, long[]> methods = new HashMap<>();
+
+    static {
+        methods.put("users.get", new long[]{10 * MINUTE, 7 * DAY});
+        methods.put("groups.getById", new long[]{HOUR, 7 * DAY});
+        methods.put("friends.get", new long[]{5 * MINUTE, DAY});
+        methods.put("apps.get", new long[]{DAY, 30 * DAY});
+        methods.put("messages.getChat", new long[]{10 * MINUTE, 7 * DAY});
+        methods.put("messages.getChatUsers", new long[]{10 * MINUTE, 7 * DAY});
+    }
+
+    /** Methods to the time of last invalidation, older entries are used only offline */
+    private static final HashMap<String, Long> invalidated = new HashMap<>();
+    private static final HashSet<String> revalidating = new HashSet<>();
+    private static DiskCache cache;
+
+    // only static methods
+    private ResponseStore() {
+    }
+
+    /**
+     * Returns true if responses of the method are kept on disk
+     */
+    static boolean isStored(String method) {
+        return methods.containsKey(method);
+    }
+
+    /**
+     * Returns the response from disk, or executes the request and stores it
+     *
+     * @param method the vk method name, must be {@link #isStored(String)}
+     * @param key    the key of request, see {@link ResponseCache#key(String, String, String, Class)}
+     */
+    static <T> ArrayList<T> execute(String method, String key, String url, String body, Class<T> cls,
+                                    ResponseBinder<T> binder, int priority) throws Exception {
+        long[] ttl = methods.get(method);
+        DiskCache.Entry entry = cache().get(key);
+        if (entry != null && entry.getAge() < ttl[1] && !isInvalidated(method, entry)) {
+            try {
+                ArrayList<T> models = VKApi.parse(entry.data, entry.data.length, url, cls, binder);
+                if (entry.getAge() >= ttl[0]) {
+                    revalidate(key, url, body, cls, binder);
+                }
+                return models;
+            } catch (Exception e) {
+                // e.g. written by older version of binder, request again
+                Log.w(TAG, "Failed to parse stored response of " + method, e);
+                cache().remove(key);
+                entry = null;
+            }
+        }
+
+        BytesOutputStream raw = new BytesOutputStream();
+        try {
+            ArrayList<T> models = VKApi.execute(url, body, cls, binder, priority, raw);
+            store(key, raw);
+            return models;
+        } catch (IOException e) {
+            if (entry == null) {
+                throw e;
+            }
+            // no connection, the old response is better than nothing
+            return VKApi.parse(entry.data, entry.data.length, url, cls, binder);
+        }
+    }
+
+    /**
+     * Marks entries of methods, which names start with prefix, as outdated
+     */
+    static void invalidate(String prefix) {
+        long now = System.currentTimeMillis();
+        synchronized (invalidated) {
+            for (String method : methods.keySet()) {
+                if (method.startsWith(prefix)) {
+                    invalidated.put(method, now);
+                }
+            }
+        }
+    }
+
+    private static boolean isInvalidated(String method, DiskCache.Entry entry) {
+        synchronized (invalidated) {
+            Long time = invalidated.get(method);
+            return time != null && entry.time <= time;
+        }
+    }
+
+    /**
+     * Repeats the request in background to update the entry
+     */
+    private static <T> void revalidate(final String key, final String url, final String body,
+                                       final Class<T> cls, final ResponseBinder<T> binder) {
+        synchronized (revalidating) {
+            if (!revalidating.add(key)) {
+                return;
+            }
+        }
+
+        ThreadExecutor.execute(ThreadExecutor.NETWORK, ThreadExecutor.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BytesOutputStream raw = new BytesOutputStream();
+                    VKApi.execute(url, body, cls, binder, ThreadExecutor.PRIORITY_LOW, raw);
+                    store(key, raw);
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to revalidate " + url, e);
+                } finally {
+                    synchronized (revalidating) {
+                        revalidating.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void store(String key, BytesOutputStream raw) {
+        try {
+            cache().put(key, raw.toByteArray());
+        } catch (IOException e) {
+            // full disk, the response is still returned
+            Log.w(TAG, "Failed to store response", e);
+        }
+    }
+
+    private static synchronized DiskCache cache() {
+        if (cache == null) {
+            cache = new DiskCache(new File(AppGlobal.appContext.getCacheDir(), "api"), MAX_SIZE);
+        }
+        return cache;
+    }
+}
@@ -2,26 +2,25 @@ package ru.euphoria.messenger.api;
 
 import android.util.Log;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
 
 import ru.euphoria.messenger.BuildConfig;
+import ru.euphoria.messenger.api.binder.ResponseBinder;
+import ru.euphoria.messenger.api.binder.ResponseBinders;
 import ru.euphoria.messenger.api.method.AppMethodSetter;
 import ru.euphoria.messenger.api.method.MessageMethodSetter;
 import ru.euphoria.messenger.api.method.MethodSetter;
 import ru.euphoria.messenger.api.method.UserMethodSetter;
-import ru.euphoria.messenger.api.model.VKApp;
-import ru.euphoria.messenger.api.model.VKAttachments;
-import ru.euphoria.messenger.api.model.VKGroup;
-import ru.euphoria.messenger.api.model.VKLongPollServer;
-import ru.euphoria.messenger.api.model.VKMessage;
-import ru.euphoria.messenger.api.model.VKModel;
-import ru.euphoria.messenger.api.model.VKUser;
 import ru.euphoria.messenger.common.AppGlobal;
 import ru.euphoria.messenger.concurrent.ThreadExecutor;
-import ru.euphoria.messenger.json.JsonArray;
+import ru.euphoria.messenger.io.BytesOutputStream;
+import ru.euphoria.messenger.io.EasyStreams;
 import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.json.JsonReader;
 import ru.euphoria.messenger.net.HttpRequest;
-import ru.euphoria.messenger.util.ArrayUtil;
 
 /**
  * Created by Igor on 06.02.17.
@@ -31,145 +30,282 @@ public class VKApi {
     public static final String BASE_URL = "https://api.vk.com/method/";
     public static final String API_VERSION = "5.62";
 
+    /** VK allows 3 requests per second for a user */
+    public static final int MAX_REQUESTS_PER_SECOND = 3;
+    /** The max number of retries of request, rejected by rate limit */
+    public static final int MAX_RETRIES = 5;
+
+    private static final long RETRY_DELAY = 500;
+    private static final long MAX_RETRY_DELAY = 8_000;
+    /**
+     * The max backoff, which is waited on the calling thread, e.g. a thread
+     * of network pool: backoffs of 0.5, 1 and 2 seconds fit, so a blocking call
+     * is retried up to 3 times and waits at most 3.5 seconds in total.
+     * Async requests schedule longer retries without holding the thread.
+     */
+    private static final long MAX_BLOCKING_RETRY_DELAY = 2_000;
+
+    private static final RateLimiter limiter = new RateLimiter(MAX_REQUESTS_PER_SECOND);
+    private static final Random random = new Random();
+
     public static UserConfig config;
     public static String lang = AppGlobal.locale.getLanguage();
 
-    @SuppressWarnings("umchecked")
-    public static <T> ArrayList<T> execute(String url, Class<T> cls) throws Exception {
-        if (BuildConfig.DEBUG) {
-            Log.w(TAG, "url: " + url);
-        }
-
-        String buffer = HttpRequest.get(url).asString();
+    /**
+     * Executes the api request and decodes the response
+     * with binder from {@link ResponseBinders}.
+     *
+     * @param method the vk method name, e.g. users.get
+     * @param url    the signed url of request
+     * @param cls    the class of models, null to ignore response
+     */
+    public static <T> ArrayList<T> execute(String method, String url, Class<T> cls) throws Exception {
+        return execute(method, url, null, cls);
+    }
 
-        if (BuildConfig.DEBUG) {
-            Log.i(TAG, "json: " + buffer);
-        }
+    /**
+     * Executes the api request and decodes the response
+     * with binder from {@link ResponseBinders}.
+     *
+     * @param method the vk method name, e.g. users.get
+     * @param url    the signed url of request
+     * @param body   the form-encoded params to POST, null to use GET
+     * @param cls    the class of models, null to ignore response
+     */
+    public static <T> ArrayList<T> execute(String method, String url, String body, Class<T> cls) throws Exception {
+        return execute(method, url, body, cls, priorityOf(method));
+    }
 
-        JsonObject json = new JsonObject(buffer);
-        try {
-            checkError(json, url);
-        } catch (VKException ex) {
-            if (ex.code == ErrorCodes.TOO_MANY_REQUESTS) {
-                return execute(url, cls);
-            } else throw ex;
-        }
+    /**
+     * Executes the api request and decodes the response
+     * with binder from {@link ResponseBinders}.
+     *
+     * @param method   the vk method name, e.g. users.get
+     * @param url      the signed url of request
+     * @param body     the form-encoded params to POST, null to use GET
+     * @param cls      the class of models, null to ignore response
+     * @param priority the priority of request in the rate limit queue,
+     *                 e.g. {@link ThreadExecutor#PRIORITY_HIGH}
+     */
+    public static <T> ArrayList<T> execute(final String method, final String url, final String body,
+                                           final Class<T> cls, final int priority) throws Exception {
+        final ResponseBinder<T> binder = cls == null ? null : ResponseBinders.get(method, cls);
+        if (cls == null || !ResponseCache.isShared(method)) {
+            ArrayList<T> models = execute(url, body, cls, binder, priority, null);
+            ResponseCache.onExecuted(method);
+            return models;
+        }
+
+        // identical read requests share one response
+        final String key = ResponseCache.key(method, url, body, cls);
+        final boolean stored = ResponseStore.isStored(method);
+        return ResponseCache.get(method, key, new Callable<ArrayList<T>>() {
+            @Override
+            public ArrayList<T> call() throws Exception {
+                return stored
+                        ? ResponseStore.execute(method, key, url, body, cls, binder, priority)
+                        : execute(url, body, cls, binder, priority, null);
+            }
+        });
+    }
 
-        if (cls == null) {
-            return null;
-        }
+    /**
+     * Executes the api request and decodes the response with specified binder.
+     *
+     * @param url    the signed url of request
+     * @param body   the form-encoded params to POST, null to use GET
+     * @param binder the binder to decode response
+     */
+    public static <T> ArrayList<T> execute(String url, String body, ResponseBinder<T> binder) throws Exception {
+        return execute(url, body, null, binder, ThreadExecutor.PRIORITY_NORMAL, null);
+    }
 
-        if (cls == VKLongPollServer.class) {
-            VKLongPollServer server = new VKLongPollServer(json.optJsonObject("response"));
-            return (ArrayList<T>) ArrayUtil.singletonList(server);
-        }
+    /**
+     * Returns the default priority of method: user facing methods
+     * go ahead of background ones, when requests are rate limited
+     *
+     * @param method the vk method name, e.g. users.get
+     */
+    public static int priorityOf(String method) {
+        switch (method) {
+            case "messages.send":
+            case "messages.getHistory":
+            case "messages.getDialogs":
+                return ThreadExecutor.PRIORITY_HIGH;
 
-        if (cls == Boolean.class) {
-            boolean value = json.optInt("response") == 1;
-            return (ArrayList<T>) ArrayUtil.singletonList(value);
-        }
+            case "account.setOnline":
+            case "account.setOffline":
+                return ThreadExecutor.PRIORITY_LOW;
 
-        if (cls == Long.class) {
-            long value = json.optLong("response");
-            return (ArrayList<T>) ArrayUtil.singletonList(value);
+            default:
+                return ThreadExecutor.PRIORITY_NORMAL;
         }
+    }
 
-        if (cls == Integer.class) {
-            int value = json.optInt("response");
-            return (ArrayList<T>) ArrayUtil.singletonList(value);
-        }
+    /**
+     * Returns the limiter of requests, shared by all api calls
+     */
+    public static RateLimiter getRateLimiter() {
+        return limiter;
+    }
 
-        JsonArray array = optItems(json);
-        ArrayList<T> models = new ArrayList<>(array.length());
+    /**
+     * Executes the request within the rate limit. Requests rejected by
+     * {@link ErrorCodes#TOO_MANY_REQUESTS} are retried with exponential
+     * backoff and jitter, while the backoff is short enough to wait
+     * on the calling thread: up to 3 retries and 3.5 seconds of waiting,
+     * see {@link #MAX_BLOCKING_RETRY_DELAY}. Then the error is thrown.
+     *
+     * @param raw receives bytes of the successful response, or null
+     *            to parse the response straight from the stream
+     */
+    static <T> ArrayList<T> execute(String url, String body, Class<T> cls, ResponseBinder<T> binder,
+                                    int priority, BytesOutputStream raw) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            limiter.acquire(priority);
+            try {
+                ArrayList<T> models = request(url, body, cls, binder, raw);
+                limiter.onSuccess();
+                return models;
+            } catch (VKException ex) {
+                if (ex.code != ErrorCodes.TOO_MANY_REQUESTS) {
+                    throw ex;
+                }
 
-        if (cls == VKUser.class) {
-            for (int i = 0; i < array.length(); i++) {
-                models.add((T) new VKUser(array.optJsonObject(i)));
-            }
-        } else if (cls == VKMessage.class) {
-            if (url.contains("messages.getDialogs")) {
-                VKMessage.count = json.optJsonObject("response").optInt("count");
-            }
-            if (url.contains("messages.getHistory")) {
-                VKMessage.lastHistoryCount = json.optJsonObject("response")
-                        .optInt("count");
-            }
-            for (int i = 0; i < array.length(); i++) {
-                JsonObject source = array.optJsonObject(i);
-                int unread = source.optInt("unread");
-                if (source.has("message")) {
-                    source = source.optJsonObject("message");
+                limiter.onThrottled();
+                if (attempt == MAX_RETRIES || (RETRY_DELAY << attempt) > MAX_BLOCKING_RETRY_DELAY) {
+                    throw ex;
                 }
-                VKMessage message = new VKMessage(source);
-                message.unread = unread;
-                models.add((T) message);
+                long delay = backoff(attempt);
+                if (BuildConfig.DEBUG) {
+                    Log.w(TAG, "too many requests, retry in " + delay + " ms");
+                }
+                Thread.sleep(delay);
             }
-        } else if (cls == VKGroup.class) {
-            for (int i = 0; i < array.length(); i++) {
-                models.add((T) new VKGroup(array.optJsonObject(i)));
+        }
+    }
+
+    /**
+     * Returns the random delay between a half and the whole of
+     * exponential delay, so throttled requests do not retry at once
+     */
+    private static long backoff(int attempt) {
+        long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << attempt);
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    private static <T> ArrayList<T> request(String url, String body, Class<T> cls,
+                                            ResponseBinder<T> binder, BytesOutputStream raw) throws Exception {
+        if (BuildConfig.DEBUG) {
+            Log.w(TAG, "url: " + url + (body == null ? "" : "?" + body));
+        }
+
+        HttpRequest request = body == null
+                ? HttpRequest.get(url)
+                : HttpRequest.post(url, body);
+        JsonReader reader = null;
+        try {
+            if (raw == null) {
+                reader = new JsonReader(request.getStream());
+                return read(reader, url, cls, binder);
             }
-        } else if (cls == VKApp.class) {
-            for (int i = 0; i < array.length(); i++) {
-                models.add((T) new VKApp(array.optJsonObject(i)));
+
+            raw.reset();
+            EasyStreams.copy(request.getStream(), raw);
+            return parse(raw.getByteArray(), raw.size(), url, cls, binder);
+        } finally {
+            EasyStreams.close(reader);
+            request.release();
+
+            if (BuildConfig.DEBUG) {
+                Log.w(TAG, "time: " + request.getResponseTime() + "/" + request.getElapsedTime() + " ms");
             }
-        } else if (cls == VKModel.class && url.contains("messages.getHistoryAttachments")) {
-            return (ArrayList<T>) VKAttachments.parse(array);
         }
-        return models;
     }
 
-    public static <E> void execute(final String url, final Class<E> cls,
-                                   final OnResponseListener<E> listener) {
-        ThreadExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    ArrayList<E> models = execute(url, cls);
-                    if (listener != null) {
-                        AppGlobal.handler.post(new SuccessCallback<E>(listener, models));
+    /**
+     * Parses the api response from bytes, e.g. from disk cache
+     *
+     * @param length the number of bytes of response
+     */
+    static <T> ArrayList<T> parse(byte[] data, int length, String url, Class<T> cls,
+                                  ResponseBinder<T> binder) throws Exception {
+        JsonReader reader = new JsonReader(new ByteArrayInputStream(data, 0, length));
+        try {
+            return read(reader, url, cls, binder);
+        } finally {
+            EasyStreams.close(reader);
+        }
+    }
+
+    /**
+     * Reads the api response straight from the stream. Only one item
+     * of the response is materialized into {@link JsonObject} at a time.
+     */
+    private static <T> ArrayList<T> read(JsonReader reader, String url, Class<T> cls,
+                                         ResponseBinder<T> binder) throws Exception {
+        ArrayList<T> models = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "error":
+                    throwError(reader.readObject(), url);
+                    break;
+
+                case "response":
+                    if (binder != null) {
+                        models = binder.bind(reader);
+                    } else {
+                        reader.skipValue();
+                        if (cls != null) {
+                            models = new ArrayList<>();
+                        }
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    break;
 
-                    if (listener != null) {
-                        AppGlobal.handler.post(new ErrorCallback(listener, e));
+                default:
+                    if (binder != null) {
+                        binder.bindExtra(name, reader);
+                    } else {
+                        reader.skipValue();
                     }
-                }
             }
-        });
-    }
-
-    private static JsonArray optItems(JsonObject source) {
-        Object response = source.opt("response");
-        if (response instanceof JsonArray) {
-            return (JsonArray) response;
         }
+        reader.endObject();
+        return models;
+    }
 
-        if (response instanceof JsonObject) {
-            JsonObject json = (JsonObject) response;
-            return json.optJsonArray("items");
-        }
+    public static <E> void execute(String method, String url, Class<E> cls,
+                                   OnResponseListener<E> listener) {
+        execute(method, url, null, cls, listener);
+    }
 
-        return null;
+    public static <E> void execute(String method, String url, String body,
+                                   Class<E> cls, OnResponseListener<E> listener) {
+        execute(method, url, body, cls, priorityOf(method), listener);
     }
 
-    private static void checkError(JsonObject json, String url) throws VKException {
-        if (json.has("error")) {
-            JsonObject error = json.optJsonObject("error");
+    public static <E> void execute(String method, String url, String body,
+                                   Class<E> cls, int priority, OnResponseListener<E> listener) {
+        ThreadExecutor.execute(ThreadExecutor.NETWORK, priority,
+                new AsyncRequest<>(method, url, body, cls, priority, listener));
+    }
 
-            int code = error.optInt("error_code");
-            String message = error.optString("error_msg");
+    private static void throwError(JsonObject error, String url) throws VKException {
+        int code = error.optInt("error_code");
+        String message = error.optString("error_msg");
 
-            VKException e = new VKException(url, message, code);
-            if (code == ErrorCodes.CAPTCHA_NEEDED) {
-                e.captchaImg = error.optString("captcha_img");
-                e.captchaSid = error.optString("captcha_sid");
-            }
-            if (code == ErrorCodes.VALIDATION_REQUIRED) {
-                e.redirectUri = error.optString("redirect_uri");
-            }
-            throw e;
+        VKException e = new VKException(url, message, code);
+        if (code == ErrorCodes.CAPTCHA_NEEDED) {
+            e.captchaImg = error.optString("captcha_img");
+            e.captchaSid = error.optString("captcha_sid");
+        }
+        if (code == ErrorCodes.VALIDATION_REQUIRED) {
+            e.redirectUri = error.optString("redirect_uri");
         }
+        throw e;
     }
 
     /** Methods for users */
@@ -541,7 +677,65 @@ public class VKApi {
         void onError(Exception ex);
     }
 
-    private static class SuccessCallback<E> implements Runnable {
+    /**
+     * Executes the request on the network pool and posts the result to the main thread.
+     * If the request is still throttled after blocking retries, it's executed again
+     * after longer backoff, the thread of pool is not held while waiting.
+     */
+    static class AsyncRequest<E> implements Runnable {
+        private final String method;
+        private final String url;
+        private final String body;
+        private final Class<E> cls;
+        private final int priority;
+        private final OnResponseListener<E> listener;
+        private int attempt;
+
+        AsyncRequest(String method, String url, String body, Class<E> cls,
+                     int priority, OnResponseListener<E> listener) {
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.cls = cls;
+            this.priority = priority;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ArrayList<E> models = execute(method, url, body, cls, priority);
+                if (listener != null) {
+                    AppGlobal.handler.post(new SuccessCallback<E>(listener, models));
+                }
+            } catch (Exception e) {
+                if (e instanceof VKException && ((VKException) e).code == ErrorCodes.TOO_MANY_REQUESTS
+                        && ++attempt < MAX_RETRIES) {
+                    retry(backoff(attempt));
+                    return;
+                }
+                e.printStackTrace();
+
+                if (listener != null) {
+                    AppGlobal.handler.post(new ErrorCallback(listener, e));
+                }
+            }
+        }
+
+        private void retry(long delay) {
+            if (BuildConfig.DEBUG) {
+                Log.w(TAG, "too many requests, " + method + " is scheduled in " + delay + " ms");
+            }
+            AppGlobal.handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    ThreadExecutor.execute(ThreadExecutor.NETWORK, priority, AsyncRequest.this);
+                }
+            }, delay);
+        }
+    }
+
+    static class SuccessCallback<E> implements Runnable {
         private ArrayList<E> models;
         private OnResponseListener<E> listener;
 
@@ -560,7 +754,7 @@ public class VKApi {
         }
     }
 
-    private static class ErrorCallback implements Runnable {
+    static class ErrorCallback implements Runnable {
         private OnResponseListener listener;
         private Exception ex;
 
@@ -0,0 +1,249 @@
+package ru.euphoria.messenger.api;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.binder.ResponseBinder;
+import ru.euphoria.messenger.api.binder.ResponseBinders;
+import ru.euphoria.messenger.api.method.MethodSetter;
+import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.json.JsonToken;
+
+/**
+ * Coalesces several api methods into one request to VK execute method,
+ * so independent calls cost one round trip instead of many.
+ * The combined response is split back into per-call results.
+ * <p>
+ * Example usage: <pre>
+ * VKBatch batch = new VKBatch();
+ * VKBatch.Call&lt;VKUser&gt; users = batch.add(VKApi.users().get().userIds(ids), VKUser.class);
+ * VKBatch.Call&lt;VKGroup&gt; groups = batch.add(VKApi.groups().getById().groupIds(ids), VKGroup.class);
+ * batch.execute();
+ *
+ * ArrayList&lt;VKUser&gt; result = users.get();</pre>
+ * <p>
+ * See https://vk.com/dev/execute
+ */
+public class VKBatch {
+    /** The maximum number of api calls within one execute request */
+    public static final int MAX_CALLS = 25;
+
+    private ArrayList<Call<?>> calls = new ArrayList<>();
+
+    /**
+     * Adds method to this batch.
+     *
+     * @param setter the method to call
+     * @param cls    the class of models
+     * @return the handle to get result after executing
+     */
+    public <E> Call<E> add(MethodSetter setter, Class<E> cls) {
+        return add(setter, cls, null);
+    }
+
+    /**
+     * Adds method to this batch.
+     *
+     * @param setter   the method to call
+     * @param cls      the class of models
+     * @param listener the listener, called on UI Thread
+     *                 after {@link #executeAsync()}, may be null
+     * @return the handle to get result after executing
+     */
+    public <E> Call<E> add(MethodSetter setter, Class<E> cls, VKApi.OnResponseListener<E> listener) {
+        Call<E> call = new Call<>(setter, cls, listener);
+        calls.add(call);
+        return call;
+    }
+
+    /**
+     * Returns the number of calls in this batch
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Executes all calls on current thread, by {@link #MAX_CALLS} per request.
+     * Errors of single calls are stored in its {@link Call},
+     * and thrown from {@link Call#get()}.
+     */
+    public void execute() {
+        for (int i = 0; i < calls.size(); i += MAX_CALLS) {
+            executeChunk(i, Math.min(calls.size(), i + MAX_CALLS));
+        }
+    }
+
+    /**
+     * Executes all calls on a background thread, listeners are called
+     * on UI Thread.
+     */
+    public void executeAsync() {
+        ThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                execute();
+                for (Call<?> call : calls) {
+                    call.dispatch();
+                }
+            }
+        });
+    }
+
+    private void executeChunk(int start, int end) {
+        if (end - start == 1) {
+            // nothing to coalesce, use the method directly
+            calls.get(start).executeSingle();
+            return;
+        }
+
+        StringBuilder code = new StringBuilder("return [");
+        for (int i = start; i < end; i++) {
+            if (i != start) {
+                code.append(',');
+            }
+            code.append(calls.get(i).setter.toScript());
+        }
+        code.append("];");
+
+        MethodSetter execute = new MethodSetter("execute")
+                .put("code", code.toString());
+        String url = execute.getSignedUrl(true);
+        try {
+            VKApi.execute(url, execute.getParams(), new BatchBinder(start, end));
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (int i = start; i < end; i++) {
+                calls.get(i).error = e;
+            }
+        }
+    }
+
+    /**
+     * Splits the array of execute response by calls. Failed calls returns
+     * false in response, their errors are listed in "execute_errors" field.
+     */
+    private class BatchBinder extends ResponseBinder<Object> {
+        private int start;
+        private int end;
+
+        BatchBinder(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public ArrayList<Object> bind(JsonReader reader) throws Exception {
+            reader.beginArray();
+            for (int i = start; reader.hasNext(); i++) {
+                if (i >= end) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                Call<?> call = calls.get(i);
+                call.bind(reader);
+            }
+            reader.endArray();
+            return null;
+        }
+
+        @Override
+        public void bindExtra(String name, JsonReader reader) throws Exception {
+            if (!"execute_errors".equals(name)) {
+                super.bindExtra(name, reader);
+                return;
+            }
+
+            int index = start;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                JsonObject error = reader.readObject();
+                while (index < end && calls.get(index).error == null) {
+                    index++;
+                }
+                if (index == end) {
+                    continue;
+                }
+
+                Call<?> call = calls.get(index++);
+                call.error = new VKException(error.optString("method", call.setter.getName()),
+                        error.optString("error_msg"), error.optInt("error_code"));
+            }
+            reader.endArray();
+        }
+    }
+
+    /**
+     * A single api call of batch.
+     *
+     * @param <E> the type of models
+     */
+    public static class Call<E> {
+        private MethodSetter setter;
+        private Class<E> cls;
+        private ResponseBinder<E> binder;
+        private VKApi.OnResponseListener<E> listener;
+
+        private ArrayList<E> models;
+        private Exception error;
+
+        Call(MethodSetter setter, Class<E> cls, VKApi.OnResponseListener<E> listener) {
+            this.setter = setter;
+            this.cls = cls;
+            this.listener = listener;
+            this.binder = ResponseBinders.get(setter.getName(), cls);
+        }
+
+        /**
+         * Returns the decoded models of this call.
+         *
+         * @throws Exception if this call has failed
+         */
+        public ArrayList<E> get() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+            return models;
+        }
+
+        private void executeSingle() {
+            try {
+                models = setter.execute(cls);
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = e;
+            }
+        }
+
+        private void bind(JsonReader reader) throws Exception {
+            if (reader.peek() == JsonToken.BOOLEAN && cls != Boolean.class) {
+                // false is returned instead of result of failed method
+                reader.skipValue();
+                error = new VKException(setter.getName(), "Method failed", 0);
+                return;
+            }
+
+            if (binder == null) {
+                reader.skipValue();
+                models = new ArrayList<>();
+            } else {
+                models = binder.bind(reader);
+            }
+        }
+
+        private void dispatch() {
+            if (listener == null) {
+                return;
+            }
+
+            if (error != null) {
+                AppGlobal.handler.post(new VKApi.ErrorCallback(listener, error));
+            } else {
+                AppGlobal.handler.post(new VKApi.SuccessCallback<>(listener, models));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.euphoria.messenger.api.binder;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.json.JsonToken;
+
+/**
+ * Binder for list responses, e.g. users.get returns a plain array,
+ * messages.getHistory returns an object with "count" and "items" fields.
+ * Each item is materialized into {@link JsonObject} one by one.
+ *
+ * @param <T> the type of models
+ */
+public abstract class ItemsBinder<T> extends ResponseBinder<T> {
+
+    /**
+     * Creates a new model from json item.
+     *
+     * @param source the json item of response
+     * @return the model or null to skip this item
+     */
+    public abstract T bindItem(JsonObject source);
+
+    /**
+     * Called when response contains the total count of items.
+     *
+     * @param count the value of "count" field
+     */
+    protected void onCount(int count) {
+
+    }
+
+    @Override
+    public ArrayList<T> bind(JsonReader reader) throws Exception {
+        ArrayList<T> models = new ArrayList<>();
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            readItems(reader, models);
+            return models;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "count":
+                    onCount(reader.nextInt());
+                    break;
+
+                case "items":
+                    readItems(reader, models);
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return models;
+    }
+
+    private void readItems(JsonReader reader, ArrayList<T> models) throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            T item = bindItem(reader.readObject());
+            if (item != null) {
+                models.add(item);
+            }
+        }
+        reader.endArray();
+    }
+}
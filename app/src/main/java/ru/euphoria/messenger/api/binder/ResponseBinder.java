@@ -0,0 +1,36 @@
+package ru.euphoria.messenger.api.binder;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.json.JsonReader;
+
+/**
+ * Decodes the "response" value of VK API method into models.
+ * Binders are registered in {@link ResponseBinders} by model class
+ * and optionally by method name.
+ *
+ * @param <T> the type of models
+ */
+public abstract class ResponseBinder<T> {
+
+    /**
+     * Reads the response value from the stream.
+     * The reader is positioned right before the value of "response" field,
+     * the binder must consume the whole value.
+     *
+     * @param reader the stream reader of api response
+     * @return the list of decoded models, never null
+     */
+    public abstract ArrayList<T> bind(JsonReader reader) throws Exception;
+
+    /**
+     * Reads top-level field of api response other than "response" and "error",
+     * e.g. "execute_errors". Skips the value by default.
+     *
+     * @param name   the field name
+     * @param reader the stream reader, positioned before the field value
+     */
+    public void bindExtra(String name, JsonReader reader) throws Exception {
+        reader.skipValue();
+    }
+}
@@ -0,0 +1,262 @@
+package ru.euphoria.messenger.api.binder;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ru.euphoria.messenger.api.model.VKApp;
+import ru.euphoria.messenger.api.model.VKAttachments;
+import ru.euphoria.messenger.api.model.VKAttachmentsPage;
+import ru.euphoria.messenger.api.model.VKAudio;
+import ru.euphoria.messenger.api.model.VKDoc;
+import ru.euphoria.messenger.api.model.VKGroup;
+import ru.euphoria.messenger.api.model.VKHistoryPage;
+import ru.euphoria.messenger.api.model.VKLongPollServer;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKUser;
+import ru.euphoria.messenger.api.model.VKVideo;
+import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.json.JsonToken;
+import ru.euphoria.messenger.util.ArrayUtil;
+
+/**
+ * Registry of {@link ResponseBinder}s. A binder registered for method name
+ * takes precedence over the default binder of model class, so each
+ * VK method is decoded by exactly one binder.
+ * <p>
+ * To decode a new model, register its binder once, e.g. from Application:
+ * <pre>
+ * ResponseBinders.register(VKNote.class, new ItemsBinder&lt;VKNote&gt;() {
+ *     public VKNote bindItem(JsonObject source) {
+ *         return new VKNote(source);
+ *     }
+ * });</pre>
+ */
+public class ResponseBinders {
+    private static final Map<Class<?>, ResponseBinder<?>> classBinders = new ConcurrentHashMap<>();
+    private static final Map<String, Map<Class<?>, ResponseBinder<?>>> methodBinders = new ConcurrentHashMap<>();
+
+    static {
+        register(Boolean.class, new ResponseBinder<Boolean>() {
+            @Override
+            public ArrayList<Boolean> bind(JsonReader reader) throws Exception {
+                return ArrayUtil.singletonList(reader.nextBoolean());
+            }
+        });
+        register(Integer.class, new ResponseBinder<Integer>() {
+            @Override
+            public ArrayList<Integer> bind(JsonReader reader) throws Exception {
+                return ArrayUtil.singletonList(reader.nextInt());
+            }
+        });
+        register(Long.class, new ResponseBinder<Long>() {
+            @Override
+            public ArrayList<Long> bind(JsonReader reader) throws Exception {
+                return ArrayUtil.singletonList(reader.nextLong());
+            }
+        });
+        register(VKLongPollServer.class, new ResponseBinder<VKLongPollServer>() {
+            @Override
+            public ArrayList<VKLongPollServer> bind(JsonReader reader) throws Exception {
+                return ArrayUtil.singletonList(new VKLongPollServer(reader.readObject()));
+            }
+        });
+
+        register(VKUser.class, new ItemsBinder<VKUser>() {
+            @Override
+            public VKUser bindItem(JsonObject source) {
+                return new VKUser(source);
+            }
+        });
+        register(VKGroup.class, new ItemsBinder<VKGroup>() {
+            @Override
+            public VKGroup bindItem(JsonObject source) {
+                return new VKGroup(source);
+            }
+        });
+        register(VKApp.class, new ItemsBinder<VKApp>() {
+            @Override
+            public VKApp bindItem(JsonObject source) {
+                return new VKApp(source);
+            }
+        });
+        register(VKPhoto.class, new ItemsBinder<VKPhoto>() {
+            @Override
+            public VKPhoto bindItem(JsonObject source) {
+                return new VKPhoto(source);
+            }
+        });
+        register(VKDoc.class, new ItemsBinder<VKDoc>() {
+            @Override
+            public VKDoc bindItem(JsonObject source) {
+                return new VKDoc(source);
+            }
+        });
+        register(VKVideo.class, new ItemsBinder<VKVideo>() {
+            @Override
+            public VKVideo bindItem(JsonObject source) {
+                return new VKVideo(source);
+            }
+        });
+        register(VKAudio.class, new ItemsBinder<VKAudio>() {
+            @Override
+            public VKAudio bindItem(JsonObject source) {
+                return new VKAudio(source);
+            }
+        });
+
+        register(VKMessage.class, new MessageBinder());
+        register("messages.getDialogs", VKMessage.class, new MessageBinder() {
+            @Override
+            protected void onCount(int count) {
+                VKMessage.count = count;
+            }
+        });
+        register("messages.getHistory", VKHistoryPage.class, new HistoryPageBinder());
+        register("messages.getHistoryAttachments", VKModel.class, new ItemsBinder<VKModel>() {
+            @Override
+            public VKModel bindItem(JsonObject source) {
+                return VKAttachments.parse(source);
+            }
+        });
+        register("messages.getHistoryAttachments", VKAttachmentsPage.class, new AttachmentsPageBinder());
+    }
+
+    // only static methods
+    private ResponseBinders() {
+    }
+
+    /**
+     * Registers the default binder for specified model class.
+     *
+     * @param cls    the model class
+     * @param binder the binder to decode models
+     */
+    public static <T> void register(Class<T> cls, ResponseBinder<T> binder) {
+        classBinders.put(cls, binder);
+    }
+
+    /**
+     * Registers the binder for specified method and model class.
+     *
+     * @param method the vk method name, e.g. messages.getHistory
+     * @param cls    the model class
+     * @param binder the binder to decode models
+     */
+    public static synchronized <T> void register(String method, Class<T> cls, ResponseBinder<T> binder) {
+        Map<Class<?>, ResponseBinder<?>> binders = methodBinders.get(method);
+        if (binders == null) {
+            binders = new ConcurrentHashMap<>(2);
+            methodBinders.put(method, binders);
+        }
+        binders.put(cls, binder);
+    }
+
+    /**
+     * Returns the binder for specified method and model class,
+     * or null if no one is registered.
+     *
+     * @param method the vk method name, may be null
+     * @param cls    the model class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ResponseBinder<T> get(String method, Class<T> cls) {
+        if (method != null) {
+            Map<Class<?>, ResponseBinder<?>> binders = methodBinders.get(method);
+            if (binders != null) {
+                ResponseBinder<?> binder = binders.get(cls);
+                if (binder != null) {
+                    return (ResponseBinder<T>) binder;
+                }
+            }
+        }
+        return (ResponseBinder<T>) classBinders.get(cls);
+    }
+
+    /**
+     * Binder for pages of messages.getHistoryAttachments, keeps message ids
+     * of attachments and the "next_from" cursor. Returns exactly one page.
+     */
+    private static class AttachmentsPageBinder extends ResponseBinder<VKAttachmentsPage> {
+        @Override
+        public ArrayList<VKAttachmentsPage> bind(JsonReader reader) throws Exception {
+            VKAttachmentsPage page = new VKAttachmentsPage();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "items":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                                reader.skipValue();
+                                continue;
+                            }
+
+                            JsonObject item = reader.readObject();
+                            VKModel attachment = VKAttachments.parse(item);
+                            if (attachment != null) {
+                                page.add(attachment, item.optInt("message_id"));
+                            }
+                        }
+                        reader.endArray();
+                        break;
+
+                    case "next_from":
+                        if (reader.peek() == JsonToken.STRING) {
+                            String cursor = reader.nextString();
+                            page.next_from = cursor.isEmpty() ? null : cursor;
+                        } else {
+                            reader.skipValue();
+                        }
+                        break;
+
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return ArrayUtil.singletonList(page);
+        }
+    }
+
+    /**
+     * Binder for pages of messages.getHistory, keeps the total count
+     * of history with messages. Returns exactly one page.
+     */
+    private static class HistoryPageBinder extends ResponseBinder<VKHistoryPage> {
+        @Override
+        public ArrayList<VKHistoryPage> bind(JsonReader reader) throws Exception {
+            final VKHistoryPage page = new VKHistoryPage();
+            // a binder per response, the count is not shared between threads
+            page.items = new MessageBinder() {
+                @Override
+                protected void onCount(int count) {
+                    page.count = count;
+                }
+            }.bind(reader);
+            return ArrayUtil.singletonList(page);
+        }
+    }
+
+    /**
+     * Binder for dialogs and messages, unwraps the "message" field
+     * of messages.getDialogs items.
+     */
+    private static class MessageBinder extends ItemsBinder<VKMessage> {
+        @Override
+        public VKMessage bindItem(JsonObject source) {
+            int unread = source.optInt("unread");
+            if (source.has("message")) {
+                source = source.optJsonObject("message");
+            }
+
+            VKMessage message = new VKMessage(source);
+            message.unread = unread;
+            return message;
+        }
+    }
+}
@@ -366,6 +366,14 @@ public class MessageMethodSetter extends MethodSetter {
         return this;
     }
 
+    /**
+     * The cursor of page, "next_from" of the previous page
+     */
+    public final MessageMethodSetter startFrom(String cursor) {
+        put("start_from", cursor);
+        return this;
+    }
+
     /**
      * true — to return photo sizes in
      * a special format (https://vk.com/dev/photo_sizes)
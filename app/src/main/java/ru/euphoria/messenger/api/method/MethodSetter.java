@@ -10,11 +10,14 @@ import java.util.Collection;
 import ru.euphoria.messenger.api.UserConfig;
 import ru.euphoria.messenger.api.VKApi;
 import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.concurrent.ThreadExecutor;
+import ru.euphoria.messenger.json.JsonObject;
 import ru.euphoria.messenger.util.ArrayUtil;
 
 public class MethodSetter {
     private String name;
     private ArrayMap<String, String> params;
+    private int priority;
 
     /**
      * Creates a new Method Setter
@@ -24,6 +27,7 @@ public class MethodSetter {
     public MethodSetter(String name) {
         this.name = name;
         this.params = new ArrayMap<>();
+        this.priority = VKApi.priorityOf(name);
     }
 
     public MethodSetter put(String key, Object value) {
@@ -46,6 +50,24 @@ public class MethodSetter {
         return this;
     }
 
+    /**
+     * Returns the vk method name, e.g. users.get
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the priority of this request in the rate limit queue,
+     * by default it depends on method, see {@link VKApi#priorityOf(String)}
+     *
+     * @param priority the priority, e.g. {@link ThreadExecutor#PRIORITY_LOW}
+     */
+    public MethodSetter priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     public String getSignedUrl() {
         return getSignedUrl(false);
     }
@@ -61,7 +83,7 @@ public class MethodSetter {
             params.put("lang", VKApi.lang);
         }
 
-        return VKApi.BASE_URL + name + "?" + (isPost ? "" : getParams());
+        return VKApi.BASE_URL + name + (isPost ? "" : "?" + getParams());
     }
 
     public String getParams() {
@@ -86,12 +108,42 @@ public class MethodSetter {
         return buffer.toString();
     }
 
+    /**
+     * Returns this method as VKScript call, e.g. API.users.get({"user_ids":"1"}).
+     * Used to batch several methods into one execute request.
+     */
+    public String toScript() {
+        StringBuilder buffer = new StringBuilder(name.length() + params.size() * 24);
+        buffer.append("API.").append(name).append("({");
+
+        boolean first = true;
+        for (int i = 0; i < params.size(); i++) {
+            String key = params.keyAt(i);
+            if ("access_token".equals(key) || "v".equals(key)) {
+                continue;
+            }
+
+            if (!first) {
+                buffer.append(',');
+            }
+            buffer.append(JsonObject.quote(key))
+                    .append(':')
+                    .append(JsonObject.quote(params.valueAt(i)));
+            first = false;
+        }
+        return buffer.append("})").toString();
+    }
+
+    /**
+     * Params are sent as POST body, so long values (e.g. message text)
+     * are not limited by the url length.
+     */
     public <E> ArrayList<E> execute(Class<E> cls) throws Exception {
-        return VKApi.execute(getSignedUrl(), cls);
+        return VKApi.execute(name, getSignedUrl(true), getParams(), cls, priority);
     }
 
     public <E> void execute(Class<E> cls, VKApi.OnResponseListener<E> listener) {
-        VKApi.execute(getSignedUrl(), cls, listener);
+        VKApi.execute(name, getSignedUrl(true), getParams(), cls, priority, listener);
     }
 
     public <E extends VKModel> ArrayList<E> tryExecute(Class<E> cls) {
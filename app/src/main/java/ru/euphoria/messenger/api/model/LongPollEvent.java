@@ -0,0 +1,153 @@
+package ru.euphoria.messenger.api.model;
+
+/**
+ * Describes an update of long poll server.
+ * <p/>
+ * Events are mutable records, reused by {@link ru.euphoria.messenger.service.LongPollDecoder}
+ * for every update of the same type. Copy the values you need to keep
+ * or pass to another thread, e.g. with {@link NewMessage#toMessage()}.
+ */
+public abstract class LongPollEvent {
+    /** Replace message flags */
+    public static final int FLAGS_REPLACE = 1;
+    /** Install message flags */
+    public static final int FLAGS_SET = 2;
+    /** Reset message flags */
+    public static final int FLAGS_CLEAR = 3;
+    /** Add a new message */
+    public static final int NEW_MESSAGE = 4;
+    /** Read all incoming messages up to local id */
+    public static final int READ_IN = 6;
+    /** Read all outgoing messages up to local id */
+    public static final int READ_OUT = 7;
+    /** A friend became online */
+    public static final int ONLINE = 8;
+    /** A friend became offline */
+    public static final int OFFLINE = 9;
+    /** A user started typing in a dialog */
+    public static final int TYPING = 61;
+    /** A user started typing in a chat */
+    public static final int CHAT_TYPING = 62;
+    /** The counter of unread dialogs has changed */
+    public static final int UNREAD_COUNT = 80;
+
+    /** The peer id of chat is 2000000000 + chat id */
+    public static final int CHAT_PEER_OFFSET = 2000000000;
+
+    /** The code of event, e.g. {@link #NEW_MESSAGE} */
+    public int type;
+
+    LongPollEvent() {
+    }
+
+    /**
+     * Events {@link #FLAGS_REPLACE}, {@link #FLAGS_SET}, {@link #FLAGS_CLEAR}.
+     */
+    public static class Flags extends LongPollEvent {
+        /** Message ID */
+        public int message_id;
+
+        /** Flags of message, or mask of changed flags */
+        public int flags;
+
+        /** Peer ID, 0 if not returned */
+        public int peer_id;
+    }
+
+    /**
+     * Event {@link #NEW_MESSAGE}.
+     */
+    public static class NewMessage extends LongPollEvent {
+        /** Message ID */
+        public int message_id;
+
+        /** Flags of message, e.g. {@link VKMessage#UNREAD} */
+        public int flags;
+
+        /** Peer ID: user ID or 2000000000 + chat ID */
+        public int peer_id;
+
+        /** Date (in Unix time) when the message was sent. */
+        public long date;
+
+        /** Title of message or chat */
+        public String title;
+
+        /** Message text */
+        public String body;
+
+        /** ID of author in chat, 0 for dialog */
+        public int from_id;
+
+        /** Whether the message has attachments */
+        public boolean has_attachments;
+
+        /**
+         * Creates a new message with values of this event
+         */
+        public VKMessage toMessage() {
+            VKMessage m = new VKMessage();
+            m.id = message_id;
+            m.flags = flags;
+            m.user_id = peer_id;
+            m.date = date;
+            m.title = title;
+            m.body = body;
+            m.read_state = (flags & VKMessage.UNREAD) == 0;
+            m.is_out = (flags & VKMessage.OUTBOX) != 0;
+            if (peer_id > CHAT_PEER_OFFSET) {
+                m.chat_id = peer_id - CHAT_PEER_OFFSET;
+                m.user_id = from_id;
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Events {@link #READ_IN}, {@link #READ_OUT}.
+     */
+    public static class Read extends LongPollEvent {
+        /** Peer ID: user ID or 2000000000 + chat ID */
+        public int peer_id;
+
+        /** ID of the last read message */
+        public int local_id;
+    }
+
+    /**
+     * Events {@link #ONLINE}, {@link #OFFLINE}.
+     */
+    public static class Online extends LongPollEvent {
+        /** User ID */
+        public int user_id;
+
+        /** Platform for online, 1 for offline by timeout */
+        public int extra;
+
+        /** Date (in Unix time) of the event */
+        public long date;
+
+        public boolean isOnline() {
+            return type == ONLINE;
+        }
+    }
+
+    /**
+     * Events {@link #TYPING}, {@link #CHAT_TYPING}.
+     */
+    public static class Typing extends LongPollEvent {
+        /** ID of typing user */
+        public int user_id;
+
+        /** Chat ID, 0 for dialog */
+        public int chat_id;
+    }
+
+    /**
+     * Event {@link #UNREAD_COUNT}.
+     */
+    public static class UnreadCount extends LongPollEvent {
+        /** The number of unread dialogs */
+        public int count;
+    }
+}
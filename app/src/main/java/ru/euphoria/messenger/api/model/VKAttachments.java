@@ -55,39 +55,46 @@ public class VKAttachments {
         ArrayList<VKModel> attachments = new ArrayList<>(array.length());
 
         for (int i = 0; i < array.length(); i++) {
-            JsonObject attach = array.optJsonObject(i);
-            if (attach.has("attachment")) {
-                attach = attach.optJsonObject("attachment");
-            }
-
-            String type = attach.optString("type");
-            JsonObject object = attach.optJsonObject(type);
-
-            switch (type) {
-                case TYPE_PHOTO:
-                    attachments.add(new VKPhoto(object));
-                    break;
-                case TYPE_AUDIO:
-                    attachments.add(new VKAudio(object));
-                    break;
-                case TYPE_VIDEO:
-                    attachments.add(new VKVideo(object));
-                    break;
-                case TYPE_DOC:
-                    attachments.add(new VKDoc(object));
-                    break;
-                case TYPE_STICKER:
-                    attachments.add(new VKSticker(object));
-                    break;
-                case TYPE_LINK:
-                    attachments.add(new VKLink(object));
-                    break;
-                case TYPE_GIFT:
-                    attachments.add(new VKGift(object));
-                    break;
+            VKModel attachment = parse(array.optJsonObject(i));
+            if (attachment != null) {
+                attachments.add(attachment);
             }
         }
 
         return attachments;
     }
+
+    /**
+     * Parses a single attachment object.
+     *
+     * @param attach the json source, e.g. item of messages.getHistoryAttachments
+     * @return the attachment model or null, if type is not supported
+     */
+    public static VKModel parse(JsonObject attach) {
+        if (attach.has("attachment")) {
+            attach = attach.optJsonObject("attachment");
+        }
+
+        String type = attach.optString("type");
+        JsonObject object = attach.optJsonObject(type);
+
+        switch (type) {
+            case TYPE_PHOTO:
+                return new VKPhoto(object);
+            case TYPE_AUDIO:
+                return new VKAudio(object);
+            case TYPE_VIDEO:
+                return new VKVideo(object);
+            case TYPE_DOC:
+                return new VKDoc(object);
+            case TYPE_STICKER:
+                return new VKSticker(object);
+            case TYPE_LINK:
+                return new VKLink(object);
+            case TYPE_GIFT:
+                return new VKGift(object);
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,48 @@
+package ru.euphoria.messenger.api.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A page of attachments of dialog, e.g. response of messages.getHistoryAttachments.
+ * Attachments are ordered from the newest message.
+ */
+public class VKAttachmentsPage extends VKModel {
+    private static final long serialVersionUID = 1L;
+
+    /** The attachments, unsupported types are skipped */
+    public ArrayList<VKModel> items;
+
+    /** The message ids of items, in the same order */
+    public int[] message_ids;
+
+    /** The cursor of the next page, or null if this is the last page */
+    public String next_from;
+
+    public VKAttachmentsPage() {
+        this.items = new ArrayList<>();
+        this.message_ids = new int[0];
+    }
+
+    /**
+     * Appends the attachment of message
+     */
+    public void add(VKModel item, int messageId) {
+        if (message_ids.length == items.size()) {
+            message_ids = Arrays.copyOf(message_ids, Math.max(16, items.size() * 2));
+        }
+        message_ids[items.size()] = messageId;
+        items.add(item);
+    }
+
+    /**
+     * Returns the message id of the last item, or 0 if the page is empty
+     */
+    public int lastMessageId() {
+        return items.isEmpty() ? 0 : message_ids[items.size() - 1];
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
@@ -1,7 +1,5 @@
 package ru.euphoria.messenger.api.model;
 
-import android.text.TextUtils;
-
 import java.io.Serializable;
 
 import ru.euphoria.messenger.json.JsonObject;
@@ -42,6 +40,12 @@ public class VKAudio extends VKModel implements Serializable {
     /** An access key using for get information about hidden objects. */
     public String access_key;
 
+    /**
+     * Creates a new empty audio model, e.g. to read from cache
+     */
+    public VKAudio() {
+    }
+
     /**
      * Creates a new audio model with fields from json source
      *
@@ -64,7 +68,7 @@ public class VKAudio extends VKModel implements Serializable {
 
     public CharSequence toAttachmentString() {
         StringBuilder result = new StringBuilder("audio").append(owner_id).append('_').append(id);
-        if (!TextUtils.isEmpty(access_key)) {
+        if (access_key != null && !access_key.isEmpty()) {
             result.append('_');
             result.append(access_key);
         }
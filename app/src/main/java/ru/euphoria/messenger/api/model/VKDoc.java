@@ -1,7 +1,5 @@
 package ru.euphoria.messenger.api.model;
 
-import android.text.TextUtils;
-
 import java.io.Serializable;
 
 import ru.euphoria.messenger.json.JsonArray;
@@ -56,6 +54,12 @@ public class VKDoc extends VKModel implements Serializable {
     /** Images for preview */
     public VKPhotoSizes photo_sizes;
 
+    /**
+     * Creates a new empty document model, e.g. to read from cache
+     */
+    public VKDoc() {
+    }
+
     /**
      * Creates a new document model with fields from json source.
      *
@@ -85,7 +89,7 @@ public class VKDoc extends VKModel implements Serializable {
 
     public String toAttachmentString() {
         StringBuilder result = new StringBuilder("doc").append(owner_id).append('_').append(id);
-        if (!TextUtils.isEmpty(access_key)) {
+        if (access_key != null && !access_key.isEmpty()) {
             result.append('_');
             result.append(access_key);
         }
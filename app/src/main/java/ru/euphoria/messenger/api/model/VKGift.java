@@ -28,6 +28,12 @@ public class VKGift extends VKModel implements Serializable {
     /** URL image gift size 256x256px; */
     public String thumb_256;
 
+    /**
+     * Creates a new empty gift model, e.g. to read from cache
+     */
+    public VKGift() {
+    }
+
     /**
      * Creates a new gift with fields from json source
      *
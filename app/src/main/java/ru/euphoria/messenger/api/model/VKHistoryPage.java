@@ -0,0 +1,21 @@
+package ru.euphoria.messenger.api.model;
+
+import java.util.ArrayList;
+
+/**
+ * A page of messages of dialog with the total count of history,
+ * e.g. response of messages.getHistory.
+ */
+public class VKHistoryPage extends VKModel {
+    private static final long serialVersionUID = 1L;
+
+    /** The messages of page */
+    public ArrayList<VKMessage> items;
+
+    /** The number of messages in the whole history, or 0 if unknown */
+    public int count;
+
+    public VKHistoryPage() {
+        this.items = new ArrayList<>();
+    }
+}
@@ -30,6 +30,12 @@ public class VKLink extends VKModel implements Serializable {
 
     public VKPhoto photo;
 
+    /**
+     * Creates a new empty link model, e.g. to read from cache
+     */
+    public VKLink() {
+    }
+
     public VKLink(JsonObject source) {
         this.url = source.optString("url");
         this.title = source.optString("title");
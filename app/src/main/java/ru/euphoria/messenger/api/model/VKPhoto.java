@@ -67,6 +67,9 @@ public class VKPhoto extends VKModel implements Serializable {
     /** An access key using for get information about hidden objects. */
     public String access_key;
 
+    /** Max sizes of photo_75 ... photo_2560, in the same order as {@link #sources()} */
+    private static final int[] MAX_SIZES = {75, 130, 604, 807, 1280, 2560};
+
     public VKPhoto() {
         // empty
     }
@@ -104,4 +107,42 @@ public class VKPhoto extends VKModel implements Serializable {
         this.photo_1280 = source.optString("photo_1280");
         this.photo_2560 = source.optString("photo_2560");
     }
+
+    /**
+     * Returns url of the smallest image, which is not narrower than specified width,
+     * or of the largest image if all are narrower
+     *
+     * @param width the width of view in pixels
+     * @return the url or null if the photo has no images
+     */
+    public String srcForWidth(int width) {
+        String[] sources = sources();
+        String best = null;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == null || sources[i].isEmpty()) {
+                continue;
+            }
+
+            best = sources[i];
+            if (widthOf(MAX_SIZES[i]) >= width) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private String[] sources() {
+        return new String[]{photo_75, photo_130, photo_604, photo_807, photo_1280, photo_2560};
+    }
+
+    /** Returns width of the image, which is scaled to fit max size */
+    private int widthOf(int maxSize) {
+        if (width <= 0 || height <= 0) {
+            return maxSize;
+        }
+        if (width >= height) {
+            return Math.min(width, maxSize);
+        }
+        return Math.min(width, maxSize * width / height);
+    }
 }
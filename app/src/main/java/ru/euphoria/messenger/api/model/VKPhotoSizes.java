@@ -17,6 +17,15 @@ public class VKPhotoSizes extends VKModel implements Serializable {
 
     private ArrayList<PhotoSize> sizes;
 
+    /**
+     * Creates a new photo sizes model with specified sizes
+     *
+     * @param sizes the list of sizes
+     */
+    public VKPhotoSizes(ArrayList<PhotoSize> sizes) {
+        this.sizes = sizes;
+    }
+
     /**
      * Creates a new photo sizes model with fields from json source.
      *
@@ -39,12 +48,42 @@ public class VKPhotoSizes extends VKModel implements Serializable {
         return null;
     }
 
+    /**
+     * Returns the smallest size, which is not narrower than specified width,
+     * or the widest size if all are narrower
+     *
+     * @param width the width of view in pixels
+     * @return the size or null if there are no sizes
+     */
+    public PhotoSize forWidth(int width) {
+        PhotoSize best = null;
+        for (PhotoSize size : sizes) {
+            if (best == null
+                    || (best.width < width ? size.width > best.width
+                    : size.width >= width && size.width < best.width)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns all photo sizes of this model
+     */
+    public ArrayList<PhotoSize> getSizes() {
+        return sizes;
+    }
+
     public static class PhotoSize extends VKModel implements Serializable {
         public String src;
         public int width;
         public int height;
         public char type;
 
+        public PhotoSize() {
+            // empty
+        }
+
         public PhotoSize(JsonObject source) {
             this.src = source.optString("src");
             this.width = source.optInt("width");
@@ -35,6 +35,12 @@ public class VKSticker extends VKModel implements Serializable {
     /** Height in px. */
     public int height;
 
+    /**
+     * Creates a new empty sticker model, e.g. to read from cache
+     */
+    public VKSticker() {
+    }
+
     /**
      * Creates a new sticker model with fields from json source.
      *
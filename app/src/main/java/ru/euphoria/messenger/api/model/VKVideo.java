@@ -1,7 +1,5 @@
 package ru.euphoria.messenger.api.model;
 
-import android.text.TextUtils;
-
 import java.io.Serializable;
 
 import ru.euphoria.messenger.json.JsonObject;
@@ -100,6 +98,12 @@ public class VKVideo extends VKModel implements Serializable {
     /** URL of the external video link. */
     public String external;
 
+    /**
+     * Creates a new empty video model, e.g. to read from cache
+     */
+    public VKVideo() {
+    }
+
     /**
      * Creates a new video model with fields from json source
      *
@@ -145,7 +149,7 @@ public class VKVideo extends VKModel implements Serializable {
 
     public CharSequence toAttachmentString() {
         StringBuilder result = new StringBuilder("video").append(owner_id).append('_').append(id);
-        if (!TextUtils.isEmpty(access_key)) {
+        if (access_key != null && !access_key.isEmpty()) {
             result.append('_');
             result.append(access_key);
         }
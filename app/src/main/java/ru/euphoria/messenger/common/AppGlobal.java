@@ -8,8 +8,6 @@ import android.os.Handler;
 import android.preference.PreferenceManager;
 
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import ru.euphoria.messenger.database.DatabaseHelper;
 import ru.euphoria.messenger.util.AndroidUtils;
@@ -25,7 +23,6 @@ public class AppGlobal extends Application {
 
     public static volatile Context appContext;
     public static volatile SharedPreferences preferences;
-    public static volatile ExecutorService executor;
     public static volatile Handler handler;
     public static volatile Locale locale;
     public static volatile SQLiteDatabase database;
@@ -43,7 +40,6 @@ public class AppGlobal extends Application {
         appContext = this;
 
         preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        executor = Executors.newSingleThreadExecutor();
         handler = new Handler(appContext.getMainLooper());
         database = DatabaseHelper.getInstance().getWritableDatabase();
         locale = Locale.getDefault();
@@ -54,4 +50,13 @@ public class AppGlobal extends Application {
         CrashManager.init();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // the ui is only hidden, previews are still needed on return
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            ImagePipeline.trimMemory();
+        }
+    }
+
 }
\ No newline at end of file
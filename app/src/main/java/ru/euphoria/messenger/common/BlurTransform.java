@@ -24,16 +24,23 @@ public class BlurTransform implements Transformation {
         if (radius <= 0) {
             return source;
         }
-        Bitmap copy = source.copy(Bitmap.Config.ARGB_8888, true);
-        if (copy != source) {
-            source.recycle();
+        boolean writable = source.isMutable() && source.getConfig() == Bitmap.Config.ARGB_8888;
+        if (!fastMethod) {
+            // pixels are read into an array anyway, so the source is not copied
+            Bitmap target = writable ? source
+                    : Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+            ImageUtil.stackBlur(source, target, radius);
+            if (target != source) {
+                source.recycle();
+            }
+            return target;
         }
 
-        if (fastMethod) {
-            ImageUtil.nativeStackBlur(copy, radius);
-        } else {
-            ImageUtil.stackBlur(copy, radius);
+        Bitmap copy = writable ? source : source.copy(Bitmap.Config.ARGB_8888, true);
+        if (copy != source) {
+            source.recycle();
         }
+        ImageUtil.nativeStackBlur(copy, radius);
         return copy;
     }
 
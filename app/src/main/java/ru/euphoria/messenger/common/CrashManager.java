@@ -5,6 +5,7 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 
+import ru.euphoria.messenger.database.MemoryCache;
 import ru.euphoria.messenger.io.FileStreams;
 import ru.euphoria.messenger.util.AndroidUtils;
 
@@ -34,7 +35,7 @@ public class CrashManager {
 
         File file = new File(AppGlobal.appContext.getFilesDir(), "log_" + System.currentTimeMillis() + ".txt");
         try {
-            FileStreams.write(trace, file);
+            FileStreams.write(trace + "\n" + MemoryCache.stats(), file);
         } catch (IOException e) {
             e.printStackTrace();
         }
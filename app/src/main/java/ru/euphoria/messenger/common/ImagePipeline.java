@@ -0,0 +1,134 @@
+package ru.euphoria.messenger.common;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.MemoryPolicy;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.Transformation;
+
+import ru.euphoria.messenger.util.BitmapPool;
+
+/**
+ * Loads images of attachments progressively: a blurred preview
+ * from the small image, then the full image.
+ * <p/>
+ * Blurred previews are kept in the own cache by url, so when the list is
+ * scrolled back, the preview is shown at once as placeholder and only
+ * the full image is requested. Previews are made by {@link PreviewTransform},
+ * which reuses bitmaps of {@link BitmapPool}. The full image is scaled down
+ * to the width of view on decoding.
+ */
+public class ImagePipeline {
+    /** The radius of corners of photos relative to the size */
+    public static final float ROUND_FACTOR = 0.04f;
+
+    private static final int PREVIEW_BLUR_RADIUS = 4;
+
+    private static final Transformation PREVIEW = new PreviewTransform(PREVIEW_BLUR_RADIUS, 0);
+    private static final Transformation PREVIEW_ROUND = new PreviewTransform(PREVIEW_BLUR_RADIUS, ROUND_FACTOR);
+    private static final Transformation ROUND = new RoundTransform(ROUND_FACTOR);
+
+    private static final LruCache<String, Bitmap> previews =
+            new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 32)) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+
+    private final Context context;
+    private final Drawable placeholder;
+
+    public ImagePipeline(Context context) {
+        this.context = context;
+        this.placeholder = new ColorDrawable(Color.TRANSPARENT);
+    }
+
+    /**
+     * Returns the transparent placeholder, which is shared by images of this pipeline
+     */
+    public Drawable getPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * Loads the blurred preview and then the full image into the view
+     *
+     * @param previewSrc the url of small image, may be empty
+     * @param src        the url of full image, may be empty
+     * @param width      the width of view in pixels, or -1 if unknown
+     * @param round      true to round corners
+     */
+    public void load(final ImageView image, String previewSrc, final String src,
+                     final int width, final boolean round) {
+        if (TextUtils.isEmpty(previewSrc)) {
+            loadFull(image, src, width, round, placeholder);
+            return;
+        }
+
+        final String key = previewSrc + (round ? "#round" : "");
+        Bitmap preview = previews.get(key);
+        if (preview != null) {
+            loadFull(image, src, width, round, new BitmapDrawable(context.getResources(), preview));
+            return;
+        }
+
+        Picasso.with(context)
+                .load(previewSrc)
+                .config(Bitmap.Config.RGB_565)
+                .priority(Picasso.Priority.HIGH)
+                .memoryPolicy(MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE)
+                .placeholder(placeholder)
+                .transform(round ? PREVIEW_ROUND : PREVIEW)
+                .into(image, new Callback.EmptyCallback() {
+                    @Override
+                    public void onSuccess() {
+                        Drawable drawable = image.getDrawable();
+                        if (drawable instanceof BitmapDrawable) {
+                            previews.put(key, ((BitmapDrawable) drawable).getBitmap());
+                        }
+                        loadFull(image, src, width, round, drawable);
+                    }
+                });
+    }
+
+    /**
+     * Drops cached previews and pooled bitmaps, e.g. on low memory
+     */
+    public static void trimMemory() {
+        previews.evictAll();
+        BitmapPool.clear();
+    }
+
+    private void loadFull(ImageView image, String src, int width, boolean round, Drawable placeholder) {
+        if (TextUtils.isEmpty(src)) {
+            if (placeholder != image.getDrawable()) {
+                Picasso.with(context).cancelRequest(image);
+                image.setImageDrawable(placeholder);
+            }
+            return;
+        }
+
+        RequestCreator request = Picasso.with(context)
+                .load(src)
+                .priority(Picasso.Priority.LOW)
+                .placeholder(placeholder);
+        if (width > 0) {
+            request.resize(width, 0).onlyScaleDown();
+        }
+        if (round) {
+            request.transform(ROUND);
+        }
+        request.into(image);
+    }
+}
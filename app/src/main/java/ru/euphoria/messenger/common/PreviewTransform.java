@@ -0,0 +1,50 @@
+package ru.euphoria.messenger.common;
+
+import android.graphics.Bitmap;
+
+import com.squareup.picasso.Transformation;
+
+import ru.euphoria.messenger.util.BitmapPool;
+import ru.euphoria.messenger.util.ImageUtil;
+
+/**
+ * Blurs and rounds a small preview of image in one step.
+ * <p/>
+ * Unlike {@link BlurTransform} followed by {@link RoundTransform},
+ * the source is not copied, and the blurred bitmap is taken from
+ * {@link BitmapPool} and put back after rounding. The source is
+ * recycled, not pooled: it may be mutable, e.g. after resize,
+ * and Picasso fails a transformation, which keeps its input.
+ */
+public class PreviewTransform implements Transformation {
+    private int radius;
+    private float factor;
+
+    /**
+     * @param radius the blur radius
+     * @param factor the radius of corners relative to the size, 0 to keep corners
+     */
+    public PreviewTransform(int radius, float factor) {
+        this.radius = radius;
+        this.factor = factor;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source) {
+        Bitmap blurred = BitmapPool.get(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        ImageUtil.stackBlur(source, blurred, radius);
+        source.recycle();
+
+        if (factor == 0) {
+            return blurred;
+        }
+        Bitmap output = RoundTransform.round(blurred, factor);
+        BitmapPool.put(blurred);
+        return output;
+    }
+
+    @Override
+    public String key() {
+        return "preview_" + radius + "_" + factor;
+    }
+}
@@ -10,6 +10,8 @@ import android.graphics.RectF;
 
 import com.squareup.picasso.Transformation;
 
+import ru.euphoria.messenger.util.BitmapPool;
+
 /**
  * Created by Igor on 20.02.17.
  */
@@ -26,12 +28,23 @@ public class RoundTransform implements Transformation {
         if (factor == 0) {
             return source;
         }
+        Bitmap output = round(source, factor);
+        // Picasso checks that the input is recycled, so it is never pooled
+        source.recycle();
+        return output;
+    }
 
+    /**
+     * Returns a new bitmap with rounded corners of the source,
+     * taken from {@link BitmapPool}. The source is left as is
+     *
+     * @param factor the radius of corners relative to the size, e.g. 0.04
+     */
+    public static Bitmap round(Bitmap source, float factor) {
         final int width = source.getWidth();
         final int height = source.getHeight();
-        Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Bitmap output = BitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
         Canvas canvas = new Canvas(output);
-        canvas.drawColor(0);
 
         int color = 0xff424242;
         Paint paint = new Paint();
@@ -44,8 +57,6 @@ public class RoundTransform implements Transformation {
         canvas.drawRoundRect(rectF, width * factor, height * factor, paint);
         paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
         canvas.drawBitmap(source, rect, rect, paint);
-
-        source.recycle();
         return output;
     }
 
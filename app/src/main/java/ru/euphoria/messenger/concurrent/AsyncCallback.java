@@ -6,10 +6,15 @@ import java.lang.ref.WeakReference;
 
 /**
  * Created by Igor on 14.02.17.
+ * <p>
+ * Cancel the callback (or the handle returned by {@link ThreadExecutor})
+ * when the activity is destroyed, then neither {@link #done()}
+ * nor {@link #error(Exception)} are called.
  */
 
 public abstract class AsyncCallback implements Runnable {
     private WeakReference<Activity> ref;
+    private volatile boolean cancelled;
 
     public AsyncCallback(Activity activity) {
         this.ref = new WeakReference<>(activity);
@@ -23,8 +28,23 @@ public abstract class AsyncCallback implements Runnable {
 
     }
 
+    /**
+     * Cancels delivery of the result, {@link #ready()} is not
+     * interrupted if it is already running.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     @Override
     public void run() {
+        if (cancelled) {
+            return;
+        }
         try {
             ready();
         } catch (final Exception e) {
@@ -33,7 +53,9 @@ public abstract class AsyncCallback implements Runnable {
                 ref.get().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        error(e);
+                        if (!cancelled) {
+                            error(e);
+                        }
                     }
                 });
             }
@@ -44,7 +66,9 @@ public abstract class AsyncCallback implements Runnable {
             ref.get().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    done();
+                    if (!cancelled) {
+                        done();
+                    }
                 }
             });
         }
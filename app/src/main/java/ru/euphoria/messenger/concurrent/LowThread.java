@@ -23,6 +23,18 @@ public class LowThread extends Thread {
         super(runnable);
     }
 
+    /**
+     * Constructs a new {@code LowThread} with a {@code Runnable} object
+     * and specified name.
+     *
+     * @param runnable a whose method <code>run</code> will be
+     *                 executed by the new {@code Thread}
+     * @param name     the name of the new {@code Thread}
+     */
+    public LowThread(Runnable runnable, String name) {
+        super(runnable, name);
+    }
+
     /**
      * Constructs a new {@code Thread}
      */
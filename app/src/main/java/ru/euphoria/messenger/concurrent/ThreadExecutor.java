@@ -1,11 +1,23 @@
 package ru.euphoria.messenger.concurrent;
 
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Igor on 05.02.17.
  * <p>
- * Simple thread executor
+ * Simple thread executor, backed by the bounded thread pools
+ * for network, disk, cpu and bulk network work. Each pool has own priority queue,
+ * so a long sync does not delay database reads and vice versa.
+ * Tasks of the same priority are executed in FIFO order.
  */
 
 public class ThreadExecutor {
@@ -14,12 +26,192 @@ public class ThreadExecutor {
      */
     public static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
+    /** The pool for api requests and other network i/o */
+    public static final int NETWORK = 0;
+    /** The pool for database and file i/o */
+    public static final int DISK = 1;
+    /** The pool for computations, e.g. parsing, image processing */
+    public static final int CPU = 2;
+    /**
+     * The pool for long background network work, e.g. history analysis,
+     * which waits for the rate limit and retries, so it does not hold
+     * threads of the network pool
+     */
+    public static final int BULK = 3;
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static final ThreadPoolExecutor[] pools = {
+            createPool("network", 4),
+            // SQLite serializes writes, more threads only wait for the lock
+            createPool("disk", 2),
+            createPool("cpu", Math.max(2, CPU_COUNT)),
+            createPool("bulk", 3)
+    };
+
+    // only static methods
+    private ThreadExecutor() {
+    }
+
     /**
      * Execute runnable with {@link Executor} on {@link LowThread}
+     * of the network pool with normal priority
      *
      * @param command is the code you need to execute in a background
+     * @return the handle to cancel the command
      */
-    public static void execute(Runnable command) {
-        new LowThread(command).start();
+    public static Future<?> execute(Runnable command) {
+        return execute(NETWORK, PRIORITY_NORMAL, command);
+    }
+
+    /**
+     * Execute runnable on {@link LowThread} of specified pool with normal priority
+     *
+     * @param pool    the pool to execute, e.g. {@link #NETWORK}, {@link #DISK}, {@link #CPU}, {@link #BULK}
+     * @param command is the code you need to execute in a background
+     * @return the handle to cancel the command
+     */
+    public static Future<?> execute(int pool, Runnable command) {
+        return execute(pool, PRIORITY_NORMAL, command);
+    }
+
+    /**
+     * Execute runnable on {@link LowThread} of specified pool.
+     * If the command is {@link AsyncCallback}, cancellation of the handle
+     * also cancels delivery of its result.
+     *
+     * @param pool     the pool to execute, e.g. {@link #NETWORK}, {@link #DISK}, {@link #CPU}, {@link #BULK}
+     * @param priority the priority of command in the queue, e.g. {@link #PRIORITY_HIGH}
+     * @param command  is the code you need to execute in a background
+     * @return the handle to cancel the command
+     */
+    public static Future<?> execute(int pool, int priority, Runnable command) {
+        Task task = new Task(command, priority);
+        pools[pool].execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the executor, which runs commands on specified pool, e.g. to pass
+     * it to code, which must not depend on this class
+     *
+     * @param pool     the pool to execute, e.g. {@link #CPU}
+     * @param priority the priority of commands in the queue, e.g. {@link #PRIORITY_HIGH}
+     */
+    public static Executor executor(final int pool, final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                ThreadExecutor.execute(pool, priority, command);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of tasks waiting in the queue of specified pool
+     */
+    public static int getQueueSize(int pool) {
+        return pools[pool].getQueue().size();
+    }
+
+    /**
+     * Returns the approximate number of threads that are executing tasks
+     */
+    public static int getActiveCount(int pool) {
+        return pools[pool].getActiveCount();
+    }
+
+    /**
+     * Returns the approximate number of completed tasks of specified pool
+     */
+    public static long getCompletedTaskCount(int pool) {
+        return pools[pool].getCompletedTaskCount();
+    }
+
+    /**
+     * Returns the queue and thread metrics of all pools, e.g. to log
+     */
+    public static String stats() {
+        StringBuilder buffer = new StringBuilder();
+        String[] names = {"network", "disk", "cpu", "bulk"};
+        for (int i = 0; i < pools.length; i++) {
+            ThreadPoolExecutor pool = pools[i];
+            if (i != 0) {
+                buffer.append(", ");
+            }
+            buffer.append(names[i])
+                    .append(": active=").append(pool.getActiveCount())
+                    .append(", threads=").append(pool.getPoolSize())
+                    .append(", queued=").append(pool.getQueue().size())
+                    .append(", completed=").append(pool.getCompletedTaskCount());
+        }
+        return buffer.toString();
+    }
+
+    private static ThreadPoolExecutor createPool(final String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new LowThread(r, name + "-" + count.incrementAndGet());
+                    }
+                });
+        // idle pools do not keep threads
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final Runnable command;
+        private final int priority;
+        private final long order;
+
+        Task(Runnable command, int priority) {
+            super(command, null);
+            this.command = command;
+            this.priority = priority;
+            this.order = sequence.getAndIncrement();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (command instanceof AsyncCallback) {
+                ((AsyncCallback) command).cancel();
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            } catch (InterruptedException ignored) {
+            } catch (ExecutionException e) {
+                // FutureTask catches everything, report it
+                // as uncaught exception of thread like before
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e.getCause());
+            }
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            return order < another.order ? -1 : (order == another.order ? 0 : 1);
+        }
     }
 }
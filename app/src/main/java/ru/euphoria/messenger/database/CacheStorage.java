@@ -5,24 +5,35 @@ import android.content.ContentValues;
 import android.database.Cursor;
 
 import java.util.ArrayList;
-import java.util.Locale;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.model.VKAttachmentsPage;
 import ru.euphoria.messenger.api.model.VKAudio;
+import ru.euphoria.messenger.api.model.VKDoc;
+import ru.euphoria.messenger.api.model.VKGift;
 import ru.euphoria.messenger.api.model.VKGroup;
+import ru.euphoria.messenger.api.model.VKLink;
 import ru.euphoria.messenger.api.model.VKMessage;
 import ru.euphoria.messenger.api.model.VKModel;
 import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKSticker;
 import ru.euphoria.messenger.api.model.VKUser;
-import ru.euphoria.messenger.common.AppGlobal;
+import ru.euphoria.messenger.api.model.VKVideo;
 import ru.euphoria.messenger.util.AndroidUtils;
 import ru.euphoria.messenger.util.ArrayUtil;
 
 import static ru.euphoria.messenger.common.AppGlobal.database;
+import static ru.euphoria.messenger.database.DatabaseHelper.ACCESS_KEY;
 import static ru.euphoria.messenger.database.DatabaseHelper.ADMIN_LEVER;
 import static ru.euphoria.messenger.database.DatabaseHelper.ALBUM_ID;
+import static ru.euphoria.messenger.database.DatabaseHelper.ANALYSIS_TABLE;
 import static ru.euphoria.messenger.database.DatabaseHelper.ARTIST;
 import static ru.euphoria.messenger.database.DatabaseHelper.ATTACHMENTS;
+import static ru.euphoria.messenger.database.DatabaseHelper.AUDIOS_TABLE;
 import static ru.euphoria.messenger.database.DatabaseHelper.AUDIO_ID;
 import static ru.euphoria.messenger.database.DatabaseHelper.BODY;
 import static ru.euphoria.messenger.database.DatabaseHelper.CHAT_ID;
@@ -30,13 +41,17 @@ import static ru.euphoria.messenger.database.DatabaseHelper.DATE;
 import static ru.euphoria.messenger.database.DatabaseHelper.DEACTIVATED;
 import static ru.euphoria.messenger.database.DatabaseHelper.DESCRIPTION;
 import static ru.euphoria.messenger.database.DatabaseHelper.DIALOGS_TABLE;
+import static ru.euphoria.messenger.database.DatabaseHelper.DOCS_TABLE;
+import static ru.euphoria.messenger.database.DatabaseHelper.DOC_ID;
 import static ru.euphoria.messenger.database.DatabaseHelper.DURATION;
+import static ru.euphoria.messenger.database.DatabaseHelper.EXT;
 import static ru.euphoria.messenger.database.DatabaseHelper.FIRST_NAME;
 import static ru.euphoria.messenger.database.DatabaseHelper.FRIENDS_TABLE;
 import static ru.euphoria.messenger.database.DatabaseHelper.FRIEND_ID;
 import static ru.euphoria.messenger.database.DatabaseHelper.FWD_MESSAGES;
 import static ru.euphoria.messenger.database.DatabaseHelper.GROUPS_TABLE;
 import static ru.euphoria.messenger.database.DatabaseHelper.GROUP_ID;
+import static ru.euphoria.messenger.database.DatabaseHelper.HASH;
 import static ru.euphoria.messenger.database.DatabaseHelper.HEIGHT;
 import static ru.euphoria.messenger.database.DatabaseHelper.IMPORTANT;
 import static ru.euphoria.messenger.database.DatabaseHelper.IS_ADMIN;
@@ -52,6 +67,7 @@ import static ru.euphoria.messenger.database.DatabaseHelper.ONLINE;
 import static ru.euphoria.messenger.database.DatabaseHelper.ONLINE_APP;
 import static ru.euphoria.messenger.database.DatabaseHelper.ONLINE_MOBILE;
 import static ru.euphoria.messenger.database.DatabaseHelper.OWNER_ID;
+import static ru.euphoria.messenger.database.DatabaseHelper.PEER_ID;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTOS_TABLE;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_100;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_1280;
@@ -62,9 +78,12 @@ import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_50;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_604;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_75;
 import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_807;
+import static ru.euphoria.messenger.database.DatabaseHelper.PHOTO_ID;
 import static ru.euphoria.messenger.database.DatabaseHelper.READ_STATE;
 import static ru.euphoria.messenger.database.DatabaseHelper.SCREEN_NAME;
 import static ru.euphoria.messenger.database.DatabaseHelper.SEX;
+import static ru.euphoria.messenger.database.DatabaseHelper.SIZE;
+import static ru.euphoria.messenger.database.DatabaseHelper.STATE;
 import static ru.euphoria.messenger.database.DatabaseHelper.STATUS;
 import static ru.euphoria.messenger.database.DatabaseHelper.TEXT;
 import static ru.euphoria.messenger.database.DatabaseHelper.TITLE;
@@ -84,32 +103,34 @@ public class CacheStorage {
         }
     }
 
+    /** The max number of bound arguments of IN (...), SQLite limit is 999 */
+    private static final int MAX_IN_ARGS = 500;
+
     private static Cursor selectCursor(String table, String column, Object value) {
-        return QueryBuilder.query()
-                .select("*").from(table)
-                .where(column.concat(" = ").concat(String.valueOf(value)))
-                .asCursor(database);
+        return selectWhere(table, column + " = ?", String.valueOf(value));
     }
 
-    private static Cursor selectCursor(String table, String column, int... ids) {
-        StringBuilder where = new StringBuilder(5 * ids.length);
+    private static Cursor selectCursor(String table, String column, int[] ids, int start, int end) {
+        StringBuilder where = new StringBuilder(column.length() + 8 + (end - start) * 2);
+        String[] args = new String[end - start];
 
-        where.append(column);
-        where.append(" = ");
-        where.append(ids[0]);
-        for (int i = 1; i < ids.length; i++) {
-            where.append(" OR ");
-            where.append(column);
-            where.append(" = ");
-            where.append(ids[i]);
+        where.append(column).append(" IN (");
+        for (int i = start; i < end; i++) {
+            where.append(i == start ? "?" : ",?");
+            args[i - start] = String.valueOf(ids[i]);
         }
-        return selectCursor(table, where.toString());
+        where.append(')');
+        return selectWhere(table, where.toString(), args);
     }
 
-    private static Cursor selectCursor(String table, String where) {
+    /**
+     * Selects rows with bound arguments. SQL of the same shape
+     * reuses compiled statement of the database connection.
+     */
+    private static Cursor selectWhere(String table, String where, String... args) {
         return QueryBuilder.query()
                 .select("*").from(table).where(where)
-                .asCursor(database);
+                .asCursor(database, args);
     }
 
     private static Cursor selectCursor(String table) {
@@ -122,6 +143,10 @@ public class CacheStorage {
         return cursor.getInt(cursor.getColumnIndex(columnName));
     }
 
+    private static long getLong(Cursor cursor, String columnName) {
+        return cursor.getLong(cursor.getColumnIndex(columnName));
+    }
+
     private static String getString(Cursor cursor, String columnName) {
         return cursor.getString(cursor.getColumnIndex(columnName));
     }
@@ -132,41 +157,164 @@ public class CacheStorage {
 
     public static VKUser getUser(int id) {
         Cursor cursor = selectCursor(USERS_TABLE, USER_ID, id);
-        if (cursor.moveToFirst()) {
-            return parseUser(cursor);
+        try {
+            return cursor.moveToFirst() ? parseUser(cursor) : null;
+        } finally {
+            cursor.close();
         }
-        cursor.close();
-        return null;
     }
 
     public static VKGroup getGroup(int id) {
         Cursor cursor = selectCursor(GROUPS_TABLE, GROUP_ID, id);
-        if (cursor.moveToFirst()) {
-            return parseGroup(cursor);
+        try {
+            return cursor.moveToFirst() ? parseGroup(cursor) : null;
+        } finally {
+            cursor.close();
         }
-        cursor.close();
-        return null;
     }
 
     public static VKPhoto getPhoto(int id) {
-        Cursor cursor = selectCursor(PHOTOS_TABLE, _ID, id);
-        if (cursor.moveToFirst()) {
-            return parsePhoto(cursor);
+        Cursor cursor = selectCursor(PHOTOS_TABLE, PHOTO_ID, id);
+        try {
+            return cursor.moveToFirst() ? parsePhoto(cursor) : null;
+        } finally {
+            cursor.close();
         }
+    }
+
+    /**
+     * Returns the page of cached attachments of dialog, from the newest message.
+     * Attachments of one message are never split between pages.
+     *
+     * @param table           the table of attachments type, one of
+     *                        {@link DatabaseHelper#PHOTOS_TABLE}, {@link DatabaseHelper#AUDIOS_TABLE}
+     *                        and {@link DatabaseHelper#DOCS_TABLE}
+     * @param beforeMessageId the last message id of previous page, or 0 for the first page
+     * @param count           the max number of messages in page
+     */
+    public static VKAttachmentsPage getAttachments(String table, long peerId, int beforeMessageId, int count) {
+        String before = String.valueOf(beforeMessageId > 0 ? beforeMessageId : Integer.MAX_VALUE);
+        String peer = String.valueOf(peerId);
+        Cursor cursor = QueryBuilder.query()
+                .select("*").from(table)
+                .where(PEER_ID + " = ? AND " + MESSAGE_ID + " IN (SELECT " + MESSAGE_ID + " FROM " + table +
+                        " WHERE " + PEER_ID + " = ? AND " + MESSAGE_ID + " < ?" +
+                        " GROUP BY " + MESSAGE_ID + " ORDER BY " + MESSAGE_ID + " DESC LIMIT " + count + ")")
+                .orderBy(MESSAGE_ID + " DESC, " + _ID)
+                .asCursor(database, peer, peer, before);
+
+        VKAttachmentsPage page = new VKAttachmentsPage();
+        while (cursor.moveToNext()) {
+            VKModel item;
+            switch (table) {
+                case PHOTOS_TABLE:
+                    item = parsePhoto(cursor);
+                    break;
 
+                case AUDIOS_TABLE:
+                    item = parseAudio(cursor);
+                    break;
+
+                default:
+                    item = parseDoc(cursor);
+                    break;
+            }
+            page.add(item, getInt(cursor, MESSAGE_ID));
+        }
         cursor.close();
-        return null;
+        return page;
     }
 
-    public static ArrayList<VKUser> getUsers(int... ids) {
-        Cursor cursor = selectCursor(USERS_TABLE, USER_ID, ids);
+    /**
+     * Writes the page of attachments of dialog. Cached attachments of messages
+     * within the page, which are missing in the page, are deleted.
+     * Attachments of the first and the last message of page may continue
+     * in the adjacent pages, so they are only replaced.
+     *
+     * @param table  the table of attachments type, see {@link #getAttachments(String, long, int, int)}
+     * @param page   the page of network, attachments of other types are skipped
+     * @param newest true if this is the first page, then cached attachments
+     *               of newer messages are deleted as well
+     */
+    public static void putAttachments(String table, long peerId, VKAttachmentsPage page, boolean newest) {
+        if (page.isEmpty() && !newest) {
+            // no more attachments after the previous page
+            return;
+        }
 
-        ArrayList<VKUser> users = new ArrayList<>(cursor.getCount());
-        while (cursor.moveToNext()) {
-            users.add(parseUser(cursor));
+        database.beginTransaction();
+        try {
+            StringBuilder where = new StringBuilder(PEER_ID).append(" = ?");
+            ArrayList<String> args = new ArrayList<>(3);
+            args.add(String.valueOf(peerId));
+            if (!page.isEmpty()) {
+                if (!newest) {
+                    where.append(" AND ").append(MESSAGE_ID).append(" < ?");
+                    args.add(String.valueOf(page.message_ids[0]));
+                }
+                if (page.next_from != null) {
+                    where.append(" AND ").append(MESSAGE_ID).append(" > ?");
+                    args.add(String.valueOf(page.lastMessageId()));
+                }
+            }
+            database.delete(table, where.toString(), args.toArray(new String[args.size()]));
+
+            ContentValues cv = new ContentValues();
+            for (int i = 0; i < page.items.size(); i++) {
+                VKModel item = page.items.get(i);
+                if (item instanceof VKPhoto && table.equals(PHOTOS_TABLE)) {
+                    putValues(cv, (VKPhoto) item);
+                } else if (item instanceof VKAudio && table.equals(AUDIOS_TABLE)) {
+                    putValues(cv, (VKAudio) item);
+                } else if (item instanceof VKDoc && table.equals(DOCS_TABLE)) {
+                    putValues(cv, (VKDoc) item);
+                } else {
+                    continue;
+                }
+
+                cv.put(PEER_ID, peerId);
+                cv.put(MESSAGE_ID, page.message_ids[i]);
+                StatementCache.insert(database, table, cv);
+                cv.clear();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
+    }
 
-        cursor.close();
+    /**
+     * Returns the saved state of history analysis, or null
+     *
+     * @see ru.euphoria.messenger.analysis.HistoryAnalyzer
+     */
+    public static byte[] getAnalysis(long peerId) {
+        Cursor cursor = selectCursor(ANALYSIS_TABLE, PEER_ID, peerId);
+        try {
+            return cursor.moveToFirst() ? getBlob(cursor, STATE) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public static void putAnalysis(long peerId, byte[] state) {
+        ContentValues values = new ContentValues(3);
+        values.put(PEER_ID, peerId);
+        values.put(DATE, System.currentTimeMillis() / 1000);
+        values.put(STATE, state);
+        StatementCache.insert(database, ANALYSIS_TABLE, values);
+    }
+
+    public static ArrayList<VKUser> getUsers(int... ids) {
+        ArrayList<VKUser> users = new ArrayList<>(ids.length);
+        for (int start = 0; start < ids.length; start += MAX_IN_ARGS) {
+            Cursor cursor = selectCursor(USERS_TABLE, USER_ID, ids,
+                    start, Math.min(ids.length, start + MAX_IN_ARGS));
+            while (cursor.moveToNext()) {
+                users.add(parseUser(cursor));
+            }
+            cursor.close();
+        }
         return users;
     }
 
@@ -176,8 +324,8 @@ public class CacheStorage {
                 .from(FRIENDS_TABLE)
                 .leftJoin(USERS_TABLE)
                 .on("friends.friend_id = users.user_id")
-                .where("friends.user_id = " + userId)
-                .asCursor(database);
+                .where("friends.user_id = ?")
+                .asCursor(database, String.valueOf(userId));
 
         ArrayList<VKUser> users = new ArrayList<>(cursor.getCount());
 
@@ -196,7 +344,10 @@ public class CacheStorage {
     }
 
     public static ArrayList<VKMessage> getDialogs() {
-        Cursor cursor = selectCursor(DIALOGS_TABLE);
+        Cursor cursor = QueryBuilder.query()
+                .select("*").from(DIALOGS_TABLE)
+                .orderBy(DATE + " DESC")
+                .asCursor(database);
         if (cursor.getCount() <= 0) {
             return null;
         }
@@ -210,6 +361,36 @@ public class CacheStorage {
         return messages;
     }
 
+    /**
+     * Returns the page of cached dialogs, from new to old. Pages are read
+     * by keyset, so the cost of page does not depend on its position.
+     *
+     * @param after the last dialog of previous page, or null for the first page
+     * @param count the max number of dialogs
+     */
+    public static ArrayList<VKMessage> getDialogs(VKMessage after, int count) {
+        QueryBuilder query = QueryBuilder.query()
+                .select("*").from(DIALOGS_TABLE);
+        String[] args = {};
+        if (after != null) {
+            // date <= ? is the range of dialogs_date_peer_idx, rows are read in order without sort
+            query.where(DATE + " <= ? AND (" + DATE + " < ? OR " + PEER_ID + " < ?)");
+            String date = String.valueOf(after.date);
+            args = new String[]{date, date, String.valueOf(peerId(after))};
+        }
+
+        Cursor cursor = query.orderBy(DATE + " DESC, " + PEER_ID + " DESC")
+                .limit(count)
+                .asCursor(database, args);
+
+        ArrayList<VKMessage> messages = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            messages.add(parseDialog(cursor));
+        }
+        cursor.close();
+        return messages;
+    }
+
     public static ArrayList<VKGroup> getGroups() {
         Cursor cursor = selectCursor(GROUPS_TABLE);
         if (cursor.getCount() <= 0) {
@@ -226,39 +407,335 @@ public class CacheStorage {
     }
 
     public static ArrayList<VKMessage> getMessages(int userId, int chatId) {
-        Cursor cursor;
-        if (chatId > 0) {
-            cursor = selectCursor(MESSAGES_TABLE, CHAT_ID, chatId);
-        } else {
-            cursor = selectCursor(MESSAGES_TABLE, String.format(AppGlobal.locale, "%s = 0 AND %s = %d", CHAT_ID, USER_ID, userId));
+        Cursor cursor = selectWhere(MESSAGES_TABLE, dialogWhere(chatId), dialogArgs(userId, chatId));
+
+        ArrayList<VKMessage> messages = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            messages.add(parseMessage(cursor));
         }
+        cursor.close();
+        return messages;
+    }
+
+    /**
+     * Returns the last cached messages of dialog, from old to new
+     *
+     * @param count the max number of messages
+     */
+    public static ArrayList<VKMessage> getMessages(int userId, int chatId, int count) {
+        Cursor cursor = QueryBuilder.query()
+                .select("*").from(MESSAGES_TABLE)
+                .where(dialogWhere(chatId))
+                .orderBy(DATE + " DESC, " + MESSAGE_ID + " DESC")
+                .limit(count)
+                .asCursor(database, dialogArgs(userId, chatId));
 
         ArrayList<VKMessage> messages = new ArrayList<>(cursor.getCount());
         while (cursor.moveToNext()) {
             messages.add(parseMessage(cursor));
         }
         cursor.close();
+
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Searches cached messages of all dialogs by the full-text index,
+     * works without connection
+     *
+     * @param query  the text to search, words are matched by prefix
+     * @param offset the number of best matches to skip
+     * @param count  the max number of messages, up to 500
+     * @return the page of messages, from the best match
+     */
+    public static ArrayList<VKMessage> searchMessages(String query, int offset, int count) {
+        String match = MessageSearch.toMatchQuery(query);
+        if (match == null) {
+            return new ArrayList<>();
+        }
+
+        int[] ids = MessageSearch.search(database, match, offset, Math.min(count, MAX_IN_ARGS));
+        VKMessage[] ranked = new VKMessage[ids.length];
+        if (ids.length != 0) {
+            Cursor cursor = selectCursor(MESSAGES_TABLE, MESSAGE_ID, ids, 0, ids.length);
+            while (cursor.moveToNext()) {
+                VKMessage message = parseMessage(cursor);
+                ranked[ArrayUtil.linearSearch(ids, message.id)] = message;
+            }
+            cursor.close();
+        }
+
+        ArrayList<VKMessage> messages = new ArrayList<>(ids.length);
+        for (VKMessage message : ranked) {
+            if (message != null) {
+                messages.add(message);
+            }
+        }
         return messages;
     }
 
-    private static String dialogWhere(int userId, int chatId) {
-        String where;
-        if (chatId > 0) {
-            where = String.format(Locale.US, "%s = %d", CHAT_ID, chatId);
+    /**
+     * Writes the page of dialog history incrementally. New and changed messages
+     * are inserted or replaced by message_id, unchanged messages are skipped.
+     * Cached messages within the dates of the page, which are missing
+     * in the page, are deleted. Older history is kept.
+     *
+     * @param messages the page of history, in any order
+     * @param newest   true if this is the newest page, then cached messages
+     *                 newer than the page are deleted as well
+     * @return the number of written rows
+     */
+    public static int syncMessages(int userId, int chatId, ArrayList<VKMessage> messages, boolean newest) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        long[] ids = new long[messages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = messages.get(i).id;
+        }
+
+        String where = dialogWhere(chatId);
+        String[] args = dialogArgs(userId, chatId);
+        return sync(MESSAGES_TABLE, MESSAGE_ID, ids, messages, false, where, args, newest);
+    }
+
+    /**
+     * Writes the page of dialogs incrementally, by peer.
+     * Unchanged dialogs are skipped, cached dialogs within dates
+     * of the page, which are missing in the page, are deleted.
+     *
+     * @param dialogs the page of dialogs
+     * @param newest  true if this is the first page
+     * @return the number of written rows
+     * @see #syncMessages(int, int, ArrayList, boolean)
+     */
+    public static int syncDialogs(ArrayList<VKMessage> dialogs, boolean newest) {
+        if (dialogs.isEmpty()) {
+            return 0;
+        }
+
+        long[] peers = new long[dialogs.size()];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = peerId(dialogs.get(i));
+        }
+        return sync(DIALOGS_TABLE, PEER_ID, peers, dialogs, true, null, null, newest);
+    }
+
+    private static int sync(String table, String keyColumn, long[] keys, ArrayList<VKMessage> items,
+                            boolean isDialog, String scope, String[] scopeArgs, boolean newest) {
+        database.beginTransaction();
+        try {
+            HashMap<Long, Integer> hashes = loadHashes(table, keyColumn, keys);
+
+            int written = 0;
+            long minDate = Long.MAX_VALUE;
+            long maxDate = Long.MIN_VALUE;
+
+            ContentValues cv = new ContentValues();
+            for (int i = 0; i < items.size(); i++) {
+                VKMessage item = items.get(i);
+                minDate = Math.min(minDate, item.date);
+                maxDate = Math.max(maxDate, item.date);
+
+                Integer hash = hashes.get(keys[i]);
+                if (hash != null && hash == contentHash(item, isDialog)) {
+                    continue;
+                }
+
+                putValues(cv, item, isDialog);
+                StatementCache.insert(database, table, cv);
+                cv.clear();
+                written++;
+            }
+
+            written += deleteMissing(table, keyColumn, keys, scope, scopeArgs, minDate, newest ? -1 : maxDate);
+            database.setTransactionSuccessful();
+            return written;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns stored content hashes of rows by key,
+     * rows without a hash are not returned
+     */
+    private static HashMap<Long, Integer> loadHashes(String table, String keyColumn, long[] keys) {
+        HashMap<Long, Integer> hashes = new HashMap<>(keys.length * 2);
+        for (int start = 0; start < keys.length; start += MAX_IN_ARGS) {
+            int end = Math.min(keys.length, start + MAX_IN_ARGS);
+
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                args[i - start] = String.valueOf(keys[i]);
+            }
+
+            Cursor cursor = QueryBuilder.query()
+                    .select(keyColumn + ", " + HASH).from(table)
+                    .where(keyColumn + " IN (" + placeholders(args.length) + ")")
+                    .asCursor(database, args);
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(1)) {
+                    hashes.put(cursor.getLong(0), cursor.getInt(1));
+                }
+            }
+            cursor.close();
+        }
+        return hashes;
+    }
+
+    /**
+     * Deletes rows between dates of the synced page, which keys are not in the page.
+     * Keys of rows are read first, so a page of any size is deleted
+     * by chunks of {@link #MAX_IN_ARGS} arguments.
+     *
+     * @param maxDate the max date of page, -1 to delete all newer rows
+     */
+    private static int deleteMissing(String table, String keyColumn, long[] keys,
+                                     String scope, String[] scopeArgs, long minDate, long maxDate) {
+        ArrayList<String> args = new ArrayList<>(4);
+        StringBuilder where = new StringBuilder(64);
+        if (scope != null) {
+            where.append(scope).append(" AND ");
+            Collections.addAll(args, scopeArgs);
+        }
+
+        where.append(DATE).append(" >= ?");
+        args.add(String.valueOf(minDate));
+        if (maxDate >= 0) {
+            where.append(" AND ").append(DATE).append(" <= ?");
+            args.add(String.valueOf(maxDate));
+        }
+
+        HashSet<Long> synced = new HashSet<>(keys.length * 2);
+        for (long key : keys) {
+            synced.add(key);
+        }
+
+        ArrayList<String> missing = new ArrayList<>();
+        Cursor cursor = QueryBuilder.query()
+                .select(keyColumn).from(table)
+                .where(where.toString())
+                .asCursor(database, args.toArray(new String[args.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                long key = cursor.getLong(0);
+                if (!synced.contains(key)) {
+                    missing.add(String.valueOf(key));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int deleted = 0;
+        for (int start = 0; start < missing.size(); start += MAX_IN_ARGS) {
+            List<String> chunk = missing.subList(start, Math.min(missing.size(), start + MAX_IN_ARGS));
+            deleted += database.delete(table, keyColumn + " IN (" + placeholders(chunk.size()) + ")",
+                    chunk.toArray(new String[chunk.size()]));
+        }
+        return deleted;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder buffer = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            buffer.append(i == 0 ? "?" : ",?");
+        }
+        return buffer.toString();
+    }
+
+    private static long peerId(VKMessage dialog) {
+        return AndroidUtils.getPeerId(dialog.user_id, dialog.chat_id, 0);
+    }
+
+    /**
+     * Returns the hash of stored fields, to skip writing of unchanged rows
+     */
+    private static int contentHash(VKMessage msg, boolean isDialog) {
+        int hash = msg.id;
+        hash = 31 * hash + msg.user_id;
+        hash = 31 * hash + msg.chat_id;
+        hash = 31 * hash + (int) (msg.date ^ (msg.date >>> 32));
+        hash = 31 * hash + (msg.body == null ? 0 : msg.body.hashCode());
+        hash = 31 * hash + (msg.read_state ? 1 : 0);
+        hash = 31 * hash + (msg.is_out ? 1 : 0);
+
+        if (isDialog) {
+            hash = 31 * hash + (msg.title == null ? 0 : msg.title.hashCode());
+            hash = 31 * hash + msg.users_count;
+            hash = 31 * hash + msg.unread;
+            hash = 31 * hash + (msg.photo_50 == null ? 0 : msg.photo_50.hashCode());
+            hash = 31 * hash + (msg.photo_100 == null ? 0 : msg.photo_100.hashCode());
         } else {
-            where = String.format(Locale.US, "%s = 0 AND %s = %d", CHAT_ID, USER_ID, userId);
+            hash = 31 * hash + (msg.is_important ? 1 : 0);
+            if (msg.attachments != null) {
+                for (VKModel attachment : msg.attachments) {
+                    hash = 31 * hash + attachmentHash(attachment);
+                }
+            }
+            if (msg.fws_messages != null) {
+                for (VKMessage forwarded : msg.fws_messages) {
+                    hash = 31 * hash + contentHash(forwarded, false);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the hash of type, owner and id of attachment,
+     * so a replaced attachment changes the hash of message
+     */
+    private static int attachmentHash(VKModel attachment) {
+        if (attachment instanceof VKPhoto) {
+            VKPhoto photo = (VKPhoto) attachment;
+            return 31 * (31 + photo.owner_id) + photo.id;
+        } else if (attachment instanceof VKVideo) {
+            VKVideo video = (VKVideo) attachment;
+            return 31 * (31 * 2 + video.owner_id) + video.id;
+        } else if (attachment instanceof VKAudio) {
+            VKAudio audio = (VKAudio) attachment;
+            return 31 * (31 * 3 + hash(audio.owner_id)) + hash(audio.id);
+        } else if (attachment instanceof VKDoc) {
+            VKDoc doc = (VKDoc) attachment;
+            return 31 * (31 * 4 + hash(doc.owner_id)) + hash(doc.id);
+        } else if (attachment instanceof VKSticker) {
+            return 31 * 5 + ((VKSticker) attachment).id;
+        } else if (attachment instanceof VKLink) {
+            String url = ((VKLink) attachment).url;
+            return 31 * 6 + (url == null ? 0 : url.hashCode());
+        } else if (attachment instanceof VKGift) {
+            return 31 * 7 + hash(((VKGift) attachment).id);
         }
-        return where;
+        return attachment == null ? 0 : attachment.getClass().getName().hashCode();
+    }
+
+    private static int hash(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    /**
+     * Returns the where clause of dialog, matches the messages_peer_idx index
+     */
+    private static String dialogWhere(int chatId) {
+        return chatId > 0
+                ? CHAT_ID + " = ?"
+                : CHAT_ID + " = 0 AND " + USER_ID + " = ?";
+    }
+
+    private static String[] dialogArgs(int userId, int chatId) {
+        return new String[]{String.valueOf(chatId > 0 ? chatId : userId)};
     }
 
     public static void deleteMessages(int userId, int chatId) {
-        String where = dialogWhere(userId, chatId);
-        delete(MESSAGES_TABLE, where);
+        delete(MESSAGES_TABLE, dialogWhere(chatId), dialogArgs(userId, chatId));
     }
 
     public static void deleteDialog(int userId, int chatId) {
-        String where = dialogWhere(userId, chatId);
-        delete(DIALOGS_TABLE, where);
+        delete(DIALOGS_TABLE, dialogWhere(chatId), dialogArgs(userId, chatId));
     }
 
 
@@ -271,6 +748,8 @@ public class CacheStorage {
             switch (table) {
                 case USERS_TABLE:
                     putValues(cv, (VKUser) item, false);
+                    // replaces negative entry of memory cache, if any
+                    MemoryCache.append((VKUser) item);
                     break;
 
                 case FRIENDS_TABLE:
@@ -287,14 +766,23 @@ public class CacheStorage {
 
                 case GROUPS_TABLE:
                     putValues(cv, (VKGroup) item);
+                    MemoryCache.append((VKGroup) item);
                     break;
 
                 case PHOTOS_TABLE:
                     putValues(cv, (VKPhoto) item);
                     break;
+
+                case AUDIOS_TABLE:
+                    putValues(cv, (VKAudio) item);
+                    break;
+
+                case DOCS_TABLE:
+                    putValues(cv, (VKDoc) item);
+                    break;
             }
 
-            database.insert(table, null, cv);
+            StatementCache.insert(database, table, cv);
             cv.clear();
         }
 
@@ -306,6 +794,10 @@ public class CacheStorage {
         database.delete(table, where, null);
     }
 
+    public static void delete(String table, String where, String... args) {
+        database.delete(table, where, args);
+    }
+
     public static void delete(String table) {
         database.delete(table, null, null);
     }
@@ -350,7 +842,6 @@ public class CacheStorage {
         return message;
     }
 
-    @SuppressWarnings("unchecked")
     public static VKMessage parseMessage(Cursor cursor) {
         VKMessage message = new VKMessage();
 
@@ -362,8 +853,8 @@ public class CacheStorage {
         message.read_state = getInt(cursor, READ_STATE) == 1;
         message.is_out = getInt(cursor, IS_OUT) == 1;
         message.is_important = getInt(cursor, IMPORTANT) == 1;
-        message.attachments = (ArrayList<VKModel>) AndroidUtils.deserialize(getBlob(cursor, ATTACHMENTS));
-        message.fws_messages = (ArrayList<VKMessage>) AndroidUtils.deserialize(getBlob(cursor, FWD_MESSAGES));
+        message.attachments = ModelCodec.decode(getBlob(cursor, ATTACHMENTS));
+        message.fws_messages = ModelCodec.decode(getBlob(cursor, FWD_MESSAGES));
         return message;
     }
 
@@ -388,7 +879,7 @@ public class CacheStorage {
     public static VKPhoto parsePhoto(Cursor cursor) {
         VKPhoto photo = new VKPhoto();
 
-        photo.id = getInt(cursor, _ID);
+        photo.id = getInt(cursor, PHOTO_ID);
         photo.album_id = getInt(cursor, ALBUM_ID);
         photo.owner_id = getInt(cursor, OWNER_ID);
         photo.text = getString(cursor, TEXT);
@@ -401,9 +892,39 @@ public class CacheStorage {
         photo.photo_2560 = getString(cursor, PHOTO_2560);
         photo.width = getInt(cursor, WIDTH);
         photo.height = getInt(cursor, HEIGHT);
+        photo.access_key = getString(cursor, ACCESS_KEY);
         return photo;
     }
 
+    public static VKAudio parseAudio(Cursor cursor) {
+        VKAudio audio = new VKAudio();
+
+        audio.id = getLong(cursor, AUDIO_ID);
+        audio.owner_id = getLong(cursor, OWNER_ID);
+        audio.artist = getString(cursor, ARTIST);
+        audio.title = getString(cursor, TITLE);
+        audio.duration = getInt(cursor, DURATION);
+        audio.url = getString(cursor, URL);
+        audio.access_key = getString(cursor, ACCESS_KEY);
+        return audio;
+    }
+
+    public static VKDoc parseDoc(Cursor cursor) {
+        VKDoc doc = new VKDoc();
+
+        doc.id = getLong(cursor, DOC_ID);
+        doc.owner_id = getLong(cursor, OWNER_ID);
+        doc.title = getString(cursor, TITLE);
+        doc.size = getLong(cursor, SIZE);
+        doc.type = getInt(cursor, TYPE);
+        doc.ext = getString(cursor, EXT);
+        doc.url = getString(cursor, URL);
+        doc.photo_100 = getString(cursor, PHOTO_100);
+        doc.photo_130 = getString(cursor, PHOTO_130);
+        doc.access_key = getString(cursor, ACCESS_KEY);
+        return doc;
+    }
+
     private static void putValues(ContentValues values, VKUser user, boolean friends) {
         if (friends) {
             values.put(USER_ID, VKApi.config.userId);
@@ -429,6 +950,7 @@ public class CacheStorage {
     }
 
     private static void putValues(ContentValues values, VKMessage dialog, boolean isDialog) {
+        values.put(HASH, contentHash(dialog, isDialog));
         values.put(MESSAGE_ID, dialog.id);
         values.put(USER_ID, dialog.user_id);
         values.put(CHAT_ID, dialog.chat_id);
@@ -438,6 +960,7 @@ public class CacheStorage {
         values.put(READ_STATE, dialog.read_state);
 
         if (isDialog) {
+            values.put(PEER_ID, peerId(dialog));
             values.put(TITLE, dialog.title);
             values.put(USERS_COUNT, dialog.users_count);
             values.put(UNREAD_COUNT, dialog.unread);
@@ -446,10 +969,10 @@ public class CacheStorage {
         } else {
             values.put(IMPORTANT, dialog.is_important);
             if (!ArrayUtil.isEmpty(dialog.attachments)) {
-                values.put(ATTACHMENTS, AndroidUtils.serialize(dialog.attachments));
+                values.put(ATTACHMENTS, ModelCodec.encode(dialog.attachments));
             }
             if (!ArrayUtil.isEmpty(dialog.fws_messages)) {
-                values.put(FWD_MESSAGES, AndroidUtils.serialize(dialog.fws_messages));
+                values.put(FWD_MESSAGES, ModelCodec.encode(dialog.fws_messages));
             }
         }
 
@@ -471,7 +994,7 @@ public class CacheStorage {
     }
 
     private static void putValues(ContentValues values, VKPhoto photo) {
-        values.put(_ID, photo.id);
+        values.put(PHOTO_ID, photo.id);
         values.put(ALBUM_ID, photo.album_id);
         values.put(OWNER_ID, photo.owner_id);
         values.put(WIDTH, photo.width);
@@ -484,6 +1007,7 @@ public class CacheStorage {
         values.put(PHOTO_807, photo.photo_807);
         values.put(PHOTO_1280, photo.photo_1280);
         values.put(PHOTO_2560, photo.photo_2560);
+        values.put(ACCESS_KEY, photo.access_key);
     }
 
     private static void putValues(ContentValues values, VKAudio audio) {
@@ -493,5 +1017,19 @@ public class CacheStorage {
         values.put(TITLE, audio.title);
         values.put(DURATION, audio.duration);
         values.put(URL, audio.url);
+        values.put(ACCESS_KEY, audio.access_key);
+    }
+
+    private static void putValues(ContentValues values, VKDoc doc) {
+        values.put(DOC_ID, doc.id);
+        values.put(OWNER_ID, doc.owner_id);
+        values.put(TITLE, doc.title);
+        values.put(SIZE, doc.size);
+        values.put(TYPE, doc.type);
+        values.put(EXT, doc.ext);
+        values.put(URL, doc.url);
+        values.put(PHOTO_100, doc.photo_100);
+        values.put(PHOTO_130, doc.photo_130);
+        values.put(ACCESS_KEY, doc.access_key);
     }
 }
@@ -1,5 +1,6 @@
 package ru.euphoria.messenger.database;
 
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -12,7 +13,7 @@ import ru.euphoria.messenger.common.AppGlobal;
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String LOG_TAG = "Euphoria.Database";
 
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 13;
     private static final String DATABASE_NAME = "cache.db";
 
     /**
@@ -30,6 +31,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String USER_GROUP_TABLE = "user_group";
     public static final String STATS_MESSAGES_TABLE = "stats_messages";
     public static final String FAILED_MESSAGES_TABLE = "failed_messages";
+    public static final String ANALYSIS_TABLE = "analysis";
+    public static final String MESSAGES_SEARCH_TABLE = "messages_search";
 
     /**
      * Columns
@@ -42,6 +45,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String AUDIO_ID = "audio_id";
     public static final String CHAT_ID = "chat_id";
     public static final String DOC_ID = "doc_id";
+    public static final String PHOTO_ID = "photo_id";
     public static final String ALBUM_ID = "album_id";
     public static final String LYRICS_ID = "lyrics_id";
     public static final String MESSAGE_ID = "message_id";
@@ -96,6 +100,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String TYPE = "type";
     public static final String DESCRIPTION = "description";
     public static final String MEMBERS_COUNT = "members_count";
+    public static final String PEER_ID = "peer_id";
+    public static final String HASH = "hash";
+    public static final String STATE = "state";
+    public static final String ACCESS_KEY = "access_key";
 
     private static final String SQL_CREATE_TABLE_USERS = "CREATE TABLE " + USERS_TABLE +
             " (" + USER_ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
@@ -137,7 +145,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + UNREAD_COUNT + "] INTEGER, " +
             " [" + DATE + "] INTEGER , " +
             " [" + PHOTO_50 + "] VARCHAR(255), " +
-            " [" + PHOTO_100 + "] VARCHAR(255)" +
+            " [" + PHOTO_100 + "] VARCHAR(255), " +
+            " [" + PEER_ID + "] INTEGER, " +
+            " [" + HASH + "] INTEGER" +
             ");";
 
     private final static String SQL_CREATE_TABLE_MESSAGES = "CREATE TABLE " + MESSAGES_TABLE +
@@ -151,7 +161,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + IS_OUT + "] INTEGER, " +
             " [" + IMPORTANT + "] INTEGER, " +
             " [" + ATTACHMENTS + "] BLOB, " +
-            " [" + FWD_MESSAGES + "] BLOB" +
+            " [" + FWD_MESSAGES + "] BLOB, " +
+            " [" + HASH + "] INTEGER" +
             ");";
 
 
@@ -172,11 +183,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + TITLE + "] VARCHAR(255), " +
             " [" + DURATION + "] INTEGER, " +
             " [" + URL + "] VARCHAR(255), " +
-            " [" + LYRICS_ID + "] INTEGER " +
+            " [" + LYRICS_ID + "] INTEGER, " +
+            " [" + ACCESS_KEY + "] VARCHAR(255), " +
+            " [" + PEER_ID + "] INTEGER, " +
+            " [" + MESSAGE_ID + "] INTEGER" +
             ");";
 
     private final static String SQK_CREATE_TABLE_PHOTOS = "CREATE TABLE " + PHOTOS_TABLE +
             " (" + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            " [" + PHOTO_ID + "] INTEGER, " +
             " [" + ALBUM_ID + "] INTEGER, " +
             " [" + OWNER_ID + "] INTEGER, " +
             " [" + WIDTH + "] INTEGER, " +
@@ -188,7 +203,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + PHOTO_604 + "] VARCHAR(255), " +
             " [" + PHOTO_807 + "] VARCHAR(255), " +
             " [" + PHOTO_1280 + "] VARCHAR(255), " +
-            " [" + PHOTO_2560 + "] VARCHAR(255)" +
+            " [" + PHOTO_2560 + "] VARCHAR(255), " +
+            " [" + ACCESS_KEY + "] VARCHAR(255), " +
+            " [" + PEER_ID + "] INTEGER, " +
+            " [" + MESSAGE_ID + "] INTEGER" +
             ");";
 
     private final static String SQL_CREATE_TABLE_DOCS = "CREATE TABLE " + DOCS_TABLE +
@@ -201,7 +219,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + EXT + "] VARCHAR(255), " +
             " [" + URL + "] VARCHAR(255), " +
             " [" + PHOTO_100 + "] VARCHAR(255), " +
-            " [" + PHOTO_130 + "] VARCHAR(255)" +
+            " [" + PHOTO_130 + "] VARCHAR(255), " +
+            " [" + ACCESS_KEY + "] VARCHAR(255), " +
+            " [" + PEER_ID + "] INTEGER, " +
+            " [" + MESSAGE_ID + "] INTEGER" +
             ");";
 
     private final static String SQL_CREATE_TABLE_GROUPS = "CREATE TABLE " + GROUPS_TABLE +
@@ -232,6 +253,86 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             " [" + BODY + "] VARCHAR(255)" +
             ");";
 
+    private final static String SQL_CREATE_TABLE_ANALYSIS = "CREATE TABLE IF NOT EXISTS " + ANALYSIS_TABLE +
+            " (" + PEER_ID + " INTEGER PRIMARY KEY, " +
+            " [" + DATE + "] INTEGER, " +
+            " [" + STATE + "] BLOB" +
+            ");";
+
+    /**
+     * Full-text index of message bodies, docid is message_id.
+     * unicode61 folds case of any language, but needs SQLite 3.7.13 (Android 4.1+),
+     * older devices fall back to the simple tokenizer, which folds only ASCII
+     */
+    private static final String SQL_CREATE_TABLE_MESSAGES_SEARCH = "CREATE VIRTUAL TABLE IF NOT EXISTS " +
+            MESSAGES_SEARCH_TABLE + " USING fts4(" + BODY + ", tokenize=unicode61)";
+
+    private static final String SQL_CREATE_TABLE_MESSAGES_SEARCH_SIMPLE = "CREATE VIRTUAL TABLE IF NOT EXISTS " +
+            MESSAGES_SEARCH_TABLE + " USING fts4(" + BODY + ")";
+
+    /**
+     * Triggers keep the full-text index in sync with every write of messages.
+     * INSERT OR REPLACE does not fire delete triggers, so the insert trigger
+     * replaces the indexed body itself
+     */
+    private static final String SQL_CREATE_TRIGGER_MESSAGES_INSERT = "CREATE TRIGGER IF NOT EXISTS " +
+            "messages_search_insert AFTER INSERT ON " + MESSAGES_TABLE + " BEGIN " +
+            "DELETE FROM " + MESSAGES_SEARCH_TABLE + " WHERE docid = NEW." + MESSAGE_ID + "; " +
+            "INSERT INTO " + MESSAGES_SEARCH_TABLE + " (docid, " + BODY + ") " +
+            "SELECT NEW." + MESSAGE_ID + ", NEW." + BODY + " WHERE NEW." + BODY + " != ''; " +
+            "END";
+
+    private static final String SQL_CREATE_TRIGGER_MESSAGES_UPDATE = "CREATE TRIGGER IF NOT EXISTS " +
+            "messages_search_update AFTER UPDATE OF " + MESSAGE_ID + ", " + BODY + " ON " + MESSAGES_TABLE + " BEGIN " +
+            "DELETE FROM " + MESSAGES_SEARCH_TABLE + " WHERE docid = OLD." + MESSAGE_ID + "; " +
+            "INSERT INTO " + MESSAGES_SEARCH_TABLE + " (docid, " + BODY + ") " +
+            "SELECT NEW." + MESSAGE_ID + ", NEW." + BODY + " WHERE NEW." + BODY + " != ''; " +
+            "END";
+
+    private static final String SQL_CREATE_TRIGGER_MESSAGES_DELETE = "CREATE TRIGGER IF NOT EXISTS " +
+            "messages_search_delete AFTER DELETE ON " + MESSAGES_TABLE + " BEGIN " +
+            "DELETE FROM " + MESSAGES_SEARCH_TABLE + " WHERE docid = OLD." + MESSAGE_ID + "; " +
+            "END";
+
+    /**
+     * Indexes for the lookups of chat screen, dialogs list and friends
+     */
+    private static final String SQL_CREATE_INDEX_MESSAGES_PEER = "CREATE INDEX IF NOT EXISTS " +
+            "messages_peer_idx ON " + MESSAGES_TABLE + " (" + CHAT_ID + ", " + USER_ID + ", " + DATE + ");";
+
+    private static final String SQL_CREATE_INDEX_MESSAGES_ID = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+            "messages_id_idx ON " + MESSAGES_TABLE + " (" + MESSAGE_ID + ");";
+
+    private static final String SQL_CREATE_INDEX_DIALOGS_PEER = "CREATE INDEX IF NOT EXISTS " +
+            "dialogs_peer_idx ON " + DIALOGS_TABLE + " (" + CHAT_ID + ", " + USER_ID + ");";
+
+    private static final String SQL_CREATE_INDEX_DIALOGS_PEER_ID = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+            "dialogs_peer_id_idx ON " + DIALOGS_TABLE + " (" + PEER_ID + ");";
+
+    /** Also the order of pages of dialogs list, peer_id breaks ties of date */
+    private static final String SQL_CREATE_INDEX_DIALOGS_DATE = "CREATE INDEX IF NOT EXISTS " +
+            "dialogs_date_peer_idx ON " + DIALOGS_TABLE + " (" + DATE + ", " + PEER_ID + ");";
+
+    /**
+     * Pages of attachments of dialog, see messages.getHistoryAttachments.
+     * An attachment is stored once per message, the same photo
+     * may be attached to messages of many dialogs.
+     */
+    private static final String SQL_CREATE_INDEX_PHOTOS_PEER = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+            "photos_peer_idx ON " + PHOTOS_TABLE + " (" + PEER_ID + ", " + MESSAGE_ID + ", " +
+            OWNER_ID + ", " + PHOTO_ID + ");";
+
+    private static final String SQL_CREATE_INDEX_AUDIOS_PEER = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+            "audios_peer_idx ON " + AUDIOS_TABLE + " (" + PEER_ID + ", " + MESSAGE_ID + ", " +
+            OWNER_ID + ", " + AUDIO_ID + ");";
+
+    private static final String SQL_CREATE_INDEX_DOCS_PEER = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+            "docs_peer_idx ON " + DOCS_TABLE + " (" + PEER_ID + ", " + MESSAGE_ID + ", " +
+            OWNER_ID + ", " + DOC_ID + ");";
+
+    private static final String SQL_CREATE_INDEX_FRIENDS_USER = "CREATE INDEX IF NOT EXISTS " +
+            "friends_user_idx ON " + FRIENDS_TABLE + " (" + USER_ID + ");";
+
     private static final String SQL_DELETE_DOCS = "DROP TABLE IF EXISTS " + DOCS_TABLE;
     private static final String SQL_DELETE_USERS = "DROP TABLE IF EXISTS " + USERS_TABLE;
     private static final String SQL_DELETE_AUDIOS = "DROP TABLE IF EXISTS " + AUDIOS_TABLE;
@@ -244,6 +345,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String SQL_DELETE_SAVED_MESSAGES = "DROP TABLE IF EXISTS " + SAVED_MESSAGES_TABLE;
     private static final String SQL_DElETE_STATS_MESSAGES = "DROP TABLE IF EXISTS " + STATS_MESSAGES_TABLE;
     private static final String SQL_DELETE_FAILED_MESSAGES = "DROP TABLE IF EXISTS " + FAILED_MESSAGES_TABLE;
+    private static final String SQL_DELETE_ANALYSIS = "DROP TABLE IF EXISTS " + ANALYSIS_TABLE;
+    private static final String SQL_DELETE_MESSAGES_SEARCH = "DROP TABLE IF EXISTS " + MESSAGES_SEARCH_TABLE;
 
     private static DatabaseHelper instance;
 
@@ -272,6 +375,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_TABLE_USER_GROUP);
         db.execSQL(SQL_CREATE_TABLE_STATS_MESSAGES);
         db.execSQL(SQL_CREATE_TABLE_FAILED_MESSAGES);
+        db.execSQL(SQL_CREATE_TABLE_ANALYSIS);
+        createIndexes(db);
+        createSearchIndex(db);
 
         Log.w(LOG_TAG, "Database created");
     }
@@ -280,11 +386,102 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.w(LOG_TAG, "Database upgraded from " + oldVersion + " to " + newVersion + " version");
 
-        dropTables(db);
-        onCreate(db);
+        if (oldVersion < 6) {
+            dropTables(db);
+            onCreate(db);
+            return;
+        }
+
+        if (oldVersion < 8) {
+            upgradeTo8(db);
+        }
+
+        if (oldVersion < 9) {
+            // checkpoints of history analysis
+            db.execSQL(SQL_CREATE_TABLE_ANALYSIS);
+        }
+
+        if (oldVersion < 10) {
+            // full-text search of cached messages
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO " + MESSAGES_SEARCH_TABLE + " (docid, " + BODY + ")" +
+                    " SELECT " + MESSAGE_ID + ", " + BODY + " FROM " + MESSAGES_TABLE +
+                    " WHERE " + BODY + " != ''");
+        }
+
+        if (oldVersion < 11) {
+            // replaced by dialogs_date_peer_idx for keyset paging
+            db.execSQL("DROP INDEX IF EXISTS dialogs_date_idx");
+        }
+
+        if (oldVersion < 12) {
+            // attachments of dialogs
+            for (String table : new String[]{PHOTOS_TABLE, AUDIOS_TABLE, DOCS_TABLE}) {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN [" + ACCESS_KEY + "] VARCHAR(255)");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN [" + PEER_ID + "] INTEGER");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN [" + MESSAGE_ID + "] INTEGER");
+            }
+        }
+
+        if (oldVersion < 13) {
+            // photos were keyed by _id = photo id, so a photo in many dialogs
+            // kept only one row. It is a cache of pages, so it is just recreated
+            db.execSQL(SQL_DELETE_PHOTOS);
+            db.execSQL(SQK_CREATE_TABLE_PHOTOS);
+        }
+
+        // indexes added since version 6
+        createIndexes(db);
+    }
+
+    /**
+     * 7 -> 8: content hash and peer id for incremental sync,
+     * message_id and peer_id become unique
+     */
+    private void upgradeTo8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + MESSAGES_TABLE + " ADD COLUMN [" + HASH + "] INTEGER");
+        db.execSQL("ALTER TABLE " + DIALOGS_TABLE + " ADD COLUMN [" + HASH + "] INTEGER");
+        db.execSQL("ALTER TABLE " + DIALOGS_TABLE + " ADD COLUMN [" + PEER_ID + "] INTEGER");
+        db.execSQL("UPDATE " + DIALOGS_TABLE + " SET " + PEER_ID + " = CASE WHEN " + CHAT_ID + " > 0" +
+                " THEN 2000000000 + " + CHAT_ID + " ELSE " + USER_ID + " END");
+
+        // keep only the last copy of duplicated rows
+        db.execSQL("DELETE FROM " + MESSAGES_TABLE + " WHERE " + _ID + " NOT IN" +
+                " (SELECT MAX(" + _ID + ") FROM " + MESSAGES_TABLE + " GROUP BY " + MESSAGE_ID + ")");
+        db.execSQL("DELETE FROM " + DIALOGS_TABLE + " WHERE " + _ID + " NOT IN" +
+                " (SELECT MAX(" + _ID + ") FROM " + DIALOGS_TABLE + " GROUP BY " + PEER_ID + ")");
+        db.execSQL("DROP INDEX IF EXISTS messages_id_idx");
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_INDEX_MESSAGES_PEER);
+        db.execSQL(SQL_CREATE_INDEX_MESSAGES_ID);
+        db.execSQL(SQL_CREATE_INDEX_DIALOGS_PEER);
+        db.execSQL(SQL_CREATE_INDEX_DIALOGS_PEER_ID);
+        db.execSQL(SQL_CREATE_INDEX_DIALOGS_DATE);
+        db.execSQL(SQL_CREATE_INDEX_FRIENDS_USER);
+        db.execSQL(SQL_CREATE_INDEX_PHOTOS_PEER);
+        db.execSQL(SQL_CREATE_INDEX_AUDIOS_PEER);
+        db.execSQL(SQL_CREATE_INDEX_DOCS_PEER);
+    }
+
+    private void createSearchIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL(SQL_CREATE_TABLE_MESSAGES_SEARCH);
+        } catch (SQLException e) {
+            Log.w(LOG_TAG, "unicode61 tokenizer is not supported, search is case sensitive for non-ASCII");
+            db.execSQL(SQL_CREATE_TABLE_MESSAGES_SEARCH_SIMPLE);
+        }
+
+        db.execSQL(SQL_CREATE_TRIGGER_MESSAGES_INSERT);
+        db.execSQL(SQL_CREATE_TRIGGER_MESSAGES_UPDATE);
+        db.execSQL(SQL_CREATE_TRIGGER_MESSAGES_DELETE);
     }
 
     public void dropTables(SQLiteDatabase db) {
+        // compiled statements are bound to the dropped tables
+        StatementCache.clear();
+
         db.execSQL(SQL_DELETE_DOCS);
         db.execSQL(SQL_DELETE_USERS);
         db.execSQL(SQL_DELETE_AUDIOS);
@@ -297,5 +494,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_DELETE_SAVED_MESSAGES);
         db.execSQL(SQL_DElETE_STATS_MESSAGES);
         db.execSQL(SQL_DELETE_FAILED_MESSAGES);
+        db.execSQL(SQL_DELETE_ANALYSIS);
+        db.execSQL(SQL_DELETE_MESSAGES_SEARCH);
     }
 }
@@ -1,40 +1,56 @@
 package ru.euphoria.messenger.database;
 
-import android.util.SparseArray;
-
 import java.util.ArrayList;
 
 import ru.euphoria.messenger.api.model.VKGroup;
 import ru.euphoria.messenger.api.model.VKUser;
+import ru.euphoria.messenger.util.StripedIntLruCache;
 
 /**
  * Created by Igor on 09.02.17.
+ * <p/>
+ * Bounded LRU cache of users and groups, misses are loaded from {@link CacheStorage}.
+ * Unknown ids are remembered as negative entries, so adapters do not query
+ * SQLite on every bind. Values inserted to {@link CacheStorage} replace them.
+ * <p/>
+ * Safe to use from any thread: writers from background loaders and
+ * {@link ru.euphoria.messenger.service.LongPollService} lock only one stripe
+ * of the cache for a short update, SQLite is queried outside of locks.
  */
 
 public class MemoryCache {
-    private static SparseArray<VKUser> users = new SparseArray<>(20);
-    private static SparseArray<VKGroup> groups = new SparseArray<>(20);
+    /** The default max number of cached users */
+    public static final int DEFAULT_USERS_CAPACITY = 500;
+    /** The default max number of cached groups */
+    public static final int DEFAULT_GROUPS_CAPACITY = 100;
 
-    public static VKUser getUser(int id) {
-        VKUser user = users.get(id);
-        if (user == null) {
-            user = CacheStorage.getUser(id);
-            if (user != null) {
-                append(user);
-            }
+    private static final StripedIntLruCache<VKUser> users = new StripedIntLruCache<VKUser>(DEFAULT_USERS_CAPACITY) {
+        @Override
+        protected VKUser create(int id) {
+            return CacheStorage.getUser(id);
+        }
+    };
+
+    private static final StripedIntLruCache<VKGroup> groups = new StripedIntLruCache<VKGroup>(DEFAULT_GROUPS_CAPACITY) {
+        @Override
+        protected VKGroup create(int id) {
+            return CacheStorage.getGroup(id);
         }
-        return user;
+    };
+
+    public static VKUser getUser(int id) {
+        return users.get(id);
+    }
+
+    /**
+     * Returns the cached user, without loading from {@link CacheStorage}
+     */
+    public static VKUser peekUser(int id) {
+        return users.peek(id);
     }
 
     public static VKGroup getGroup(int id) {
-        VKGroup group = groups.get(id);
-        if (group == null) {
-            group = CacheStorage.getGroup(id);
-            if (group != null) {
-                append(group);
-            }
-        }
-        return group;
+        return groups.get(id);
     }
 
     public static void update(ArrayList<VKUser> users) {
@@ -44,11 +60,28 @@ public class MemoryCache {
     }
 
     public static void append(VKGroup value) {
-        groups.append(value.id, value);
+        groups.put(value.id, value);
     }
 
     public static void append(VKUser value) {
-        users.append(value.id, value);
+        users.put(value.id, value);
+    }
+
+    /**
+     * Sets the max number of cached users and groups,
+     * the least recently used entries are evicted if needed.
+     */
+    public static void resize(int usersCapacity, int groupsCapacity) {
+        users.resize(usersCapacity);
+        groups.resize(groupsCapacity);
+    }
+
+    /**
+     * Returns hit/miss/eviction stats of users and groups caches,
+     * e.g. to log or send with crash report.
+     */
+    public static String stats() {
+        return "users: " + users + ", groups: " + groups;
     }
 
     public static void clear() {
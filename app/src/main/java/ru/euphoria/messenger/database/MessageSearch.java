@@ -0,0 +1,147 @@
+package ru.euphoria.messenger.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static ru.euphoria.messenger.database.DatabaseHelper.MESSAGES_SEARCH_TABLE;
+
+/**
+ * Ranked search over the full-text index of cached messages.
+ * <p/>
+ * Words of query are matched as prefixes, all of them must be found.
+ * FTS4 has no ranking function, so matches are scored here by BM25
+ * from {@code matchinfo()}, with a small bonus for newer messages.
+ * Only the newest {@link #MAX_CANDIDATES} matches are ranked,
+ * so a search of a common word stays fast on a large cache.
+ */
+class MessageSearch {
+    /** The max number of matches, which are ranked */
+    static final int MAX_CANDIDATES = 2000;
+
+    /** BM25 parameters, the usual defaults */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /** The score of the newest candidate is increased by this part, the oldest one is not */
+    private static final double RECENCY_WEIGHT = 0.1;
+
+    // only static methods
+    private MessageSearch() {
+    }
+
+    /**
+     * Converts user input to the FTS query, e.g. "Hello, wor" to "hello* wor*".
+     * Only letters and digits are kept, so operators and quotes
+     * of the query syntax can not break the query
+     *
+     * @return the query, or null if there are no words
+     */
+    static String toMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder query = new StringBuilder(text.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && query.length() != 0) {
+                    query.append(' ');
+                }
+                query.append(Character.toLowerCase(c));
+                inWord = true;
+            } else if (inWord) {
+                query.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+     * Returns message ids of the page of matches, from the best one
+     *
+     * @param match  the FTS query, see {@link #toMatchQuery(String)}
+     * @param offset the number of matches to skip
+     * @param count  the max number of ids
+     */
+    static int[] search(SQLiteDatabase db, String match, int offset, int count) {
+        Cursor cursor = QueryBuilder.query()
+                .select("docid, matchinfo(" + MESSAGES_SEARCH_TABLE + ", 'pcnalx')")
+                .from(MESSAGES_SEARCH_TABLE)
+                .where(MESSAGES_SEARCH_TABLE + " MATCH ?")
+                .orderBy("docid DESC")
+                .limit(MAX_CANDIDATES)
+                .asCursor(db, match);
+
+        int size = cursor.getCount();
+        int[] docids = new int[size];
+        long[] ranked = new long[size];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                // candidates are from new to old
+                double recency = size == 1 ? 0 : (double) (size - 1 - i) / (size - 1);
+                float score = (float) (score(cursor.getBlob(1)) * (1 + RECENCY_WEIGHT * recency));
+
+                // scores are not negative, so their bits sort as numbers
+                docids[i] = cursor.getInt(0);
+                ranked[i] = ((long) Float.floatToIntBits(score) << 32) | (size - 1 - i);
+            }
+        } finally {
+            cursor.close();
+        }
+        Arrays.sort(ranked);
+
+        int from = Math.min(size, offset);
+        int to = Math.min(size, offset + count);
+        int[] ids = new int[to - from];
+        for (int i = from; i < to; i++) {
+            int index = size - 1 - (int) ranked[size - 1 - i];
+            ids[i - from] = docids[index];
+        }
+        return ids;
+    }
+
+    /**
+     * Scores the row by BM25. matchinfo 'pcnalx' is an array of 32-bit ints:
+     * phrases, columns, rows, average tokens per column, tokens of this row
+     * per column, then hits in this row, in all rows and rows with hits,
+     * for each phrase and column
+     */
+    static double score(byte[] matchinfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int columns = info.getInt(4);
+        int rows = info.getInt(8);
+
+        int avgStart = 3;
+        int lengthStart = avgStart + columns;
+        int hitsStart = lengthStart + columns;
+
+        double score = 0;
+        for (int p = 0; p < phrases; p++) {
+            for (int c = 0; c < columns; c++) {
+                int hit = (hitsStart + 3 * (p * columns + c)) * 4;
+                int hits = info.getInt(hit);
+                if (hits == 0) {
+                    continue;
+                }
+
+                int docs = info.getInt(hit + 8);
+                double idf = Math.log(1 + (rows - docs + 0.5) / (docs + 0.5));
+                double avg = Math.max(1, info.getInt((avgStart + c) * 4));
+                double length = info.getInt((lengthStart + c) * 4);
+                score += idf * hits * (K1 + 1) / (hits + K1 * (1 - B + B * length / avg));
+            }
+        }
+        return score;
+    }
+}
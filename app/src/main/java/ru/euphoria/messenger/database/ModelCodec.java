@@ -0,0 +1,768 @@
+package ru.euphoria.messenger.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ru.euphoria.messenger.api.model.VKAudio;
+import ru.euphoria.messenger.api.model.VKDoc;
+import ru.euphoria.messenger.api.model.VKGift;
+import ru.euphoria.messenger.api.model.VKLink;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.api.model.VKPhotoSizes;
+import ru.euphoria.messenger.api.model.VKSticker;
+import ru.euphoria.messenger.api.model.VKVideo;
+import ru.euphoria.messenger.io.Charsets;
+
+/**
+ * Compact binary codec of attachments and forwarded messages for the cache,
+ * replaces Java serialization of {@link VKModel}s.
+ * <p/>
+ * Format: magic byte, version byte, then a list of records.
+ * A list is a varint count and records, a record is a type byte,
+ * varint length of payload and payload. Numbers are zigzag varints,
+ * strings are varint length + 1 (0 is null) and UTF-8 bytes.
+ * <p/>
+ * Fields are written in a fixed order, new fields are appended to the end
+ * of payload. The reader leaves fields missing in old payloads with defaults
+ * and skips unknown trailing fields and unknown record types, so changes
+ * of models do not break the cache.
+ */
+public class ModelCodec {
+    /** The current version of format */
+    public static final int VERSION = 1;
+
+    private static final byte MAGIC = 'E';
+
+    private static final int TYPE_PHOTO = 1;
+    private static final int TYPE_VIDEO = 2;
+    private static final int TYPE_AUDIO = 3;
+    private static final int TYPE_DOC = 4;
+    private static final int TYPE_STICKER = 5;
+    private static final int TYPE_LINK = 6;
+    private static final int TYPE_GIFT = 7;
+    private static final int TYPE_MESSAGE = 8;
+    private static final int TYPE_PHOTO_SIZE = 9;
+
+    // only static methods
+    private ModelCodec() {
+    }
+
+    /**
+     * Encodes the list of models, unsupported models are skipped
+     *
+     * @param models the list of attachments or forwarded messages
+     */
+    public static byte[] encode(ArrayList<? extends VKModel> models) {
+        Writer out = new Writer(256);
+        out.buffer[out.size++] = MAGIC;
+        out.buffer[out.size++] = VERSION;
+        writeList(out, models);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the list of models, encoded by {@link #encode(ArrayList)}.
+     * Falls back to Java deserialization for blobs of old cache.
+     *
+     * @param data the encoded data, may be null
+     * @return the list of models or null, if data is empty
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends VKModel> ArrayList<T> decode(byte[] data) {
+        if (data == null || data.length < 2) {
+            return null;
+        }
+        if (data[0] != MAGIC) {
+            // written by ObjectOutputStream before the codec
+            return (ArrayList<T>) deserialize(data);
+        }
+
+        Reader in = new Reader(data, 2);
+        return (ArrayList<T>) readList(in);
+    }
+
+    /**
+     * Reads the object, written by {@link java.io.ObjectOutputStream}, or returns null.
+     * Unlike {@link ru.euphoria.messenger.util.AndroidUtils#deserialize(byte[])},
+     * has no Android dependencies, so the codec runs on a plain JVM.
+     */
+    private static Object deserialize(byte[] data) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            try {
+                return in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void writeList(Writer out, ArrayList<? extends VKModel> models) {
+        if (models == null) {
+            out.writeVarInt(0);
+            return;
+        }
+
+        int countPosition = out.size;
+        int count = 0;
+        out.writeVarInt(models.size());
+        for (int i = 0; i < models.size(); i++) {
+            if (writeModel(out, models.get(i))) {
+                count++;
+            }
+        }
+        if (count != models.size()) {
+            out.rewriteVarInt(countPosition, models.size(), count);
+        }
+    }
+
+    private static ArrayList<VKModel> readList(Reader in) {
+        int count = in.readVarInt();
+        // the count of corrupt blob may be negative or huge, a record
+        // takes at least 2 bytes, so the capacity is bounded by the data
+        int capacity = Math.max(0, Math.min(count, (in.limit - in.position) / 2));
+        ArrayList<VKModel> models = new ArrayList<>(capacity);
+        for (int i = 0; i < count && in.position < in.limit; i++) {
+            VKModel model = readModel(in);
+            if (model != null) {
+                models.add(model);
+            }
+        }
+        return models;
+    }
+
+    private static boolean writeModel(Writer out, VKModel model) {
+        int type = typeOf(model);
+        if (type == 0) {
+            return false;
+        }
+
+        out.writeByte(type);
+        int start = out.beginRecord();
+        switch (type) {
+            case TYPE_PHOTO:
+                writePhoto(out, (VKPhoto) model);
+                break;
+            case TYPE_VIDEO:
+                writeVideo(out, (VKVideo) model);
+                break;
+            case TYPE_AUDIO:
+                writeAudio(out, (VKAudio) model);
+                break;
+            case TYPE_DOC:
+                writeDoc(out, (VKDoc) model);
+                break;
+            case TYPE_STICKER:
+                writeSticker(out, (VKSticker) model);
+                break;
+            case TYPE_LINK:
+                writeLink(out, (VKLink) model);
+                break;
+            case TYPE_GIFT:
+                writeGift(out, (VKGift) model);
+                break;
+            case TYPE_MESSAGE:
+                writeMessage(out, (VKMessage) model);
+                break;
+            case TYPE_PHOTO_SIZE:
+                writePhotoSize(out, (VKPhotoSizes.PhotoSize) model);
+                break;
+        }
+        out.endRecord(start);
+        return true;
+    }
+
+    private static VKModel readModel(Reader in) {
+        int type = in.readByte();
+        int end = in.beginRecord();
+
+        VKModel model;
+        switch (type) {
+            case TYPE_PHOTO:
+                model = readPhoto(in);
+                break;
+            case TYPE_VIDEO:
+                model = readVideo(in);
+                break;
+            case TYPE_AUDIO:
+                model = readAudio(in);
+                break;
+            case TYPE_DOC:
+                model = readDoc(in);
+                break;
+            case TYPE_STICKER:
+                model = readSticker(in);
+                break;
+            case TYPE_LINK:
+                model = readLink(in);
+                break;
+            case TYPE_GIFT:
+                model = readGift(in);
+                break;
+            case TYPE_MESSAGE:
+                model = readMessage(in);
+                break;
+            case TYPE_PHOTO_SIZE:
+                model = readPhotoSize(in);
+                break;
+            default:
+                // written by newer version
+                model = null;
+        }
+        in.endRecord(end);
+        return model;
+    }
+
+    private static int typeOf(VKModel model) {
+        if (model instanceof VKPhoto) return TYPE_PHOTO;
+        if (model instanceof VKVideo) return TYPE_VIDEO;
+        if (model instanceof VKAudio) return TYPE_AUDIO;
+        if (model instanceof VKDoc) return TYPE_DOC;
+        if (model instanceof VKSticker) return TYPE_STICKER;
+        if (model instanceof VKLink) return TYPE_LINK;
+        if (model instanceof VKGift) return TYPE_GIFT;
+        if (model instanceof VKMessage) return TYPE_MESSAGE;
+        if (model instanceof VKPhotoSizes.PhotoSize) return TYPE_PHOTO_SIZE;
+        return 0;
+    }
+
+    private static void writePhoto(Writer out, VKPhoto photo) {
+        out.writeLong(photo.id);
+        out.writeLong(photo.album_id);
+        out.writeLong(photo.owner_id);
+        out.writeLong(photo.width);
+        out.writeLong(photo.height);
+        out.writeString(photo.text);
+        out.writeLong(photo.date);
+        out.writeString(photo.photo_75);
+        out.writeString(photo.photo_130);
+        out.writeString(photo.photo_604);
+        out.writeString(photo.photo_807);
+        out.writeString(photo.photo_1280);
+        out.writeString(photo.photo_2560);
+        out.writeBoolean(photo.user_likes);
+        out.writeBoolean(photo.can_comment);
+        out.writeLong(photo.likes);
+        out.writeLong(photo.comments);
+        out.writeLong(photo.tags);
+        out.writeString(photo.access_key);
+    }
+
+    private static VKPhoto readPhoto(Reader in) {
+        VKPhoto photo = new VKPhoto();
+        photo.id = in.readInt();
+        photo.album_id = in.readInt();
+        photo.owner_id = in.readInt();
+        photo.width = in.readInt();
+        photo.height = in.readInt();
+        photo.text = in.readString();
+        photo.date = in.readLong();
+        photo.photo_75 = in.readString();
+        photo.photo_130 = in.readString();
+        photo.photo_604 = in.readString();
+        photo.photo_807 = in.readString();
+        photo.photo_1280 = in.readString();
+        photo.photo_2560 = in.readString();
+        photo.user_likes = in.readBoolean();
+        photo.can_comment = in.readBoolean();
+        photo.likes = in.readInt();
+        photo.comments = in.readInt();
+        photo.tags = in.readInt();
+        photo.access_key = in.readString();
+        return photo;
+    }
+
+    private static void writeVideo(Writer out, VKVideo video) {
+        out.writeLong(video.id);
+        out.writeLong(video.owner_id);
+        out.writeLong(video.album_id);
+        out.writeString(video.title);
+        out.writeString(video.description);
+        out.writeLong(video.duration);
+        out.writeString(video.link);
+        out.writeLong(video.date);
+        out.writeLong(video.views);
+        out.writeString(video.player);
+        out.writeString(video.photo_130);
+        out.writeString(video.photo_320);
+        out.writeString(video.photo_640);
+        out.writeString(video.access_key);
+        out.writeLong(video.comments);
+        out.writeBoolean(video.can_comment);
+        out.writeBoolean(video.can_repost);
+        out.writeBoolean(video.user_likes);
+        out.writeBoolean(video.repeat);
+        out.writeLong(video.likes);
+        out.writeLong(video.privacy_view);
+        out.writeLong(video.privacy_comment);
+        out.writeString(video.mp4_240);
+        out.writeString(video.mp4_360);
+        out.writeString(video.mp4_480);
+        out.writeString(video.mp4_720);
+        out.writeString(video.mp4_1080);
+        out.writeString(video.external);
+    }
+
+    private static VKVideo readVideo(Reader in) {
+        VKVideo video = new VKVideo();
+        video.id = in.readInt();
+        video.owner_id = in.readInt();
+        video.album_id = in.readInt();
+        video.title = in.readString();
+        video.description = in.readString();
+        video.duration = in.readInt();
+        video.link = in.readString();
+        video.date = in.readLong();
+        video.views = in.readInt();
+        video.player = in.readString();
+        video.photo_130 = in.readString();
+        video.photo_320 = in.readString();
+        video.photo_640 = in.readString();
+        video.access_key = in.readString();
+        video.comments = in.readInt();
+        video.can_comment = in.readBoolean();
+        video.can_repost = in.readBoolean();
+        video.user_likes = in.readBoolean();
+        video.repeat = in.readBoolean();
+        video.likes = in.readInt();
+        video.privacy_view = in.readInt();
+        video.privacy_comment = in.readInt();
+        video.mp4_240 = in.readString();
+        video.mp4_360 = in.readString();
+        video.mp4_480 = in.readString();
+        video.mp4_720 = in.readString();
+        video.mp4_1080 = in.readString();
+        video.external = in.readString();
+        return video;
+    }
+
+    private static void writeAudio(Writer out, VKAudio audio) {
+        out.writeLong(audio.id);
+        out.writeLong(audio.owner_id);
+        out.writeString(audio.artist);
+        out.writeString(audio.title);
+        out.writeLong(audio.duration);
+        out.writeString(audio.url);
+        out.writeLong(audio.lyrics_id);
+        out.writeLong(audio.album_id);
+        out.writeLong(audio.genre_id);
+        out.writeString(audio.access_key);
+    }
+
+    private static VKAudio readAudio(Reader in) {
+        VKAudio audio = new VKAudio();
+        audio.id = in.readLong();
+        audio.owner_id = in.readLong();
+        audio.artist = in.readString();
+        audio.title = in.readString();
+        audio.duration = in.readInt();
+        audio.url = in.readString();
+        audio.lyrics_id = in.readLong();
+        audio.album_id = in.readLong();
+        audio.genre_id = in.readLong();
+        audio.access_key = in.readString();
+        return audio;
+    }
+
+    private static void writeDoc(Writer out, VKDoc doc) {
+        out.writeLong(doc.id);
+        out.writeLong(doc.owner_id);
+        out.writeString(doc.title);
+        out.writeLong(doc.size);
+        out.writeString(doc.ext);
+        out.writeString(doc.url);
+        out.writeString(doc.photo_100);
+        out.writeString(doc.photo_130);
+        out.writeString(doc.access_key);
+        out.writeLong(doc.type);
+        writeList(out, doc.photo_sizes == null ? null : doc.photo_sizes.getSizes());
+    }
+
+    private static VKDoc readDoc(Reader in) {
+        VKDoc doc = new VKDoc();
+        doc.id = in.readLong();
+        doc.owner_id = in.readLong();
+        doc.title = in.readString();
+        doc.size = in.readLong();
+        doc.ext = in.readString();
+        doc.url = in.readString();
+        doc.photo_100 = in.readString();
+        doc.photo_130 = in.readString();
+        doc.access_key = in.readString();
+        doc.type = in.readInt();
+
+        ArrayList<VKPhotoSizes.PhotoSize> sizes = readTypedList(in);
+        if (!sizes.isEmpty()) {
+            doc.photo_sizes = new VKPhotoSizes(sizes);
+        }
+        return doc;
+    }
+
+    private static void writePhotoSize(Writer out, VKPhotoSizes.PhotoSize size) {
+        out.writeString(size.src);
+        out.writeLong(size.width);
+        out.writeLong(size.height);
+        out.writeLong(size.type);
+    }
+
+    private static VKPhotoSizes.PhotoSize readPhotoSize(Reader in) {
+        VKPhotoSizes.PhotoSize size = new VKPhotoSizes.PhotoSize();
+        size.src = in.readString();
+        size.width = in.readInt();
+        size.height = in.readInt();
+        size.type = (char) in.readInt();
+        return size;
+    }
+
+    private static void writeSticker(Writer out, VKSticker sticker) {
+        out.writeLong(sticker.id);
+        out.writeLong(sticker.product_id);
+        out.writeString(sticker.photo_64);
+        out.writeString(sticker.photo_128);
+        out.writeString(sticker.photo_256);
+        out.writeString(sticker.photo_352);
+        out.writeLong(sticker.width);
+        out.writeLong(sticker.height);
+    }
+
+    private static VKSticker readSticker(Reader in) {
+        VKSticker sticker = new VKSticker();
+        sticker.id = in.readInt();
+        sticker.product_id = in.readInt();
+        sticker.photo_64 = in.readString();
+        sticker.photo_128 = in.readString();
+        sticker.photo_256 = in.readString();
+        sticker.photo_352 = in.readString();
+        sticker.width = in.readInt();
+        sticker.height = in.readInt();
+        return sticker;
+    }
+
+    private static void writeLink(Writer out, VKLink link) {
+        out.writeString(link.url);
+        out.writeString(link.title);
+        out.writeString(link.caption);
+        out.writeString(link.description);
+        out.writeString(link.preview_page);
+        out.writeString(link.preview_url);
+
+        out.writeBoolean(link.photo != null);
+        if (link.photo != null) {
+            writeModel(out, link.photo);
+        }
+    }
+
+    private static VKLink readLink(Reader in) {
+        VKLink link = new VKLink();
+        link.url = in.readString();
+        link.title = in.readString();
+        link.caption = in.readString();
+        link.description = in.readString();
+        link.preview_page = in.readString();
+        link.preview_url = in.readString();
+
+        if (in.readBoolean()) {
+            VKModel photo = readModel(in);
+            if (photo instanceof VKPhoto) {
+                link.photo = (VKPhoto) photo;
+            }
+        }
+        return link;
+    }
+
+    private static void writeGift(Writer out, VKGift gift) {
+        out.writeLong(gift.from_id);
+        out.writeLong(gift.id);
+        out.writeString(gift.message);
+        out.writeLong(gift.date);
+        out.writeString(gift.thumb_48);
+        out.writeString(gift.thumb_96);
+        out.writeString(gift.thumb_256);
+    }
+
+    private static VKGift readGift(Reader in) {
+        VKGift gift = new VKGift();
+        gift.from_id = in.readInt();
+        gift.id = in.readLong();
+        gift.message = in.readString();
+        gift.date = in.readLong();
+        gift.thumb_48 = in.readString();
+        gift.thumb_96 = in.readString();
+        gift.thumb_256 = in.readString();
+        return gift;
+    }
+
+    private static void writeMessage(Writer out, VKMessage msg) {
+        out.writeLong(msg.id);
+        out.writeLong(msg.user_id);
+        out.writeLong(msg.date);
+        out.writeString(msg.title);
+        out.writeString(msg.body);
+        out.writeBoolean(msg.read_state);
+        out.writeBoolean(msg.is_out);
+        out.writeLong(msg.chat_id);
+        out.writeLong(msg.admin_id);
+        out.writeLong(msg.users_count);
+        out.writeBoolean(msg.is_deleted);
+        out.writeBoolean(msg.is_important);
+        out.writeBoolean(msg.emoji);
+        out.writeString(msg.photo_50);
+        out.writeString(msg.photo_100);
+        out.writeString(msg.photo_200);
+        out.writeLong(msg.unread);
+        out.writeString(msg.action);
+        out.writeString(msg.action_text);
+        out.writeLong(msg.action_mid);
+        out.writeLong(msg.flags);
+
+        int[] members = msg.chat_members;
+        out.writeVarInt(members == null ? 0 : members.length + 1);
+        if (members != null) {
+            for (int member : members) {
+                out.writeLong(member);
+            }
+        }
+
+        writeList(out, msg.fws_messages);
+        writeList(out, msg.attachments);
+    }
+
+    private static VKMessage readMessage(Reader in) {
+        VKMessage msg = new VKMessage();
+        msg.id = in.readInt();
+        msg.user_id = in.readInt();
+        msg.date = in.readLong();
+        msg.title = in.readString();
+        msg.body = in.readString();
+        msg.read_state = in.readBoolean();
+        msg.is_out = in.readBoolean();
+        msg.chat_id = in.readInt();
+        msg.admin_id = in.readLong();
+        msg.users_count = in.readInt();
+        msg.is_deleted = in.readBoolean();
+        msg.is_important = in.readBoolean();
+        msg.emoji = in.readBoolean();
+        msg.photo_50 = in.readString();
+        msg.photo_100 = in.readString();
+        msg.photo_200 = in.readString();
+        msg.unread = in.readInt();
+        msg.action = in.readString();
+        msg.action_text = in.readString();
+        msg.action_mid = in.readInt();
+        msg.flags = in.readInt();
+
+        int members = in.readVarInt();
+        if (members > 0) {
+            msg.chat_members = new int[members - 1];
+            for (int i = 0; i < members - 1; i++) {
+                msg.chat_members[i] = in.readInt();
+            }
+        }
+
+        ArrayList<VKMessage> messages = readTypedList(in);
+        msg.fws_messages = messages.isEmpty() ? null : messages;
+        ArrayList<VKModel> attachments = readList(in);
+        msg.attachments = attachments.isEmpty() ? null : attachments;
+        return msg;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayList<T> readTypedList(Reader in) {
+        return (ArrayList<T>) readList(in);
+    }
+
+    /**
+     * Growable byte buffer with varint encoding
+     */
+    private static final class Writer {
+        byte[] buffer;
+        int size;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void ensure(int count) {
+            if (size + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + count));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            // zigzag, so small negative numbers (e.g. owner_id of groups) stay short
+            long zigzag = (value << 1) ^ (value >> 63);
+
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[size++] = (byte) zigzag;
+        }
+
+        void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Reserves space for the length of record, which is written by {@link #endRecord(int)}
+         */
+        int beginRecord() {
+            writeVarInt(0);
+            return size;
+        }
+
+        void endRecord(int start) {
+            rewriteVarInt(start - 1, 0, size - start);
+        }
+
+        /**
+         * Replaces the varint at position, moves the following bytes if size changes
+         */
+        void rewriteVarInt(int position, int oldValue, int newValue) {
+            int oldSize = varIntSize(oldValue);
+            int newSize = varIntSize(newValue);
+            if (oldSize != newSize) {
+                ensure(newSize - oldSize);
+                System.arraycopy(buffer, position + oldSize, buffer, position + newSize,
+                        size - position - oldSize);
+                size += newSize - oldSize;
+            }
+
+            int value = newValue;
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position] = (byte) value;
+        }
+
+        static int varIntSize(int value) {
+            int count = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                count++;
+            }
+            return count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /**
+     * Reader of records, returns defaults for fields after the end of current record
+     */
+    private static final class Reader {
+        final byte[] buffer;
+        int position;
+        int limit;
+
+        Reader(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = buffer.length;
+        }
+
+        /**
+         * Sets the limit to the end of record and returns the previous limit
+         */
+        int beginRecord() {
+            int length = readVarInt();
+            int previous = limit;
+            limit = Math.min(previous, position + length);
+            return previous;
+        }
+
+        /**
+         * Skips unread fields of record and restores previous limit
+         */
+        void endRecord(int previous) {
+            position = limit;
+            limit = previous;
+        }
+
+        int readByte() {
+            return position < limit ? buffer[position++] & 0xFF : 0;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32 && position < limit; shift += 7) {
+                byte b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return value;
+        }
+
+        long readLong() {
+            long zigzag = 0;
+            for (int shift = 0; shift < 64 && position < limit; shift += 7) {
+                byte b = buffer[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        int readInt() {
+            return (int) readLong();
+        }
+
+        boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+
+            length = Math.min(length, limit - position);
+            String value = new String(buffer, position, length, Charsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -76,6 +76,28 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * Sorts the result by specified columns
+     *
+     * @param order the order clause, e.g. date DESC
+     */
+    public QueryBuilder orderBy(String order) {
+        this.buffer.append("ORDER BY ")
+                .append(order)
+                .append(" ");
+        return this;
+    }
+
+    /**
+     * Limits the number of rows
+     */
+    public QueryBuilder limit(int count) {
+        this.buffer.append("LIMIT ")
+                .append(count)
+                .append(" ");
+        return this;
+    }
+
     /**
      * A logic operator AND
      */
@@ -99,6 +121,15 @@ public class QueryBuilder {
         return db.rawQuery(toString(), null);
     }
 
+    /**
+     * Creates new cursor by this query with bound arguments
+     *
+     * @param args the values of '?' in the where clause
+     */
+    public Cursor asCursor(SQLiteDatabase db, String... args) {
+        return db.rawQuery(toString(), args);
+    }
+
     @Override
     public String toString() {
         return buffer.toString().trim();
@@ -0,0 +1,106 @@
+package ru.euphoria.messenger.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.ArrayMap;
+
+/**
+ * Cache of compiled {@link SQLiteStatement}s, keyed by SQL.
+ * <p/>
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} builds and
+ * compiles the same INSERT for every row, here it is compiled once
+ * per table and set of columns, then only arguments are bound.
+ * Statements are not thread-safe, so they are used under own lock.
+ */
+class StatementCache {
+    private static final ArrayMap<String, SQLiteStatement> statements = new ArrayMap<>();
+    private static SQLiteDatabase owner;
+
+    // only static methods
+    private StatementCache() {
+    }
+
+    /**
+     * Returns the compiled statement for sql, compiles it if needed.
+     * Statements of the closed database are released.
+     */
+    static synchronized SQLiteStatement get(SQLiteDatabase db, String sql) {
+        if (owner != db) {
+            clear();
+            owner = db;
+        }
+
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Inserts the row with compiled INSERT statement,
+     * the row with the same unique key is replaced
+     *
+     * @return the row ID of inserted row, or -1 if an error occurred
+     */
+    static long insert(SQLiteDatabase db, String table, ContentValues values) {
+        StringBuilder sql = new StringBuilder(64 + values.size() * 16);
+        sql.append("INSERT OR REPLACE INTO ").append(table).append(" (");
+
+        Object[] args = new Object[values.size()];
+        int index = 0;
+        for (String column : values.keySet()) {
+            if (index != 0) {
+                sql.append(',');
+            }
+            sql.append('[').append(column).append(']');
+            args[index++] = values.get(column);
+        }
+
+        sql.append(") VALUES (");
+        for (int i = 0; i < args.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')');
+
+        SQLiteStatement statement = get(db, sql.toString());
+        synchronized (statement) {
+            bind(statement, args);
+            return statement.executeInsert();
+        }
+    }
+
+    static synchronized void clear() {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.valueAt(i).close();
+        }
+        statements.clear();
+        owner = null;
+    }
+
+    private static void bind(SQLiteStatement statement, Object[] args) {
+        statement.clearBindings();
+        for (int i = 0; i < args.length; i++) {
+            Object value = args[i];
+            int index = i + 1;
+
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof String) {
+                statement.bindString(index, (String) value);
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,785 @@
+package ru.euphoria.messenger.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import ru.euphoria.messenger.io.Charsets;
+
+/**
+ * Reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
+ * encoded value as a stream of tokens. Unlike {@link JsonParser}, this reader
+ * never holds the whole document in memory: characters are pulled from the
+ * underlying {@link Reader} into a small buffer as they are needed, so a
+ * large API response can be consumed straight from the network stream.
+ * Example usage: <pre>
+ * JsonReader reader = new JsonReader(request.getStream());
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     String name = reader.nextName();
+ *     if ("items".equals(name)) {
+ *         reader.beginArray();
+ *         while (reader.hasNext()) {
+ *             users.add(new VKUser(reader.readObject()));
+ *         }
+ *         reader.endArray();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();</pre>
+ * <p>
+ * <p>Use {@link #readObject()} and {@link #readArray()} to materialize a
+ * single subtree (e.g. one item of a large array) into the usual
+ * {@link JsonObject} and {@link JsonArray} models.
+ * <p>
+ * <p>Each reader may be used to read a single JSON value. Instances of this
+ * class are not thread safe.
+ */
+public class JsonReader implements Closeable {
+    /** The initial nesting depth, grows when exceeded */
+    private static final int STACK_SIZE = 32;
+
+    /** The size of char buffer, 1K chars (2K bytes) */
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Reader in;
+
+    /**
+     * Use a manual buffer to easily read and unread upcoming characters,
+     * and also so we can create strings without an intermediate StringBuilder.
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /** Reused to accumulate number and keyword literals. */
+    private final StringBuilder literal = new StringBuilder(24);
+
+    private JsonScope[] stack = new JsonScope[STACK_SIZE];
+    private int stackSize;
+
+    /** The token returned by last {@link #peek()}, or null if not yet peeked */
+    private JsonToken peeked;
+
+    /**
+     * Creates a new reader that reads a JSON-encoded stream from {@code in}.
+     *
+     * @param in the source of characters
+     */
+    public JsonReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = in;
+        push(JsonScope.EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Creates a new reader that reads a UTF-8 encoded JSON stream from {@code in}.
+     *
+     * @param in the source of bytes, e.g. network stream
+     */
+    public JsonReader(InputStream in) {
+        this(new InputStreamReader(in, Charsets.UTF_8));
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new array.
+     */
+    public void beginArray() throws IOException, JsonException {
+        expect(JsonToken.BEGIN_ARRAY);
+        push(JsonScope.EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current array.
+     */
+    public void endArray() throws IOException, JsonException {
+        expect(JsonToken.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new object.
+     */
+    public void beginObject() throws IOException, JsonException {
+        expect(JsonToken.BEGIN_OBJECT);
+        push(JsonScope.EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current object.
+     */
+    public void endObject() throws IOException, JsonException {
+        expect(JsonToken.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException, JsonException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT
+                && token != JsonToken.END_ARRAY
+                && token != JsonToken.END_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public JsonToken peek() throws IOException, JsonException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    /**
+     * Returns the next token, a {@link JsonToken#NAME property name}, and
+     * consumes it.
+     *
+     * @throws JsonException if the next token is not a property name
+     */
+    public String nextName() throws IOException, JsonException {
+        expect(JsonToken.NAME);
+        return readString();
+    }
+
+    /**
+     * Returns the {@link JsonToken#STRING string} value of the next token,
+     * consuming it. If the next token is a number or boolean,
+     * this method returns its string form.
+     *
+     * @throws JsonException if the next token is not a string or literal
+     */
+    public String nextString() throws IOException, JsonException {
+        JsonToken token = peek();
+        if (token == JsonToken.STRING) {
+            peeked = null;
+            return readString();
+        }
+        if (token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+            peeked = null;
+            return readLiteral().toString();
+        }
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    /**
+     * Returns the {@link JsonToken#BOOLEAN boolean} value of the next token,
+     * consuming it. VK sends most flags as numbers,
+     * so any non-zero number is {@code true} too.
+     *
+     * @throws JsonException if the next token is not a boolean or number
+     */
+    public boolean nextBoolean() throws IOException, JsonException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) {
+            return nextLong() != 0;
+        }
+        if (token != JsonToken.BOOLEAN) {
+            throw syntaxError("Expected a boolean but was " + token);
+        }
+        peeked = null;
+
+        StringBuilder value = readLiteral();
+        if (contentEquals(value, "true")) {
+            return true;
+        } else if (contentEquals(value, "false")) {
+            return false;
+        }
+        throw syntaxError("Unexpected literal: " + value);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is a
+     * literal null.
+     */
+    public void nextNull() throws IOException, JsonException {
+        expect(JsonToken.NULL);
+
+        StringBuilder value = readLiteral();
+        if (!contentEquals(value, "null")) {
+            throw syntaxError("Unexpected literal: " + value);
+        }
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER double} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt
+     * to parse it as a double.
+     *
+     * @throws JsonException if the next token is not a number or string
+     */
+    public double nextDouble() throws IOException, JsonException {
+        String value = nextNumberString();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a double but was " + value);
+        }
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER long} value of the next token,
+     * consuming it. Integral literals are parsed without allocation.
+     *
+     * @throws JsonException if the next token is not a number or string
+     */
+    public long nextLong() throws IOException, JsonException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) {
+            peeked = null;
+
+            StringBuilder value = readLiteral();
+            if (isIntegral(value)) {
+                return parseLong(value);
+            }
+            return (long) parseDouble(value);
+        }
+
+        String value = nextNumberString();
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a long but was " + value);
+        }
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER int} value of the next token,
+     * consuming it.
+     *
+     * @throws JsonException if the next token is not a number or string
+     */
+    public int nextInt() throws IOException, JsonException {
+        return (int) nextLong();
+    }
+
+    /**
+     * Skips the next value recursively. If it is an object or array, all
+     * nested elements are skipped. This method is intended for use when
+     * the JSON token stream contains unrecognized or unhandled values.
+     */
+    public void skipValue() throws IOException, JsonException {
+        int depth = 0;
+        do {
+            JsonToken token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+
+                case NUMBER:
+                case BOOLEAN:
+                case NULL:
+                    peeked = null;
+                    readLiteral();
+                    break;
+
+                case END_DOCUMENT:
+                    throw syntaxError("End of input");
+            }
+        } while (depth != 0);
+    }
+
+    /**
+     * Reads the next value into a new {@link JsonObject}.
+     *
+     * @throws JsonException if the next value is not an object
+     */
+    public JsonObject readObject() throws IOException, JsonException {
+        beginObject();
+
+        JsonObject result = new JsonObject();
+        while (hasNext()) {
+            String name = nextName();
+            result.put(name, readValue());
+        }
+
+        endObject();
+        return result;
+    }
+
+    /**
+     * Reads the next value into a new {@link JsonArray}.
+     *
+     * @throws JsonException if the next value is not an array
+     */
+    public JsonArray readArray() throws IOException, JsonException {
+        beginArray();
+
+        JsonArray result = new JsonArray();
+        while (hasNext()) {
+            result.put(readValue());
+        }
+
+        endArray();
+        return result;
+    }
+
+    /**
+     * Reads the next value, with the same types that {@link JsonParser#nextValue()} returns.
+     *
+     * @return a {@link JsonObject}, {@link JsonArray}, String, Boolean,
+     * Integer, Long, Double or {@link JsonObject#NULL}.
+     */
+    public Object readValue() throws IOException, JsonException {
+        JsonToken token = peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject();
+
+            case BEGIN_ARRAY:
+                return readArray();
+
+            case STRING:
+                return nextString();
+
+            case BOOLEAN:
+                return nextBoolean();
+
+            case NULL:
+                nextNull();
+                return JsonObject.NULL;
+
+            case NUMBER:
+                peeked = null;
+                StringBuilder value = readLiteral();
+                if (isIntegral(value)) {
+                    long longValue = parseLong(value);
+                    if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                        return (int) longValue;
+                    }
+                    return longValue;
+                }
+                return parseDouble(value);
+
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    /**
+     * Closes this reader and the underlying {@link Reader}.
+     */
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stack[0] = JsonScope.CLOSED;
+        stackSize = 1;
+        in.close();
+    }
+
+    private void push(JsonScope scope) {
+        if (stackSize == stack.length) {
+            JsonScope[] newStack = new JsonScope[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private void expect(JsonToken expected) throws IOException, JsonException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Consumes the separators before the next token and returns its type.
+     * Structural characters and the opening quote of strings are consumed,
+     * literals are left in the buffer for the nextXxx() methods.
+     */
+    private JsonToken doPeek() throws IOException, JsonException {
+        JsonScope scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = JsonScope.NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return JsonToken.END_ARRAY;
+                } else if (c == -1) {
+                    // the buffer is reset on the end, nothing to rewind
+                    throw syntaxError("End of input");
+                }
+                pos--;
+                break;
+
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return JsonToken.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                break;
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                if (scope == JsonScope.NONEMPTY_OBJECT) {
+                    c = nextNonWhitespace();
+                    if (c == '}') {
+                        return JsonToken.END_OBJECT;
+                    } else if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                }
+
+                c = nextNonWhitespace();
+                if (c == '}' && scope == JsonScope.EMPTY_OBJECT) {
+                    return JsonToken.END_OBJECT;
+                } else if (c != '"') {
+                    throw syntaxError("Names must be strings");
+                }
+                stack[stackSize - 1] = JsonScope.DANGLING_NAME;
+                return JsonToken.NAME;
+
+            case DANGLING_NAME:
+                stack[stackSize - 1] = JsonScope.NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+                if (c != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = JsonScope.NONEMPTY_DOCUMENT;
+                // consume an optional byte order mark (BOM) if it exists
+                if (fill(1) && buffer[pos] == '\ufeff') {
+                    pos++;
+                }
+                break;
+
+            case NONEMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c == -1) {
+                    return JsonToken.END_DOCUMENT;
+                }
+                throw syntaxError("Expected end of document");
+
+            case CLOSED:
+                throw new IllegalStateException("JsonReader is closed");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case -1:
+                throw syntaxError("End of input");
+
+            case '{':
+                return JsonToken.BEGIN_OBJECT;
+
+            case '[':
+                return JsonToken.BEGIN_ARRAY;
+
+            case '"':
+                return JsonToken.STRING;
+
+            case 't':
+            case 'f':
+                pos--;
+                return JsonToken.BOOLEAN;
+
+            case 'n':
+                pos--;
+                return JsonToken.NULL;
+
+            default:
+                pos--;
+                return JsonToken.NUMBER;
+        }
+    }
+
+    /**
+     * Returns true once {@code limit - pos >= minimum}. If the data is
+     * exhausted before that many characters are available, this returns
+     * false.
+     */
+    private boolean fill(int minimum) throws IOException {
+        if (limit - pos >= minimum) {
+            return true;
+        }
+
+        // compact the unread characters to the start of buffer
+        limit -= pos;
+        if (limit != 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit);
+        }
+        pos = 0;
+
+        int read;
+        while ((read = in.read(buffer, limit, buffer.length - limit)) != -1) {
+            limit += read;
+            if (limit >= minimum) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+            switch (c) {
+                case '\t':
+                case ' ':
+                case '\n':
+                case '\r':
+                    continue;
+
+                default:
+                    return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the string up to but not including the closing quote,
+     * unescaping any character escape sequences encountered along the way.
+     * The opening quote should have already been read.
+     */
+    private String readString() throws IOException, JsonException {
+        StringBuilder builder = null;
+        while (true) {
+            int p = pos;
+            int start = p;
+            while (p < limit) {
+                char c = buffer[p++];
+                if (c == '"') {
+                    pos = p;
+                    if (builder == null) {
+                        return new String(buffer, start, p - start - 1);
+                    }
+                    builder.append(buffer, start, p - start - 1);
+                    return builder.toString();
+                }
+
+                if (c == '\\') {
+                    pos = p;
+                    if (builder == null) {
+                        builder = new StringBuilder(Math.max((p - start) * 2, 16));
+                    }
+                    builder.append(buffer, start, p - start - 1);
+                    builder.append(readEscapeCharacter());
+                    p = pos;
+                    start = p;
+                }
+            }
+
+            if (builder == null) {
+                builder = new StringBuilder(Math.max((p - start) * 2, 16));
+            }
+            builder.append(buffer, start, p - start);
+            pos = p;
+            if (!fill(1)) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private void skipString() throws IOException, JsonException {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscapeCharacter();
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Unescapes the character identified by the character or characters that
+     * immediately follow a backslash. The backslash '\' should have already
+     * been read. This supports both unicode escapes "u000A" and two-character
+     * escapes "\n".
+     */
+    private char readEscapeCharacter() throws IOException, JsonException {
+        if (pos == limit && !fill(1)) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+
+        char escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                if (!fill(4)) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                char result = 0;
+                for (int i = pos, end = pos + 4; i < end; i++) {
+                    int digit = JsonParser.dehexchar(buffer[i]);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid escape sequence: "
+                                + new String(buffer, pos, 4));
+                    }
+                    result = (char) ((result << 4) + digit);
+                }
+                pos += 4;
+                return result;
+
+            case 't':
+                return '\t';
+
+            case 'b':
+                return '\b';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 'f':
+                return '\f';
+
+            case '\'':
+            case '"':
+            case '\\':
+            default:
+                return escaped;
+        }
+    }
+
+    /**
+     * Reads a number or keyword literal into the shared {@link #literal} builder.
+     * The returned builder is only valid until the next read.
+     */
+    private StringBuilder readLiteral() throws IOException, JsonException {
+        literal.setLength(0);
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos];
+            switch (c) {
+                case '{':
+                case '}':
+                case '[':
+                case ']':
+                case ':':
+                case ',':
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    return checkLiteral();
+
+                default:
+                    literal.append(c);
+                    pos++;
+            }
+        }
+        return checkLiteral();
+    }
+
+    private StringBuilder checkLiteral() throws JsonException {
+        if (literal.length() == 0) {
+            throw syntaxError("Expected literal value");
+        }
+        return literal;
+    }
+
+    private String nextNumberString() throws IOException, JsonException {
+        JsonToken token = peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        return nextString();
+    }
+
+    private double parseDouble(StringBuilder value) throws JsonException {
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + value);
+        }
+    }
+
+    /**
+     * Returns true if the literal is an optional minus followed by
+     * at most 18 digits, so it always fits into a long.
+     */
+    private static boolean isIntegral(CharSequence value) {
+        int length = value.length();
+        int start = value.charAt(0) == '-' ? 1 : 0;
+        if (start == length || length - start > 18) {
+            return false;
+        }
+
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(CharSequence value) {
+        boolean negative = value.charAt(0) == '-';
+        long result = 0;
+        for (int i = negative ? 1 : 0; i < value.length(); i++) {
+            result = result * 10 + (value.charAt(i) - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private static boolean contentEquals(CharSequence value, String expected) {
+        if (value.length() != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (value.charAt(i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an exception containing the given message plus the current
+     * position in the buffer.
+     */
+    private JsonException syntaxError(String message) {
+        return new JsonException(message + this);
+    }
+
+    @Override
+    public String toString() {
+        return " at character " + pos + " of buffer";
+    }
+}
@@ -0,0 +1,218 @@
+package ru.euphoria.messenger.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.euphoria.messenger.io.Charsets;
+import ru.euphoria.messenger.io.EasyStreams;
+
+/**
+ * A size-bounded cache of byte arrays in files of a directory.
+ * <p/>
+ * Each entry is one gzipped file, named by SHA-1 of its key, with the key
+ * and the time of writing in the header. When the total size of files
+ * exceeds the max size, the least recently used files are deleted.
+ * Order of use survives restarts by the last modified time of files.
+ * Files are written to a temp file and renamed, so a crash does not
+ * leave a broken entry. All methods are synchronized.
+ */
+public class DiskCache {
+    private static final int MAGIC = 0x45444331; // EDC1
+
+    private final File dir;
+    private final long maxSize;
+
+    /** File names to sizes, in access order */
+    private LinkedHashMap<String, Long> files;
+    private long size;
+
+    /**
+     * A cached byte array and the time it was written
+     */
+    public static class Entry {
+        public final byte[] data;
+        /** The time of writing, in milliseconds since epoch */
+        public final long time;
+
+        Entry(byte[] data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+
+        /**
+         * Returns the age of this entry in milliseconds
+         */
+        public long getAge() {
+            return Math.max(0, System.currentTimeMillis() - time);
+        }
+    }
+
+    /**
+     * Creates a new cache, the directory is read on first use
+     *
+     * @param dir     the directory of files, created if needed
+     * @param maxSize the max total size of files in bytes
+     */
+    public DiskCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the entry of key, or null
+     */
+    public synchronized Entry get(String key) {
+        String name = fileName(key);
+        if (!index().containsKey(name)) {
+            return null;
+        }
+
+        File file = new File(dir, name);
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(EasyStreams.gzip(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || !key.equals(input.readUTF())) {
+                // old format or collision of names
+                return null;
+            }
+
+            long time = input.readLong();
+            byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+
+            files.get(name); // moves to the end of access order
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(data, time);
+        } catch (IOException e) {
+            // removed by cleaning of cache dir, or broken
+            delete(name);
+            return null;
+        } finally {
+            EasyStreams.close(input);
+        }
+    }
+
+    /**
+     * Writes the data of key, replaces the old entry
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        String name = fileName(key);
+        index();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+
+        File temp = new File(dir, name + ".tmp");
+        DataOutputStream output = new DataOutputStream(EasyStreams.gzip(new FileOutputStream(temp)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeUTF(key);
+            output.writeLong(System.currentTimeMillis());
+            output.writeInt(data.length);
+            output.write(data);
+        } finally {
+            EasyStreams.close(output);
+        }
+
+        delete(name);
+        File file = new File(dir, name);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp);
+        }
+
+        files.put(name, file.length());
+        size += file.length();
+        trimToSize();
+    }
+
+    public synchronized void remove(String key) {
+        index();
+        delete(fileName(key));
+    }
+
+    /**
+     * Returns the total size of files in bytes
+     */
+    public synchronized long size() {
+        index();
+        return size;
+    }
+
+    private LinkedHashMap<String, Long> index() {
+        if (files != null) {
+            return files;
+        }
+
+        files = new LinkedHashMap<>(64, 0.75f, true);
+        size = 0;
+
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return files;
+        }
+
+        Arrays.sort(list, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File file : list) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            files.put(file.getName(), file.length());
+            size += file.length();
+        }
+        trimToSize();
+        return files;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(dir, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void delete(String name) {
+        Long length = files.remove(name);
+        if (length != null) {
+            size -= length;
+        }
+        new File(dir, name).delete();
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ru.euphoria.messenger.net;
+
+import android.support.v4.util.ArrayMap;
+
+/**
+ * A reusable factory of {@link HttpRequest}s with shared settings.
+ * <p/>
+ * Connections are kept alive and reused by host: a request
+ * which response has been fully read and released by
+ * {@link HttpRequest#release()} returns its socket to the pool,
+ * so the next request to the same host skips TCP and TLS handshakes.
+ */
+public class HttpClient {
+    /** The default connect timeout, 15 seconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15_000;
+    /** The default read timeout, 30 seconds */
+    public static final int DEFAULT_READ_TIMEOUT = 30_000;
+    /** The default number of idle connections kept per host */
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+    private static HttpClient defaultClient;
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private boolean keepAlive = true;
+    private OnTimingListener timingListener;
+
+    /**
+     * Returns the client shared by all api requests
+     */
+    public static synchronized HttpClient getDefault() {
+        if (defaultClient == null) {
+            defaultClient = new HttpClient();
+            defaultClient.setMaxConnections(DEFAULT_MAX_CONNECTIONS);
+        }
+        return defaultClient;
+    }
+
+    /**
+     * Creates a new HTTP request with GET method
+     *
+     * @param url    the URL to remote
+     * @param params the name-value params, may be null
+     */
+    public HttpRequest get(String url, ArrayMap<String, String> params) {
+        return new HttpRequest(this, url, HttpRequest.GET, params);
+    }
+
+    /**
+     * Creates a new HTTP request with GET method
+     *
+     * @param url the URL to remote
+     */
+    public HttpRequest get(String url) {
+        return get(url, null);
+    }
+
+    /**
+     * Creates a new HTTP request with POST method,
+     * the params are sent as form-encoded body.
+     *
+     * @param url    the URL to remote
+     * @param params the name-value params, may be null
+     */
+    public HttpRequest post(String url, ArrayMap<String, String> params) {
+        return new HttpRequest(this, url, HttpRequest.POST, params);
+    }
+
+    /**
+     * Creates a new HTTP request with POST method
+     *
+     * @param url  the URL to remote
+     * @param body the already form-encoded body, e.g. a=1&b=2
+     */
+    public HttpRequest post(String url, String body) {
+        return new HttpRequest(this, url, body);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds to establish the connection
+     */
+    public HttpClient setConnectTimeout(int millis) {
+        this.connectTimeout = millis;
+        return this;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds to wait for the data.
+     * For long polling it should be greater than server wait time.
+     */
+    public HttpClient setReadTimeout(int millis) {
+        this.readTimeout = millis;
+        return this;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * If false, every request closes its socket on release
+     */
+    public HttpClient setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Sets the max number of idle connections kept per host.
+     * NOTE: the pool of {@link java.net.HttpURLConnection} is process-wide,
+     * so this value affects all clients.
+     */
+    public HttpClient setMaxConnections(int count) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(count));
+        return this;
+    }
+
+    public HttpClient setOnTimingListener(OnTimingListener listener) {
+        this.timingListener = listener;
+        return this;
+    }
+
+    void onRequestFinished(HttpRequest request) {
+        OnTimingListener listener = timingListener;
+        if (listener != null) {
+            listener.onTiming(request, request.getResponseTime(), request.getElapsedTime());
+        }
+    }
+
+    /**
+     * Listener of per-request timing, called from the request thread
+     */
+    public interface OnTimingListener {
+        /**
+         * @param request      the finished request
+         * @param responseTime milliseconds from the start to the response headers
+         * @param elapsedTime  milliseconds from the start to the release of the request
+         */
+        void onTiming(HttpRequest request, long responseTime, long elapsedTime);
+    }
+}
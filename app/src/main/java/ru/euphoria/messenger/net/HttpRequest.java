@@ -4,24 +4,38 @@ import android.support.v4.util.ArrayMap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.zip.GZIPInputStream;
 
+import ru.euphoria.messenger.io.Charsets;
 import ru.euphoria.messenger.io.EasyStreams;
 
 /**
  * A simple class to handle network requests. Support GET and POST.
+ * <p/>
+ * Requests are created by {@link HttpClient}, which owns timeouts
+ * and keep-alive settings. Call {@link #release()} after the stream
+ * has been consumed to return the connection to the pool.
  */
 public class HttpRequest {
     public static final String GET = "GET";
     public static final String POST = "POST";
 
+    private HttpClient client;
     private HttpURLConnection connection;
+    private InputStream input;
     private String url;
     private String method;
+    private String body;
     private ArrayMap<String, String> params;
+    private boolean failed;
+
+    private long startTime;
+    private long responseTime;
+    private long elapsedTime;
 
     /**
      * Creates a new HTTP HttpRequest with params
@@ -31,11 +45,23 @@ public class HttpRequest {
      * @param params the name-value params
      */
     public HttpRequest(String url, String method, ArrayMap<String, String> params) {
+        this(HttpClient.getDefault(), url, method, params);
+    }
+
+    HttpRequest(HttpClient client, String url, String method, ArrayMap<String, String> params) {
+        this.client = client;
         this.url = url;
         this.method = method;
         this.params = params;
     }
 
+    HttpRequest(HttpClient client, String url, String body) {
+        this.client = client;
+        this.url = url;
+        this.method = POST;
+        this.body = body;
+    }
+
     /**
      * Creates a new HTTP HttpRequest with GET method and specified url
      *
@@ -43,7 +69,7 @@ public class HttpRequest {
      * @param params the name-value params
      */
     public static HttpRequest get(String url, ArrayMap<String, String> params) {
-        return new HttpRequest(url, GET, params);
+        return HttpClient.getDefault().get(url, params);
     }
 
     /**
@@ -55,17 +81,27 @@ public class HttpRequest {
         return get(url, null);
     }
 
+    /**
+     * Creates a new HTTP HttpRequest with POST method and form-encoded body
+     *
+     * @param url  the URL to remote
+     * @param body the form-encoded body, e.g. a=1&b=2
+     */
+    public static HttpRequest post(String url, String body) {
+        return HttpClient.getDefault().post(url, body);
+    }
+
     /**
      * Reads all characters from specified {@link HttpURLConnection}.
      *
      * @throws IOException if an I/O error occurs reading from the stream
      */
     public String asString() throws IOException {
-        InputStream input = getStream();
-        String content = EasyStreams.read(input);
-
-        connection.disconnect();
-        return content;
+        try {
+            return EasyStreams.read(getStream());
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -74,11 +110,11 @@ public class HttpRequest {
      * @throws IOException if an I/O error occurs reading from the stream
      */
     public byte[] asBytes() throws IOException {
-        InputStream input = getStream();
-        byte[] content = EasyStreams.readBytes(input);
-
-        connection.disconnect();
-        return content;
+        try {
+            return EasyStreams.readBytes(getStream());
+        } finally {
+            release();
+        }
     }
 
 
@@ -90,10 +126,22 @@ public class HttpRequest {
      * @throws IOException if an I/O error occurs reading from the connection stream
      */
     public InputStream getStream() throws IOException {
-        if (connection == null) {
+        if (input != null) {
+            return input;
+        }
+
+        startTime = System.currentTimeMillis();
+        try {
             connection = createConnection();
+            if (!GET.equalsIgnoreCase(method)) {
+                writeBody();
+            }
+            input = connection.getInputStream();
+            responseTime = System.currentTimeMillis() - startTime;
+        } catch (IOException e) {
+            failed = true;
+            throw e;
         }
-        InputStream input = connection.getInputStream();
 
         String encoding = connection.getHeaderField("Content-Encoding");
         if (encoding != null && "gzip".equalsIgnoreCase(encoding)) {
@@ -102,6 +150,80 @@ public class HttpRequest {
         return input;
     }
 
+    /**
+     * Releases the connection opened by {@link #getStream()}.
+     * Call it after the stream has been consumed. A fully read
+     * response keeps the socket alive for the next request to the same host.
+     */
+    public void release() {
+        if (connection == null) {
+            return;
+        }
+
+        EasyStreams.close(input);
+        if (failed || !client.isKeepAlive()) {
+            connection.disconnect();
+        }
+        connection = null;
+        input = null;
+
+        elapsedTime = System.currentTimeMillis() - startTime;
+        client.onRequestFinished(this);
+    }
+
+    /**
+     * Closes the connection without returning it to the pool.
+     * Use {@link #release()} to keep connection alive.
+     */
+    public void disconnect() {
+        failed = true;
+        release();
+    }
+
+    /**
+     * Returns milliseconds from the start of request to the response headers
+     */
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * Returns milliseconds from the start of request to the {@link #release()}
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Writes the form-encoded body straight to the socket,
+     * without buffering of whole request.
+     */
+    private void writeBody() throws IOException {
+        String form = body;
+        if (form == null) {
+            form = params == null ? "" : getParams();
+        }
+
+        byte[] bytes = form.getBytes(Charsets.UTF_8);
+        connection.setFixedLengthStreamingMode(bytes.length);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+
+        OutputStream output = connection.getOutputStream();
+        try {
+            output.write(bytes);
+        } finally {
+            EasyStreams.close(output);
+        }
+    }
+
     private String getParams() throws UnsupportedEncodingException {
         StringBuilder buffer = new StringBuilder();
 
@@ -116,7 +238,7 @@ public class HttpRequest {
         return buffer.toString();
     }
 
-    private String getUrl() throws UnsupportedEncodingException {
+    private String getRequestUrl() throws UnsupportedEncodingException {
         if (params != null && "GET".equalsIgnoreCase(method)) {
             return url + "?" + getParams();
         }
@@ -124,14 +246,15 @@ public class HttpRequest {
     }
 
     private HttpURLConnection createConnection() throws IOException {
-        connection = (HttpURLConnection) new java.net.URL(getUrl()).openConnection();
-        connection.setReadTimeout(60_000);
-        connection.setConnectTimeout(60_000);
+        HttpURLConnection connection = (HttpURLConnection) new java.net.URL(getRequestUrl()).openConnection();
+        connection.setReadTimeout(client.getReadTimeout());
+        connection.setConnectTimeout(client.getConnectTimeout());
         connection.setUseCaches(true);
         connection.setDoInput(true);
         connection.setDoOutput(!GET.equalsIgnoreCase(method));
         connection.setRequestMethod(method);
         connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("Connection", client.isKeepAlive() ? "keep-alive" : "close");
 
         return connection;
     }
@@ -0,0 +1,210 @@
+package ru.euphoria.messenger.service;
+
+import java.io.IOException;
+
+import ru.euphoria.messenger.api.model.LongPollEvent;
+import ru.euphoria.messenger.json.JsonException;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.json.JsonToken;
+
+/**
+ * Streaming decoder of long poll responses.
+ * <p/>
+ * Reads the {@code updates} array straight from {@link JsonReader}
+ * into typed {@link LongPollEvent}s, without building a tree of
+ * {@link ru.euphoria.messenger.json.JsonArray}s. Each type of event
+ * has one record, which is refilled for every update of that type,
+ * so numeric events allocate nothing. Only strings of new messages
+ * are allocated.
+ * <p/>
+ * Instances of this class are not thread safe.
+ */
+public class LongPollDecoder {
+    /** The key of long poll server is expired, need to request a new one */
+    public static final int FAILED_KEY = 2;
+
+    /**
+     * Receives decoded events
+     */
+    public interface Handler {
+        /**
+         * Called for every decoded update, on the thread of decoder.
+         * The event is reused after return, so do not keep it.
+         */
+        void onEvent(LongPollEvent event);
+    }
+
+    private final LongPollEvent.Flags flags = new LongPollEvent.Flags();
+    private final LongPollEvent.NewMessage message = new LongPollEvent.NewMessage();
+    private final LongPollEvent.Read read = new LongPollEvent.Read();
+    private final LongPollEvent.Online online = new LongPollEvent.Online();
+    private final LongPollEvent.Typing typing = new LongPollEvent.Typing();
+    private final LongPollEvent.UnreadCount unread = new LongPollEvent.UnreadCount();
+
+    private long ts;
+    private int failed;
+
+    /**
+     * Decodes the response of long poll server and passes events to handler
+     *
+     * @return the number of decoded events
+     */
+    public int decode(JsonReader reader, Handler handler) throws IOException, JsonException {
+        ts = 0;
+        failed = 0;
+
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "ts":
+                    ts = reader.nextLong();
+                    break;
+
+                case "failed":
+                    failed = reader.nextInt();
+                    break;
+
+                case "updates":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        LongPollEvent event = readEvent(reader);
+                        if (event != null) {
+                            handler.onEvent(event);
+                            count++;
+                        }
+                    }
+                    reader.endArray();
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * Returns the new ts of server from the last response
+     */
+    public long getTs() {
+        return ts;
+    }
+
+    /**
+     * Returns the error code of the last response, 0 if succeeded
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    private LongPollEvent readEvent(JsonReader reader) throws IOException, JsonException {
+        reader.beginArray();
+
+        LongPollEvent event;
+        int type = reader.nextInt();
+        switch (type) {
+            case LongPollEvent.FLAGS_REPLACE:
+            case LongPollEvent.FLAGS_SET:
+            case LongPollEvent.FLAGS_CLEAR:
+                flags.message_id = nextInt(reader);
+                flags.flags = nextInt(reader);
+                flags.peer_id = nextInt(reader);
+                event = flags;
+                break;
+
+            case LongPollEvent.NEW_MESSAGE:
+                readMessage(reader);
+                event = message;
+                break;
+
+            case LongPollEvent.READ_IN:
+            case LongPollEvent.READ_OUT:
+                read.peer_id = nextInt(reader);
+                read.local_id = nextInt(reader);
+                event = read;
+                break;
+
+            case LongPollEvent.ONLINE:
+            case LongPollEvent.OFFLINE:
+                online.user_id = -nextInt(reader);
+                online.extra = nextInt(reader);
+                online.date = nextInt(reader);
+                event = online;
+                break;
+
+            case LongPollEvent.TYPING:
+                typing.user_id = nextInt(reader);
+                typing.chat_id = 0;
+                nextInt(reader); // flags, always 1
+                event = typing;
+                break;
+
+            case LongPollEvent.CHAT_TYPING:
+                typing.user_id = nextInt(reader);
+                typing.chat_id = nextInt(reader);
+                event = typing;
+                break;
+
+            case LongPollEvent.UNREAD_COUNT:
+                unread.count = nextInt(reader);
+                event = unread;
+                break;
+
+            default:
+                // not supported yet
+                event = null;
+        }
+
+        // skip values, added by newer versions of long poll
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+
+        if (event != null) {
+            event.type = type;
+        }
+        return event;
+    }
+
+    private void readMessage(JsonReader reader) throws IOException, JsonException {
+        message.message_id = nextInt(reader);
+        message.flags = nextInt(reader);
+        message.peer_id = nextInt(reader);
+        message.date = nextInt(reader);
+        message.title = nextString(reader);
+        message.body = nextString(reader);
+        message.from_id = 0;
+        message.has_attachments = false;
+
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("from".equals(name)) {
+                    message.from_id = reader.nextInt();
+                } else {
+                    if (name.startsWith("attach")) {
+                        message.has_attachments = true;
+                    }
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    /**
+     * Returns the next int of array, or 0 if there are no more values
+     */
+    private static int nextInt(JsonReader reader) throws IOException, JsonException {
+        return reader.hasNext() ? reader.nextInt() : 0;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException, JsonException {
+        return reader.hasNext() ? reader.nextString() : null;
+    }
+}
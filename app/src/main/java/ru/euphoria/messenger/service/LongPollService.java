@@ -6,14 +6,17 @@ import android.os.IBinder;
 import android.support.v4.util.ArrayMap;
 import android.util.Log;
 
-import org.greenrobot.eventbus.EventBus;
-
+import ru.euphoria.messenger.BuildConfig;
 import ru.euphoria.messenger.api.VKApi;
+import ru.euphoria.messenger.api.model.LongPollEvent;
 import ru.euphoria.messenger.api.model.VKLongPollServer;
 import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKUser;
 import ru.euphoria.messenger.concurrent.LowThread;
-import ru.euphoria.messenger.json.JsonArray;
-import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.database.MemoryCache;
+import ru.euphoria.messenger.io.EasyStreams;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.net.HttpClient;
 import ru.euphoria.messenger.net.HttpRequest;
 import ru.euphoria.messenger.util.AndroidUtils;
 
@@ -47,7 +50,14 @@ public class LongPollService extends Service {
         return null;
     }
 
-    private class MessageUpdater implements Runnable {
+    private class MessageUpdater implements Runnable, LongPollDecoder.Handler {
+        // the server holds request up to 25 seconds (wait param)
+        private final HttpClient client = new HttpClient()
+                .setReadTimeout(40_000);
+        private final LongPollDecoder decoder = new LongPollDecoder();
+        private final ArrayMap<String, String> params = new ArrayMap<>();
+        private final UpdatesCoalescer coalescer = new UpdatesCoalescer();
+
         @Override
         public void run() {
             VKLongPollServer server = null;
@@ -67,8 +77,15 @@ public class LongPollService extends Service {
                                 .execute(VKLongPollServer.class).get(0);
                     }
 
-                    JsonObject response = getResponse(server);
-                    if (response == null || response.has("failed")) {
+                    int count = poll(server);
+                    int failed = decoder.getFailed();
+                    if (failed != 0) {
+                        if (failed < LongPollDecoder.FAILED_KEY) {
+                            // events are lost, but the key is still valid
+                            server.ts = decoder.getTs();
+                            continue;
+                        }
+
                         // failed get response, try again
                         Log.w(TAG, "Failed get response from");
                         Thread.sleep(1_000);
@@ -76,14 +93,9 @@ public class LongPollService extends Service {
                         continue;
                     }
 
-                    long tsResponse = response.optLong("ts");
-                    JsonArray updates = response.getJsonArray("updates");
-                    Log.i(TAG, "updates: " + updates);
-
-                    server.ts = tsResponse;
-                    if (updates.length() != 0) {
-                        // success! parse updates
-                        process(updates);
+                    server.ts = decoder.getTs();
+                    if (BuildConfig.DEBUG) {
+                        Log.i(TAG, "updates: " + count);
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -98,52 +110,64 @@ public class LongPollService extends Service {
             }
         }
 
-        public JsonObject getResponse(VKLongPollServer server) throws Exception {
-            ArrayMap<String, String> params = new ArrayMap<>();
+        /**
+         * Waits for updates and decodes them straight from the stream
+         *
+         * @return the number of events
+         */
+        private int poll(VKLongPollServer server) throws Exception {
             params.put("act", "a_check");
             params.put("key", server.key);
             params.put("ts", String.valueOf(server.ts));
             params.put("wait", "25");
             params.put("mode", "2");
 
-            String buffer = HttpRequest.get("https://" + server.server, params).asString();
-            return new JsonObject(buffer);
-        }
-
-        private void messageEvent(JsonArray item) {
-            VKMessage message = VKMessage.parse(item);
-            EventBus.getDefault().postSticky(message);
-        }
-
-        private void messageClearFlags(int id, int mask) {
-            if (VKMessage.isUnread(mask)) {
-                EventBus.getDefault().post(id);
+            HttpRequest request = client.get("https://" + server.server, params);
+            JsonReader reader = null;
+            try {
+                reader = new JsonReader(request.getStream());
+                return decoder.decode(reader, this);
+            } finally {
+                EasyStreams.close(reader);
+                request.release();
+
+                // deliver updates of this response with one batch
+                coalescer.flush();
             }
         }
 
-        private void process(JsonArray updates) {
-            if (updates.length() == 0) {
-                return;
-            }
-
-            for (int i = 0; i < updates.length(); i++) {
-                JsonArray item = updates.optJsonArray(i);
-                int type = item.optInt(0);
-
-                switch (type) {
-                    case 3:
-                        int id = item.optInt(1);
-                        int mask = item.optInt(2);
-                        messageClearFlags(id, mask);
-                        break;
-
-                    case 4:
-                        messageEvent(item);
-                        break;
-
-                }
+        @Override
+        public void onEvent(LongPollEvent event) {
+            switch (event.type) {
+                case LongPollEvent.FLAGS_CLEAR:
+                    LongPollEvent.Flags flags = (LongPollEvent.Flags) event;
+                    if (VKMessage.isUnread(flags.flags)) {
+                        coalescer.addRead(flags.message_id);
+                    }
+                    break;
+
+                case LongPollEvent.NEW_MESSAGE:
+                    coalescer.addMessage(((LongPollEvent.NewMessage) event).toMessage());
+                    break;
+
+                case LongPollEvent.READ_IN:
+                case LongPollEvent.READ_OUT:
+                    // messages up to local id are read, dialog shows the last one
+                    coalescer.addRead(((LongPollEvent.Read) event).local_id);
+                    break;
+
+                case LongPollEvent.ONLINE:
+                case LongPollEvent.OFFLINE:
+                    LongPollEvent.Online online = (LongPollEvent.Online) event;
+                    VKUser user = MemoryCache.peekUser(online.user_id);
+                    if (user != null) {
+                        user.online = online.isOnline();
+                        if (!user.online) {
+                            user.last_seen = online.date;
+                        }
+                    }
+                    break;
             }
         }
-
     }
 }
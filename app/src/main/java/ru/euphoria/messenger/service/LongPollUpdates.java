@@ -0,0 +1,60 @@
+package ru.euphoria.messenger.service;
+
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.util.AndroidUtils;
+
+/**
+ * The batch of long poll updates, merged per peer.
+ * Posted to {@link org.greenrobot.eventbus.EventBus} by {@link LongPollService}
+ * at most once per pass of main looper, instead of an event for every update.
+ */
+public class LongPollUpdates {
+    /** New messages in order of arrival */
+    public final ArrayList<VKMessage> messages = new ArrayList<>();
+
+    /** The last new message of every peer, key is peer id */
+    public final SparseArray<VKMessage> lastMessages = new SparseArray<>();
+
+    /** The number of new incoming messages of every peer, key is peer id */
+    public final SparseIntArray incomingCounts = new SparseIntArray();
+
+    /** IDs of messages, which became read */
+    public final SparseBooleanArray readIds = new SparseBooleanArray();
+
+    /**
+     * Returns the peer id of message: user ID or 2000000000 + chat ID
+     */
+    public static int peerOf(VKMessage message) {
+        return (int) AndroidUtils.getPeerId(message.user_id, message.chat_id, 0);
+    }
+
+    /**
+     * Returns true if the message is the last new message of its peer in this batch
+     */
+    public boolean isLast(VKMessage message) {
+        return lastMessages.get(peerOf(message)) == message;
+    }
+
+    void addMessage(VKMessage message) {
+        int peer = peerOf(message);
+        messages.add(message);
+        lastMessages.put(peer, message);
+        if (!message.is_out) {
+            incomingCounts.put(peer, incomingCounts.get(peer) + 1);
+        }
+    }
+
+    void addRead(int id) {
+        readIds.put(id, true);
+    }
+
+    boolean isEmpty() {
+        return messages.isEmpty() && readIds.size() == 0;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.euphoria.messenger.service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.greenrobot.eventbus.EventBus;
+
+import ru.euphoria.messenger.api.model.VKMessage;
+
+/**
+ * Collects updates of long poll responses into {@link LongPollUpdates}
+ * and posts the batch on the main thread. Updates, which arrive
+ * before the main looper has delivered the previous flush, are merged
+ * into the same batch, so adapters sort and rebind once.
+ */
+class UpdatesCoalescer implements Runnable {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private LongPollUpdates pending = new LongPollUpdates();
+    private boolean scheduled;
+
+    synchronized void addMessage(VKMessage message) {
+        pending.addMessage(message);
+    }
+
+    synchronized void addRead(int id) {
+        pending.addRead(id);
+    }
+
+    /**
+     * Schedules delivery of collected updates, if any
+     */
+    synchronized void flush() {
+        if (scheduled || pending.isEmpty()) {
+            return;
+        }
+
+        scheduled = true;
+        handler.post(this);
+    }
+
+    @Override
+    public void run() {
+        LongPollUpdates updates;
+        synchronized (this) {
+            updates = pending;
+            pending = new LongPollUpdates();
+            scheduled = false;
+        }
+        EventBus.getDefault().post(updates);
+    }
+}
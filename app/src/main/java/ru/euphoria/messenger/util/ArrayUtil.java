@@ -410,4 +410,13 @@ public class ArrayUtil {
     public static boolean isEmpty(Collection collection) {
         return collection == null || collection.isEmpty();
     }
+
+    /**
+     * Returns the size of the specified collection, or 0 if it's null
+     *
+     * @param collection the collection to be examined
+     */
+    public static int size(Collection collection) {
+        return collection == null ? 0 : collection.size();
+    }
 }
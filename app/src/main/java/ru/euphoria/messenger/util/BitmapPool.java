@@ -0,0 +1,126 @@
+package ru.euphoria.messenger.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps, which are no longer displayed, bucketed by
+ * size and config.
+ * <p/>
+ * Transformations take their output from the pool and put intermediate
+ * bitmaps back, instead of {@link Bitmap#recycle()}, so the next
+ * transformation of the same size does not allocate. Bitmaps are kept
+ * up to {@link #MAX_BYTES}, the least recently used bucket is dropped first.
+ * <p/>
+ * A bitmap must not be used after it is put into the pool. Only bitmaps
+ * allocated by the transformation itself are put, the input of Picasso
+ * is recycled, Picasso checks it.
+ */
+public class BitmapPool {
+    /** The max size of pooled bitmaps in bytes */
+    public static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 32;
+
+    /** The max number of bitmaps of one size */
+    private static final int MAX_PER_BUCKET = 4;
+
+    private static final LinkedHashMap<Long, ArrayDeque<Bitmap>> buckets =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long bytes;
+
+    // only static methods
+    private BitmapPool() {
+    }
+
+    /**
+     * Returns a transparent mutable bitmap from the pool, or a new one
+     */
+    public static Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = null;
+        synchronized (buckets) {
+            ArrayDeque<Bitmap> bucket = buckets.get(key(width, height, config));
+            if (bucket != null) {
+                bitmap = bucket.poll();
+                if (bucket.isEmpty()) {
+                    buckets.remove(key(width, height, config));
+                }
+            }
+            if (bitmap != null) {
+                bytes -= sizeOf(bitmap);
+            }
+        }
+
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Puts the bitmap into the pool, or recycles it, if it's immutable
+     * or the pool is full
+     */
+    public static void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || sizeOf(bitmap) > MAX_BYTES / 4) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (buckets) {
+            Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>(MAX_PER_BUCKET);
+                buckets.put(key, bucket);
+            }
+            if (bucket.size() >= MAX_PER_BUCKET) {
+                bitmap.recycle();
+                return;
+            }
+
+            bucket.push(bitmap);
+            bytes += sizeOf(bitmap);
+            trimTo(MAX_BYTES);
+        }
+    }
+
+    /**
+     * Recycles all pooled bitmaps, e.g. on low memory
+     */
+    public static void clear() {
+        synchronized (buckets) {
+            trimTo(0);
+        }
+    }
+
+    private static void trimTo(long maxBytes) {
+        Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> iterator = buckets.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> bucket = iterator.next().getValue();
+            while (bytes > maxBytes && !bucket.isEmpty()) {
+                Bitmap bitmap = bucket.pollLast();
+                bytes -= sizeOf(bitmap);
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        return ((long) config.ordinal() << 40) | ((long) width << 20) | height;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
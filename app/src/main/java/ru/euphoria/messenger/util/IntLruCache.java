@@ -0,0 +1,399 @@
+package ru.euphoria.messenger.util;
+
+import java.util.Arrays;
+
+/**
+ * A bounded LRU cache with primitive int keys.
+ * <p/>
+ * Keys are stored in open-addressing table and entries are linked
+ * in access order by int indices, so lookups and updates do not allocate
+ * (no boxing of keys and no entry objects, unlike {@link java.util.LinkedHashMap}).
+ * <p/>
+ * Override {@link #create(int)} to load missing values. If it returns null,
+ * a negative entry is stored, so repeated lookups of unknown key
+ * do not call {@link #create(int)} again until the entry is evicted,
+ * replaced by {@link #put(int, Object)} or removed.
+ * <p/>
+ * All methods are synchronized on the cache,
+ * {@link #create(int)} is called without the lock.
+ *
+ * @param <V> the type of cached values
+ */
+public class IntLruCache<V> {
+    private static final Object NEGATIVE = new Object();
+    private static final int NONE = -1;
+
+    // open-addressing table of entry indices, NONE - empty slot
+    private int[] table;
+    private int mask;
+
+    // entries linked in access order, head is the most recently used
+    private int[] keys;
+    private Object[] values;
+    private int[] prev;
+    private int[] next;
+    private int head;
+    private int tail;
+    private int freeHead;
+
+    private int size;
+    private int maxSize;
+
+    private long hitCount;
+    private long negativeHitCount;
+    private long missCount;
+    private long createCount;
+    private long putCount;
+    private long evictionCount;
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxSize the max number of entries, including negative entries
+     */
+    public IntLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        allocate(maxSize);
+    }
+
+    /**
+     * Returns the value for key, or null if the value is not cached
+     * and {@link #create(int)} returned null for it.
+     * If a value was returned, it is moved to the head of the queue.
+     */
+    public V get(int key) {
+        synchronized (this) {
+            int index = indexOf(key);
+            if (index != NONE) {
+                moveToHead(index);
+
+                Object value = values[index];
+                if (value == NEGATIVE) {
+                    negativeHitCount++;
+                    return null;
+                }
+                hitCount++;
+                return cast(value);
+            }
+            missCount++;
+        }
+
+        V created = create(key);
+
+        synchronized (this) {
+            createCount++;
+
+            // the value may be put while create() was working
+            int index = indexOf(key);
+            if (index != NONE && values[index] != NEGATIVE) {
+                return cast(values[index]);
+            }
+            store(key, created == null ? NEGATIVE : created);
+        }
+        return created;
+    }
+
+    /**
+     * Returns the cached value for key, without calling of {@link #create(int)}
+     * and without updating of access order and stats
+     */
+    public synchronized V peek(int key) {
+        int index = indexOf(key);
+        return index == NONE || values[index] == NEGATIVE ? null : IntLruCache.<V>cast(values[index]);
+    }
+
+    /**
+     * Caches value for key, the value is moved to the head of the queue.
+     * Replaces negative entry of key, if any.
+     *
+     * @param key   the key of value
+     * @param value the value to cache, must not be null
+     */
+    public synchronized void put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        putCount++;
+        store(key, value);
+    }
+
+    /**
+     * Removes the entry for key, if it exists. Includes negative entries.
+     *
+     * @return the previous value, or null
+     */
+    public synchronized V remove(int key) {
+        int slot = slotOf(key);
+        if (slot == NONE) {
+            return null;
+        }
+
+        int index = table[slot];
+        Object value = values[index];
+        removeSlot(slot);
+        unlink(index);
+        release(index);
+        return value == NEGATIVE ? null : IntLruCache.<V>cast(value);
+    }
+
+    /**
+     * Returns true if the cache has an entry for key, even negative.
+     */
+    public synchronized boolean containsKey(int key) {
+        return indexOf(key) != NONE;
+    }
+
+    /**
+     * Removes all entries, stats are kept.
+     */
+    public synchronized void clear() {
+        allocate(maxSize);
+    }
+
+    /**
+     * Sets the max number of entries,
+     * the least recently used entries are evicted if needed.
+     */
+    public synchronized void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (maxSize == this.maxSize) {
+            return;
+        }
+
+        int count = Math.min(size, maxSize);
+        int[] oldKeys = new int[count];
+        Object[] oldValues = new Object[count];
+
+        // keep the most recently used entries, head first
+        int index = head;
+        for (int i = 0; i < count; i++) {
+            oldKeys[i] = keys[index];
+            oldValues[i] = values[index];
+            index = next[index];
+        }
+        evictionCount += size - count;
+
+        allocate(maxSize);
+        for (int i = count - 1; i >= 0; i--) {
+            store(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for key.
+     * Returns null by default, which stores a negative entry.
+     * <p/>
+     * NOTE: the method is called without synchronization,
+     * so other threads may access the cache at the same time.
+     */
+    protected V create(int key) {
+        return null;
+    }
+
+    /** Returns the number of entries in the cache, including negative entries */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    /** Returns the number of times {@link #get(int)} returned a cached value */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /** Returns the number of times {@link #get(int)} found a negative entry */
+    public synchronized long negativeHitCount() {
+        return negativeHitCount;
+    }
+
+    /** Returns the number of times {@link #get(int)} has not found an entry */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /** Returns the number of times {@link #create(int)} was called */
+    public synchronized long createCount() {
+        return createCount;
+    }
+
+    /** Returns the number of times {@link #put(int, Object)} was called */
+    public synchronized long putCount() {
+        return putCount;
+    }
+
+    /** Returns the number of entries that have been evicted */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = hitCount + negativeHitCount + missCount;
+        long hitPercent = accesses == 0 ? 0 : (100 * (hitCount + negativeHitCount) / accesses);
+        return "IntLruCache[size=" + size + ",maxSize=" + maxSize
+                + ",hits=" + hitCount + ",negativeHits=" + negativeHitCount
+                + ",misses=" + missCount + ",evictions=" + evictionCount
+                + ",hitRate=" + hitPercent + "%]";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    private static int hash(int key) {
+        // spreads sequential ids over the table
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int maxSize) {
+        this.maxSize = maxSize;
+        this.size = 0;
+
+        int capacity = Integer.highestOneBit(Math.max(maxSize * 2 - 1, 1)) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(table, NONE);
+
+        keys = new int[maxSize];
+        values = new Object[maxSize];
+        prev = new int[maxSize];
+        next = new int[maxSize];
+
+        // all entries are free, linked through next
+        for (int i = 0; i < maxSize; i++) {
+            next[i] = i + 1 < maxSize ? i + 1 : NONE;
+        }
+        freeHead = 0;
+        head = NONE;
+        tail = NONE;
+    }
+
+    private void store(int key, Object value) {
+        int index = indexOf(key);
+        if (index != NONE) {
+            values[index] = value;
+            moveToHead(index);
+            return;
+        }
+
+        if (size == maxSize) {
+            evict();
+        }
+
+        index = freeHead;
+        freeHead = next[index];
+
+        keys[index] = key;
+        values[index] = value;
+        linkHead(index);
+        size++;
+
+        int slot = hash(key) & mask;
+        while (table[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index;
+    }
+
+    private void evict() {
+        int index = tail;
+        removeSlot(slotOf(keys[index]));
+        unlink(index);
+        release(index);
+        evictionCount++;
+    }
+
+    private void release(int index) {
+        values[index] = null;
+        next[index] = freeHead;
+        freeHead = index;
+        size--;
+    }
+
+    private int indexOf(int key) {
+        int slot = slotOf(key);
+        return slot == NONE ? NONE : table[slot];
+    }
+
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        int index;
+        while ((index = table[slot]) != NONE) {
+            if (keys[index] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Clears the slot of linear probing table and shifts back
+     * following entries, so lookups never stop at a hole.
+     */
+    private void removeSlot(int slot) {
+        table[slot] = NONE;
+
+        int current = slot;
+        while (true) {
+            current = (current + 1) & mask;
+            int index = table[current];
+            if (index == NONE) {
+                return;
+            }
+
+            int ideal = hash(keys[index]) & mask;
+            boolean movable = slot <= current
+                    ? (ideal <= slot || ideal > current)
+                    : (ideal <= slot && ideal > current);
+            if (movable) {
+                table[slot] = index;
+                table[current] = NONE;
+                slot = current;
+            }
+        }
+    }
+
+    private void moveToHead(int index) {
+        if (index != head) {
+            unlink(index);
+            linkHead(index);
+        }
+    }
+
+    private void linkHead(int index) {
+        prev[index] = NONE;
+        next[index] = head;
+        if (head != NONE) {
+            prev[head] = index;
+        }
+        head = index;
+        if (tail == NONE) {
+            tail = index;
+        }
+    }
+
+    private void unlink(int index) {
+        int p = prev[index];
+        int n = next[index];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package ru.euphoria.messenger.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Computes updates, which turn an old list into a new list, by Myers
+ * difference algorithm on ids of items.
+ * <p/>
+ * Items of the longest common subsequence stay in place, the other items
+ * of the old list are removed, or moved if the new list has an item with
+ * the same id, and the rest of the new list is inserted. Items, which
+ * are in both lists, are compared by contents to dispatch changes.
+ * <p/>
+ * The diff is found in linear space by divide and conquer on middle
+ * snakes, in O((N + M) * D) time, where D is the number of edits.
+ * Common prefix and suffix of each range are matched before, so a change
+ * at the top or at the bottom of a long list is cheap.
+ * <p/>
+ * This class has no Android dependencies, {@link #calculate(Callback)}
+ * may be called on any thread.
+ */
+public class ListDiff {
+    private static final int REMOVE = 0;
+    private static final int MOVE = 1;
+    private static final int INSERT = 2;
+    private static final int CHANGE = 3;
+
+    /** The lists to diff */
+    public interface Callback {
+        int getOldSize();
+
+        int getNewSize();
+
+        /** Returns the id of old item, equal ids mean the same item */
+        long getOldId(int oldPosition);
+
+        long getNewId(int newPosition);
+
+        /** Called for items with equal ids, returns false to dispatch a change */
+        boolean areContentsTheSame(int oldPosition, int newPosition);
+    }
+
+    /** Receives updates, e.g. notifications of RecyclerView.Adapter */
+    public interface UpdateCallback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position, int count);
+    }
+
+    // only static methods
+    private ListDiff() {
+    }
+
+    /**
+     * Computes updates from the old list to the new list
+     */
+    public static Result calculate(Callback callback) {
+        int oldSize = callback.getOldSize();
+        int newSize = callback.getNewSize();
+
+        long[] oldIds = new long[oldSize];
+        for (int i = 0; i < oldSize; i++) {
+            oldIds[i] = callback.getOldId(i);
+        }
+        long[] newIds = new long[newSize];
+        for (int i = 0; i < newSize; i++) {
+            newIds[i] = callback.getNewId(i);
+        }
+
+        int[] oldToNew = new int[oldSize];
+        int[] newToOld = new int[newSize];
+        Arrays.fill(oldToNew, -1);
+        Arrays.fill(newToOld, -1);
+
+        match(oldIds, newIds, 0, oldSize, 0, newSize, oldToNew, newToOld);
+        boolean[] moved = matchMoves(oldIds, newIds, oldToNew, newToOld);
+
+        boolean[] changed = new boolean[newSize];
+        for (int i = 0; i < newSize; i++) {
+            if (newToOld[i] >= 0) {
+                changed[i] = !callback.areContentsTheSame(newToOld[i], i);
+            }
+        }
+        return new Result(script(oldToNew, newToOld, moved, changed));
+    }
+
+    /** Updates of the diff, which can be dispatched on another thread */
+    public static class Result {
+        private final int[] ops;
+
+        private Result(int[] ops) {
+            this.ops = ops;
+        }
+
+        /**
+         * Returns true if the lists have the same items with the same contents
+         */
+        public boolean isEmpty() {
+            return ops.length == 0;
+        }
+
+        /**
+         * Dispatches updates in order, positions refer to the list
+         * after the previous updates
+         */
+        public void dispatchTo(UpdateCallback callback) {
+            for (int i = 0; i < ops.length; i += 3) {
+                switch (ops[i]) {
+                    case REMOVE:
+                        callback.onRemoved(ops[i + 1], ops[i + 2]);
+                        break;
+                    case MOVE:
+                        callback.onMoved(ops[i + 1], ops[i + 2]);
+                        break;
+                    case INSERT:
+                        callback.onInserted(ops[i + 1], ops[i + 2]);
+                        break;
+                    case CHANGE:
+                        callback.onChanged(ops[i + 1], ops[i + 2]);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches the longest common subsequence of ranges
+     */
+    private static void match(long[] oldIds, long[] newIds, int oldStart, int oldEnd, int newStart, int newEnd,
+                              int[] oldToNew, int[] newToOld) {
+        int max = (oldEnd - oldStart + newEnd - newStart + 1) / 2;
+        int[] forward = new int[max * 2 + 3];
+        int[] backward = new int[max * 2 + 3];
+        int[] snake = new int[4];
+
+        ArrayDeque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{oldStart, oldEnd, newStart, newEnd});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            // with common ends matched, the range has at least 2 edits,
+            // so its halves are smaller than the range
+            while (range[0] < range[1] && range[2] < range[3] && oldIds[range[0]] == newIds[range[2]]) {
+                oldToNew[range[0]] = range[2];
+                newToOld[range[2]] = range[0];
+                range[0]++;
+                range[2]++;
+            }
+            while (range[0] < range[1] && range[2] < range[3] && oldIds[range[1] - 1] == newIds[range[3] - 1]) {
+                range[1]--;
+                range[3]--;
+                oldToNew[range[1]] = range[3];
+                newToOld[range[3]] = range[1];
+            }
+            if (range[0] == range[1] || range[2] == range[3]) {
+                continue;
+            }
+            if (!middleSnake(oldIds, newIds, range[0], range[1], range[2], range[3], forward, backward, snake)) {
+                continue;
+            }
+
+            for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+                oldToNew[x] = y;
+                newToOld[y] = x;
+            }
+            ranges.push(new int[]{range[0], snake[0], range[2], snake[1]});
+            ranges.push(new int[]{snake[2], range[1], snake[3], range[3]});
+        }
+    }
+
+    /**
+     * Finds the middle snake of the shortest edit path of ranges,
+     * see "An O(ND) Difference Algorithm and Its Variations", E. Myers.
+     *
+     * @param snake receives the start and the end of the diagonal,
+     *              as old and new positions: x0, y0, x1, y1
+     * @return false if not found, the ranges have nothing common
+     */
+    private static boolean middleSnake(long[] oldIds, long[] newIds, int oldStart, int oldEnd,
+                                       int newStart, int newEnd, int[] forward, int[] backward, int[] snake) {
+        int n = oldEnd - oldStart;
+        int m = newEnd - newStart;
+        int max = (n + m + 1) / 2;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        // diagonal k is at index k + offset
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && oldIds[oldStart + x] == newIds[newStart + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+
+                int reverse = delta - k;
+                if (odd && reverse >= -(d - 1) && reverse <= d - 1
+                        && x + backward[offset + reverse] >= n) {
+                    snake[0] = oldStart + startX;
+                    snake[1] = newStart + startY;
+                    snake[2] = oldStart + x;
+                    snake[3] = newStart + y;
+                    return true;
+                }
+            }
+
+            // the same in reversed lists
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && oldIds[oldEnd - 1 - x] == newIds[newEnd - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+
+                int reverse = delta - k;
+                if (!odd && reverse >= -d && reverse <= d
+                        && x + forward[offset + reverse] >= n) {
+                    snake[0] = oldEnd - x;
+                    snake[1] = newEnd - y;
+                    snake[2] = oldEnd - startX;
+                    snake[3] = newEnd - startY;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pairs unmatched old and new items with equal ids, in order
+     *
+     * @return the flags of new items, which are moved
+     */
+    private static boolean[] matchMoves(long[] oldIds, long[] newIds, int[] oldToNew, int[] newToOld) {
+        boolean[] moved = new boolean[newIds.length];
+        HashMap<Long, ArrayDeque<Integer>> inserted = new HashMap<>();
+        for (int i = 0; i < newIds.length; i++) {
+            if (newToOld[i] < 0) {
+                ArrayDeque<Integer> positions = inserted.get(newIds[i]);
+                if (positions == null) {
+                    positions = new ArrayDeque<>(1);
+                    inserted.put(newIds[i], positions);
+                }
+                positions.add(i);
+            }
+        }
+        if (inserted.isEmpty()) {
+            return moved;
+        }
+
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldToNew[i] >= 0) {
+                continue;
+            }
+            ArrayDeque<Integer> positions = inserted.get(oldIds[i]);
+            if (positions != null && !positions.isEmpty()) {
+                int position = positions.poll();
+                oldToNew[i] = position;
+                newToOld[position] = i;
+                moved[position] = true;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Returns updates as triples of type and two arguments: removals from
+     * the end, moves of items after their new predecessor, insertions
+     * and changes from the start
+     */
+    private static int[] script(int[] oldToNew, int[] newToOld, boolean[] moved, boolean[] changed) {
+        Ops ops = new Ops();
+
+        // the current list, as new positions of items
+        int[] current = new int[oldToNew.length];
+        int size = 0;
+        for (int i = 0; i < oldToNew.length; i++) {
+            if (oldToNew[i] >= 0) {
+                current[size++] = oldToNew[i];
+            }
+        }
+        for (int i = oldToNew.length - 1; i >= 0; i--) {
+            if (oldToNew[i] < 0) {
+                int end = i;
+                while (i > 0 && oldToNew[i - 1] < 0) {
+                    i--;
+                }
+                ops.add(REMOVE, i, end - i + 1);
+            }
+        }
+
+        int predecessor = -1;
+        for (int i = 0; i < newToOld.length; i++) {
+            if (newToOld[i] < 0) {
+                continue;
+            }
+            if (moved[i]) {
+                int from = indexOf(current, size, i);
+                System.arraycopy(current, from + 1, current, from, size - from - 1);
+                int to = predecessor < 0 ? 0 : indexOf(current, size - 1, predecessor) + 1;
+                System.arraycopy(current, to, current, to + 1, size - to - 1);
+                current[to] = i;
+                if (from != to) {
+                    ops.add(MOVE, from, to);
+                }
+            }
+            predecessor = i;
+        }
+
+        addRuns(ops, INSERT, newToOld, null);
+        addRuns(ops, CHANGE, newToOld, changed);
+        return ops.toArray();
+    }
+
+    /**
+     * Adds runs of new items, which are inserted, or changed if flags are given
+     */
+    private static void addRuns(Ops ops, int type, int[] newToOld, boolean[] changed) {
+        for (int i = 0; i < newToOld.length; i++) {
+            if (changed == null ? newToOld[i] < 0 : changed[i]) {
+                int start = i;
+                while (i + 1 < newToOld.length
+                        && (changed == null ? newToOld[i + 1] < 0 : changed[i + 1])) {
+                    i++;
+                }
+                ops.add(type, start, i - start + 1);
+            }
+        }
+    }
+
+    private static int indexOf(int[] array, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Ops {
+        private int[] values = new int[24];
+        private int size;
+
+        void add(int type, int first, int second) {
+            if (size + 3 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = type;
+            values[size++] = first;
+            values[size++] = second;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
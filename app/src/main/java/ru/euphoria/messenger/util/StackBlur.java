@@ -0,0 +1,614 @@
+package ru.euphoria.messenger.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stack blur of ARGB pixels, by Mario Klingemann. Alpha is preserved.
+ * <p/>
+ * The horizontal pass blurs bands of rows into a scratch buffer, the vertical
+ * pass blurs bands of columns back into the pixels. Bands run on the calling
+ * thread and on the given executor, e.g. the cpu pool. The vertical pass walks
+ * a tile of {@link #TILE} adjacent columns at once, so it reads whole cache
+ * lines instead of one pixel per row. Channels are divided by multiplication,
+ * without the table of 256 * divsum entries, and scratch buffers are reused,
+ * see {@link #obtain(int)}.
+ * <p/>
+ * The result is the same as of {@link #blurReference(int[], int, int, int)},
+ * the single-threaded implementation, which is kept to check it. This class
+ * works with plain int arrays and does not depend on Android or app pools,
+ * so both can be run and benchmarked on the JVM.
+ */
+public class StackBlur {
+    /** The max radius of the fast path, multiplication is exact up to it */
+    public static final int MAX_RADIUS = 200;
+
+    /** The number of columns of the vertical pass, which are blurred together */
+    private static final int TILE = 16;
+    /** Smaller images are blurred on the calling thread only */
+    private static final int MIN_PARALLEL_PIXELS = 256 * 256;
+    /** The min number of rows or columns of a band */
+    private static final int MIN_BAND_SIZE = 64;
+    /** The bits of fixed-point reciprocal of divsum */
+    private static final int DIV_SHIFT = 39;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /** Buffers of the pool, larger ones are not kept */
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+    private static final int[][] pool = new int[3][];
+
+    // only static methods
+    private StackBlur() {
+    }
+
+    /**
+     * Blurs the pixels in place on the calling thread
+     *
+     * @param pixels the ARGB pixels, row by row, at least width * height
+     * @param radius the blur radius, 0 does nothing
+     */
+    public static void blur(int[] pixels, int width, int height, int radius) {
+        blur(pixels, width, height, radius, 1, null);
+    }
+
+    /**
+     * Blurs the pixels in place, in parallel for large images
+     *
+     * @param executor the executor to run bands, e.g. of the cpu pool
+     */
+    public static void blur(int[] pixels, int width, int height, int radius, Executor executor) {
+        int bands = 1;
+        if (width * height >= MIN_PARALLEL_PIXELS) {
+            bands = Math.max(1, Math.min(CPU_COUNT, Math.min(width, height) / MIN_BAND_SIZE));
+        }
+        blur(pixels, width, height, radius, bands, executor);
+    }
+
+    /**
+     * Blurs the pixels in place
+     *
+     * @param bands    the number of bands of rows and columns,
+     *                 1 to blur on the calling thread only
+     * @param executor the executor to run bands, may be null if bands is 1
+     */
+    public static void blur(final int[] pixels, final int width, final int height,
+                            final int radius, int bands, final Executor executor) {
+        if (radius <= 0 || width == 0 || height == 0) {
+            return;
+        }
+        if (radius > MAX_RADIUS) {
+            blurReference(pixels, width, height, radius);
+            return;
+        }
+
+        final int[] buffer = obtain(width * height);
+        try {
+            final int rowBands = Math.max(1, Math.min(bands, height));
+            final int columnBands = Math.max(1, Math.min(bands, (width + TILE - 1) / TILE));
+
+            parallel(executor, rowBands, new Band() {
+                @Override
+                public void run(int band) {
+                    blurRows(pixels, buffer, width, height, radius,
+                            height * band / rowBands, height * (band + 1) / rowBands);
+                }
+            });
+
+            // bands of columns are aligned to tiles
+            final int tiles = (width + TILE - 1) / TILE;
+            parallel(executor, columnBands, new Band() {
+                @Override
+                public void run(int band) {
+                    blurColumns(buffer, pixels, width, height, radius,
+                            Math.min(width, tiles * band / columnBands * TILE),
+                            Math.min(width, tiles * (band + 1) / columnBands * TILE));
+                }
+            });
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Returns an array of at least size ints from the pool, or a new one.
+     * Contents of the array are undefined.
+     */
+    public static int[] obtain(int size) {
+        synchronized (pool) {
+            int best = -1;
+            for (int i = 0; i < pool.length; i++) {
+                int[] buffer = pool[i];
+                if (buffer != null && buffer.length >= size
+                        && (best < 0 || buffer.length < pool[best].length)) {
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                int[] buffer = pool[best];
+                pool[best] = null;
+                return buffer;
+            }
+        }
+        return new int[size];
+    }
+
+    /**
+     * Returns the array to the pool, the smallest pooled array is replaced
+     */
+    public static void release(int[] buffer) {
+        if (buffer.length > MAX_POOLED_SIZE) {
+            return;
+        }
+
+        synchronized (pool) {
+            int smallest = 0;
+            for (int i = 0; i < pool.length; i++) {
+                if (pool[i] == null) {
+                    pool[i] = buffer;
+                    return;
+                }
+                if (pool[i].length < pool[smallest].length) {
+                    smallest = i;
+                }
+            }
+            if (pool[smallest].length < buffer.length) {
+                pool[smallest] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Blurs rows [start, end) of pixels into the buffer, as packed RGB
+     */
+    private static void blurRows(int[] pixels, int[] buffer, int w, int h, int radius, int start, int end) {
+        int wm = w - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        long mul = reciprocal(radius);
+
+        int[] stack = new int[div];
+        for (int y = start; y < end; y++) {
+            int rinsum = 0, ginsum = 0, binsum = 0;
+            int routsum = 0, goutsum = 0, boutsum = 0;
+            int rsum = 0, gsum = 0, bsum = 0;
+
+            int yw = y * w;
+            for (int i = -radius; i <= radius; i++) {
+                int p = pixels[yw + Math.min(wm, Math.max(i, 0))];
+                stack[i + radius] = p;
+
+                int r = (p & 0xff0000) >> 16;
+                int g = (p & 0x00ff00) >> 8;
+                int b = (p & 0x0000ff);
+                int rbs = r1 - Math.abs(i);
+                rsum += r * rbs;
+                gsum += g * rbs;
+                bsum += b * rbs;
+                if (i > 0) {
+                    rinsum += r;
+                    ginsum += g;
+                    binsum += b;
+                } else {
+                    routsum += r;
+                    goutsum += g;
+                    boutsum += b;
+                }
+            }
+
+            int sp = radius;
+            for (int x = 0; x < w; x++) {
+                buffer[yw + x] = (divide(rsum, mul) << 16) | (divide(gsum, mul) << 8) | divide(bsum, mul);
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                int start1 = sp + r1;
+                if (start1 >= div) {
+                    start1 -= div;
+                }
+                int p = stack[start1];
+                routsum -= (p & 0xff0000) >> 16;
+                goutsum -= (p & 0x00ff00) >> 8;
+                boutsum -= (p & 0x0000ff);
+
+                p = pixels[yw + Math.min(x + r1, wm)];
+                stack[start1] = p;
+                rinsum += (p & 0xff0000) >> 16;
+                ginsum += (p & 0x00ff00) >> 8;
+                binsum += (p & 0x0000ff);
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                sp = sp + 1 == div ? 0 : sp + 1;
+                p = stack[sp];
+                int r = (p & 0xff0000) >> 16;
+                int g = (p & 0x00ff00) >> 8;
+                int b = (p & 0x0000ff);
+                routsum += r;
+                goutsum += g;
+                boutsum += b;
+                rinsum -= r;
+                ginsum -= g;
+                binsum -= b;
+            }
+        }
+    }
+
+    /**
+     * Blurs columns [start, end) of the buffer into pixels, keeps alpha of pixels.
+     * Columns of a tile share the position in their stacks.
+     */
+    private static void blurColumns(int[] buffer, int[] pixels, int w, int h, int radius, int start, int end) {
+        int hm = h - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        long mul = reciprocal(radius);
+
+        int[] stack = new int[div * TILE];
+        int[] sums = new int[TILE * 9];
+
+        for (int tx = start; tx < end; tx += TILE) {
+            int n = Math.min(TILE, end - tx);
+            Arrays.fill(sums, 0);
+
+            int yp = -radius * w;
+            for (int i = -radius; i <= radius; i++) {
+                int row = Math.max(0, yp) + tx;
+                int rbs = r1 - Math.abs(i);
+                int base = (i + radius) * TILE;
+                for (int c = 0; c < n; c++) {
+                    int p = buffer[row + c];
+                    stack[base + c] = p;
+
+                    int r = (p & 0xff0000) >> 16;
+                    int g = (p & 0x00ff00) >> 8;
+                    int b = (p & 0x0000ff);
+                    int s = c * 9;
+                    sums[s] += r * rbs;
+                    sums[s + 1] += g * rbs;
+                    sums[s + 2] += b * rbs;
+                    if (i > 0) {
+                        sums[s + 3] += r;
+                        sums[s + 4] += g;
+                        sums[s + 5] += b;
+                    } else {
+                        sums[s + 6] += r;
+                        sums[s + 7] += g;
+                        sums[s + 8] += b;
+                    }
+                }
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+
+            int sp = radius;
+            int yi = tx;
+            for (int y = 0; y < h; y++) {
+                int out = sp + r1;
+                if (out >= div) {
+                    out -= div;
+                }
+                int next = sp + 1 == div ? 0 : sp + 1;
+                int row = Math.min(y + r1, hm) * w + tx;
+                out *= TILE;
+                int nextBase = next * TILE;
+
+                for (int c = 0; c < n; c++) {
+                    int s = c * 9;
+                    int rsum = sums[s], gsum = sums[s + 1], bsum = sums[s + 2];
+                    int rinsum = sums[s + 3], ginsum = sums[s + 4], binsum = sums[s + 5];
+                    int routsum = sums[s + 6], goutsum = sums[s + 7], boutsum = sums[s + 8];
+
+                    pixels[yi + c] = (0xff000000 & pixels[yi + c])
+                            | (divide(rsum, mul) << 16) | (divide(gsum, mul) << 8) | divide(bsum, mul);
+
+                    rsum -= routsum;
+                    gsum -= goutsum;
+                    bsum -= boutsum;
+
+                    int p = stack[out + c];
+                    routsum -= (p & 0xff0000) >> 16;
+                    goutsum -= (p & 0x00ff00) >> 8;
+                    boutsum -= (p & 0x0000ff);
+
+                    p = buffer[row + c];
+                    stack[out + c] = p;
+                    rinsum += (p & 0xff0000) >> 16;
+                    ginsum += (p & 0x00ff00) >> 8;
+                    binsum += (p & 0x0000ff);
+
+                    rsum += rinsum;
+                    gsum += ginsum;
+                    bsum += binsum;
+
+                    p = stack[nextBase + c];
+                    int r = (p & 0xff0000) >> 16;
+                    int g = (p & 0x00ff00) >> 8;
+                    int b = (p & 0x0000ff);
+
+                    sums[s] = rsum;
+                    sums[s + 1] = gsum;
+                    sums[s + 2] = bsum;
+                    sums[s + 3] = rinsum - r;
+                    sums[s + 4] = ginsum - g;
+                    sums[s + 5] = binsum - b;
+                    sums[s + 6] = routsum + r;
+                    sums[s + 7] = goutsum + g;
+                    sums[s + 8] = boutsum + b;
+                }
+                sp = next;
+                yi += w;
+            }
+        }
+    }
+
+    /**
+     * Returns 2^39 / divsum rounded up, sum * reciprocal >> 39 is sum / divsum
+     * for all sums up to 255 * divsum, while radius <= {@link #MAX_RADIUS}
+     */
+    private static long reciprocal(int radius) {
+        long divsum = (long) (radius + 1) * (radius + 1);
+        return ((1L << DIV_SHIFT) + divsum - 1) / divsum;
+    }
+
+    private static int divide(int sum, long reciprocal) {
+        return (int) ((sum * reciprocal) >>> DIV_SHIFT);
+    }
+
+    private interface Band {
+        void run(int band);
+    }
+
+    /**
+     * Runs bands on the calling thread and on the executor, returns when
+     * all bands are done. Bands are claimed by counter, so the calling thread
+     * does not wait for workers, which are still in the queue.
+     */
+    private static void parallel(Executor executor, final int count, final Band band) {
+        if (count == 1) {
+            band.run(0);
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final RuntimeException[] error = new RuntimeException[1];
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    try {
+                        band.run(i);
+                    } catch (RuntimeException e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        for (int i = 1; i < count; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // the pixels are shared with workers, they must be done
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (error) {
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+    }
+
+    /**
+     * The original single-threaded implementation, blurs the pixels in place
+     */
+    public static void blurReference(int[] pix, int w, int h, int radius) {
+        int wm = w - 1;
+        int hm = h - 1;
+        int wh = w * h;
+        int div = radius + radius + 1;
+
+        int r[] = new int[wh];
+        int g[] = new int[wh];
+        int b[] = new int[wh];
+        int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
+        int vmin[] = new int[Math.max(w, h)];
+
+        int divsum = (div + 1) >> 1;
+        divsum *= divsum;
+        int dv[] = new int[256 * divsum];
+        for (i = 0; i < 256 * divsum; i++) {
+            dv[i] = (i / divsum);
+        }
+
+        yw = yi = 0;
+
+        int[][] stack = new int[div][3];
+        int stackpointer;
+        int stackstart;
+        int[] sir;
+        int rbs;
+        int r1 = radius + 1;
+        int routsum, goutsum, boutsum;
+        int rinsum, ginsum, binsum;
+
+        for (y = 0; y < h; y++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (i = -radius; i <= radius; i++) {
+                p = pix[yi + Math.min(wm, Math.max(i, 0))];
+                sir = stack[i + radius];
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+                rbs = r1 - Math.abs(i);
+                rsum += sir[0] * rbs;
+                gsum += sir[1] * rbs;
+                bsum += sir[2] * rbs;
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+            }
+            stackpointer = radius;
+
+            for (x = 0; x < w; x++) {
+
+                r[yi] = dv[rsum];
+                g[yi] = dv[gsum];
+                b[yi] = dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                if (y == 0) {
+                    vmin[x] = Math.min(x + radius + 1, wm);
+                }
+                p = pix[yw + vmin[x]];
+
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[(stackpointer) % div];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi++;
+            }
+            yw += w;
+        }
+        for (x = 0; x < w; x++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            yp = -radius * w;
+            for (i = -radius; i <= radius; i++) {
+                yi = Math.max(0, yp) + x;
+
+                sir = stack[i + radius];
+
+                sir[0] = r[yi];
+                sir[1] = g[yi];
+                sir[2] = b[yi];
+
+                rbs = r1 - Math.abs(i);
+
+                rsum += r[yi] * rbs;
+                gsum += g[yi] * rbs;
+                bsum += b[yi] * rbs;
+
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = x;
+            stackpointer = radius;
+            for (y = 0; y < h; y++) {
+                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
+                pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                if (x == 0) {
+                    vmin[y] = Math.min(y + r1, hm) * w;
+                }
+                p = x + vmin[y];
+
+                sir[0] = r[p];
+                sir[1] = g[p];
+                sir[2] = b[p];
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[stackpointer];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi += w;
+            }
+        }
+    }
+}
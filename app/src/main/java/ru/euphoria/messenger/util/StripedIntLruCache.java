@@ -0,0 +1,216 @@
+package ru.euphoria.messenger.util;
+
+/**
+ * A thread-safe LRU cache with primitive int keys,
+ * split into independently locked {@link IntLruCache} stripes.
+ * <p/>
+ * A key always belongs to the same stripe, so writers from background
+ * threads lock only one stripe and readers of other stripes never wait.
+ * Locks are held only for O(1) table updates, {@link #create(int)}
+ * is called without any lock (e.g. SQLite queries).
+ * <p/>
+ * LRU order is kept per stripe, so the evicted entry is the least
+ * recently used of its stripe, not of the whole cache.
+ *
+ * @param <V> the type of cached values
+ */
+public class StripedIntLruCache<V> {
+    /** The default number of stripes */
+    public static final int DEFAULT_STRIPES = 8;
+
+    private final Stripe<V>[] stripes;
+    private final int mask;
+
+    /**
+     * Creates a new cache with {@link #DEFAULT_STRIPES} stripes
+     *
+     * @param maxSize the max number of entries, including negative entries
+     */
+    public StripedIntLruCache(int maxSize) {
+        this(maxSize, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxSize the max number of entries, including negative entries
+     * @param stripes the number of stripes, rounded up to power of two
+     */
+    public StripedIntLruCache(int maxSize, int stripes) {
+        if (maxSize <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0 || stripes <= 0");
+        }
+
+        int count = Integer.highestOneBit(Math.max(stripes * 2 - 1, 1));
+        this.stripes = newStripes(count);
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe<>(this, stripeSize(maxSize, count));
+        }
+    }
+
+    /**
+     * Returns the value for key, or null if the value is not cached
+     * and {@link #create(int)} returned null for it.
+     *
+     * @see IntLruCache#get(int)
+     */
+    public V get(int key) {
+        return stripeOf(key).get(key);
+    }
+
+    /**
+     * Returns the cached value for key, without calling of {@link #create(int)}
+     */
+    public V peek(int key) {
+        return stripeOf(key).peek(key);
+    }
+
+    /**
+     * Caches value for key, replaces negative entry of key, if any.
+     *
+     * @param key   the key of value
+     * @param value the value to cache, must not be null
+     */
+    public void put(int key, V value) {
+        stripeOf(key).put(key, value);
+    }
+
+    /**
+     * Removes the entry for key, if it exists.
+     *
+     * @return the previous value, or null
+     */
+    public V remove(int key) {
+        return stripeOf(key).remove(key);
+    }
+
+    /**
+     * Removes all entries, stats are kept.
+     */
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Sets the max number of entries, split evenly between stripes
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        for (Stripe<V> stripe : stripes) {
+            stripe.resize(stripeSize(maxSize, stripes.length));
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for key.
+     * Returns null by default, which stores a negative entry.
+     * <p/>
+     * NOTE: the method may be called concurrently from several threads.
+     */
+    protected V create(int key) {
+        return null;
+    }
+
+    /** Returns the number of entries in the cache, including negative entries */
+    public int size() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int maxSize() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            size += stripe.maxSize();
+        }
+        return size;
+    }
+
+    /** Returns the number of times {@link #get(int)} returned a cached value */
+    public long hitCount() {
+        long count = 0;
+        for (Stripe<V> stripe : stripes) {
+            count += stripe.hitCount();
+        }
+        return count;
+    }
+
+    /** Returns the number of times {@link #get(int)} found a negative entry */
+    public long negativeHitCount() {
+        long count = 0;
+        for (Stripe<V> stripe : stripes) {
+            count += stripe.negativeHitCount();
+        }
+        return count;
+    }
+
+    /** Returns the number of times {@link #get(int)} has not found an entry */
+    public long missCount() {
+        long count = 0;
+        for (Stripe<V> stripe : stripes) {
+            count += stripe.missCount();
+        }
+        return count;
+    }
+
+    /** Returns the number of entries that have been evicted */
+    public long evictionCount() {
+        long count = 0;
+        for (Stripe<V> stripe : stripes) {
+            count += stripe.evictionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        long hits = hitCount();
+        long negativeHits = negativeHitCount();
+        long misses = missCount();
+
+        long accesses = hits + negativeHits + misses;
+        long hitPercent = accesses == 0 ? 0 : (100 * (hits + negativeHits) / accesses);
+        return "StripedIntLruCache[size=" + size() + ",maxSize=" + maxSize()
+                + ",stripes=" + stripes.length
+                + ",hits=" + hits + ",negativeHits=" + negativeHits
+                + ",misses=" + misses + ",evictions=" + evictionCount()
+                + ",hitRate=" + hitPercent + "%]";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Stripe<V>[] newStripes(int count) {
+        return (Stripe<V>[]) new Stripe<?>[count];
+    }
+
+    private static int stripeSize(int maxSize, int stripes) {
+        return Math.max(1, (maxSize + stripes - 1) / stripes);
+    }
+
+    private Stripe<V> stripeOf(int key) {
+        // another multiplier than IntLruCache table, so keys of one stripe
+        // are still spread over its table
+        int h = key * 0x85EBCA6B;
+        return stripes[(h ^ (h >>> 15)) & mask];
+    }
+
+    private static class Stripe<V> extends IntLruCache<V> {
+        private final StripedIntLruCache<V> owner;
+
+        Stripe(StripedIntLruCache<V> owner, int maxSize) {
+            super(maxSize);
+            this.owner = owner;
+        }
+
+        @Override
+        protected V create(int key) {
+            return owner.create(key);
+        }
+    }
+}
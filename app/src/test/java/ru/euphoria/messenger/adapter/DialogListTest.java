@@ -0,0 +1,154 @@
+package ru.euphoria.messenger.adapter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ru.euphoria.messenger.api.model.VKMessage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Applies random steps to {@link DialogList} and to an {@link ArrayList}
+ * of the same dialogs: pages are appended, dialogs are moved to the top,
+ * inserted, removed, reindexed and the tail is trimmed. After every step
+ * positions and indexes by peer and message id must match the model.
+ */
+public class DialogListTest {
+    private static final int ROUNDS = 200;
+    private static final int STEPS = 300;
+    private static final int USERS = 150;
+    private static final int CHATS = 50;
+
+    private int nextId;
+
+    @Test
+    public void randomSteps() {
+        Random random = new Random(42);
+        for (int round = 0; round < ROUNDS; round++) {
+            DialogList list;
+            List<VKMessage> model = new ArrayList<>();
+            if (round % 2 == 0) {
+                list = new DialogList();
+            } else {
+                addPage(random, model, random.nextInt(40));
+                list = new DialogList(model);
+            }
+            check("round " + round + ", initial", list, model);
+
+            for (int step = 0; step < STEPS; step++) {
+                apply(random, list, model);
+                check("round " + round + ", step " + step, list, model);
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        DialogList list = new DialogList();
+        list.add(dialog(1, 0));
+        list.get(1);
+    }
+
+    private void apply(Random random, DialogList list, List<VKMessage> model) {
+        int op = random.nextInt(100);
+        if (op < 10) {
+            // the next page of older dialogs
+            int start = model.size();
+            addPage(random, model, random.nextInt(30));
+            list.addAll(new ArrayList<>(model.subList(start, model.size())));
+        } else if (op < 25) {
+            VKMessage dialog = newDialog(random, model);
+            if (dialog != null) {
+                model.add(dialog);
+                list.add(dialog);
+            }
+        } else if (op < 40) {
+            VKMessage dialog = newDialog(random, model);
+            if (dialog != null) {
+                model.add(0, dialog);
+                list.addFirst(dialog);
+            }
+        } else if (op < 70 && !model.isEmpty()) {
+            // a new message in dialog
+            int position = random.nextInt(model.size());
+            VKMessage dialog = model.remove(position);
+            model.add(0, dialog);
+            assertSame(dialog, list.moveToFront(position));
+            dialog.id = ++nextId;
+            list.reindex(0);
+        } else if (op < 85 && !model.isEmpty()) {
+            int position = random.nextInt(model.size());
+            assertSame(model.remove(position), list.remove(position));
+        } else if (op < 95 && !model.isEmpty()) {
+            // trim of the tail, like DialogPager does
+            int keep = random.nextInt(model.size());
+            for (int i = model.size() - 1; i >= keep; i--) {
+                assertSame(model.remove(i), list.remove(i));
+            }
+        } else if (op < 97) {
+            model.clear();
+            list.clear();
+        }
+    }
+
+    private static void check(String message, DialogList list, List<VKMessage> model) {
+        assertEquals(message + ": size", model.size(), list.size());
+        for (int i = 0; i < model.size(); i++) {
+            VKMessage dialog = model.get(i);
+            assertSame(message + ": get " + i, dialog, list.get(i));
+            assertEquals(message + ": message " + dialog.id, i, list.indexOfMessage(dialog.id));
+        }
+
+        for (int user = 1; user <= USERS; user++) {
+            assertEquals(message + ": user " + user, indexOf(model, user, 0), list.indexOfPeer(user, 0));
+        }
+        for (int chat = 1; chat <= CHATS; chat++) {
+            assertEquals(message + ": chat " + chat, indexOf(model, 0, chat), list.indexOfPeer(0, chat));
+        }
+    }
+
+    private static int indexOf(List<VKMessage> model, int userId, int chatId) {
+        for (int i = 0; i < model.size(); i++) {
+            VKMessage dialog = model.get(i);
+            if (chatId > 0 ? dialog.chat_id == chatId : dialog.chat_id == 0 && dialog.user_id == userId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addPage(Random random, List<VKMessage> model, int count) {
+        for (int i = 0; i < count; i++) {
+            VKMessage dialog = newDialog(random, model);
+            if (dialog != null) {
+                model.add(dialog);
+            }
+        }
+    }
+
+    /** Returns a dialog with a peer, which is not in the model, or null */
+    private VKMessage newDialog(Random random, List<VKMessage> model) {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            boolean chat = random.nextInt(4) == 0;
+            int userId = 1 + random.nextInt(USERS);
+            int chatId = chat ? 1 + random.nextInt(CHATS) : 0;
+            if (indexOf(model, userId, chatId) < 0) {
+                VKMessage dialog = dialog(userId, chatId);
+                dialog.id = ++nextId;
+                return dialog;
+            }
+        }
+        return null;
+    }
+
+    private static VKMessage dialog(int userId, int chatId) {
+        VKMessage dialog = new VKMessage();
+        dialog.user_id = userId;
+        dialog.chat_id = chatId;
+        return dialog;
+    }
+}
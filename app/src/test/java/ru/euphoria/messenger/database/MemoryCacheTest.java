@@ -0,0 +1,130 @@
+package ru.euphoria.messenger.database;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import ru.euphoria.messenger.api.model.VKGroup;
+import ru.euphoria.messenger.api.model.VKUser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test of {@link MemoryCache} without {@link CacheStorage}:
+ * only cached values are read, so SQLite is never queried.
+ */
+public class MemoryCacheTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 100000;
+    private static final int KEYS = 2000;
+
+    @After
+    public void tearDown() {
+        MemoryCache.resize(MemoryCache.DEFAULT_USERS_CAPACITY, MemoryCache.DEFAULT_GROUPS_CAPACITY);
+        MemoryCache.clear();
+    }
+
+    @Test
+    public void concurrentAppendAndPeek() throws Exception {
+        MemoryCache.clear();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        int id = 1 + random.nextInt(KEYS);
+                        int op = random.nextInt(100);
+                        if (op < 50) {
+                            VKUser user = MemoryCache.peekUser(id);
+                            if (user != null) {
+                                assertEquals(id, user.id);
+                                assertEquals(String.valueOf(id), user.first_name);
+                            }
+                        } else if (op < 80) {
+                            MemoryCache.append(user(id));
+                        } else if (op < 95) {
+                            MemoryCache.append(group(id));
+                        } else if (op < 99) {
+                            ArrayList<VKUser> users = new ArrayList<>();
+                            for (int j = 0; j < 10; j++) {
+                                users.add(user(1 + random.nextInt(KEYS)));
+                            }
+                            MemoryCache.update(users);
+                        } else {
+                            MemoryCache.clear();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void appendedValueIsReturned() {
+        VKUser user = user(42);
+        MemoryCache.append(user);
+        assertSame(user, MemoryCache.peekUser(42));
+        // cached values are returned without loading from CacheStorage
+        assertSame(user, MemoryCache.getUser(42));
+
+        VKGroup group = group(42);
+        MemoryCache.append(group);
+        assertSame(group, MemoryCache.getGroup(42));
+
+        MemoryCache.clear();
+        assertNull(MemoryCache.peekUser(42));
+    }
+
+    @Test
+    public void resizeEvictsUsers() {
+        MemoryCache.resize(10, 10);
+        for (int id = 1; id <= 1000; id++) {
+            MemoryCache.append(user(id));
+        }
+
+        int cached = 0;
+        for (int id = 1; id <= 1000; id++) {
+            if (MemoryCache.peekUser(id) != null) {
+                cached++;
+            }
+        }
+        // stripes round the size up
+        assertTrue("cached " + cached, cached <= 16);
+        assertEquals(1000, MemoryCache.peekUser(1000).id);
+    }
+
+    private static VKUser user(int id) {
+        VKUser user = new VKUser();
+        user.id = id;
+        user.first_name = String.valueOf(id);
+        return user;
+    }
+
+    private static VKGroup group(int id) {
+        VKGroup group = new VKGroup();
+        group.id = id;
+        group.name = String.valueOf(id);
+        return group;
+    }
+}
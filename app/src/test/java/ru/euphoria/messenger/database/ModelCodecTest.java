@@ -0,0 +1,58 @@
+package ru.euphoria.messenger.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ModelCodec} decodes what it encodes,
+ * and that corrupt counts of lists do not allocate or loop beyond the blob.
+ */
+public class ModelCodecTest {
+
+    @Test
+    public void roundTrip() {
+        ArrayList<VKModel> models = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            VKPhoto photo = new VKPhoto();
+            photo.id = i;
+            photo.owner_id = -i;
+            photo.photo_604 = "https://example.com/" + i + ".jpg";
+            models.add(photo);
+        }
+
+        ArrayList<VKPhoto> decoded = ModelCodec.decode(ModelCodec.encode(models));
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, decoded.get(i).id);
+            assertEquals(-(i + 1), decoded.get(i).owner_id);
+            assertEquals("https://example.com/" + (i + 1) + ".jpg", decoded.get(i).photo_604);
+        }
+    }
+
+    @Test
+    public void hugeCount() {
+        // count of Integer.MAX_VALUE and no records
+        byte[] data = {'E', ModelCodec.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        assertTrue(ModelCodec.decode(data).isEmpty());
+    }
+
+    @Test
+    public void negativeCount() {
+        byte[] data = {'E', ModelCodec.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertTrue(ModelCodec.decode(data).isEmpty());
+    }
+
+    @Test
+    public void truncatedRecords() {
+        // the count of 1000 records, but only an empty photo follows
+        byte[] data = {'E', ModelCodec.VERSION, (byte) 0xE8, 0x07, 1, 0};
+        assertTrue(ModelCodec.decode(data).size() <= 1);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.euphoria.messenger.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link JsonReader} reads values of a response,
+ * and fails with {@link JsonException} on truncated input.
+ */
+public class JsonReaderTest {
+    private static final String[] TRUNCATED = {
+            "", "[", "{\"a\":[", "[1,", "[1", "{", "{\"a\"", "{\"a\":", "{\"a\":1", "[[", "[{"
+    };
+
+    @Test
+    public void readsValues() throws Exception {
+        JsonObject object = reader("{\"a\":[1,2,[]],\"b\":\"x\",\"c\":true,\"d\":null,\"e\":1.5}").readObject();
+        assertEquals(3, object.getJsonArray("a").length());
+        assertEquals(0, ((JsonArray) object.getJsonArray("a").get(2)).length());
+        assertEquals("x", object.getString("b"));
+        assertTrue(object.getBoolean("c"));
+        assertTrue(object.isNull("d"));
+        assertEquals(1.5, object.getDouble("e"), 0);
+    }
+
+    @Test
+    public void emptyArray() throws Exception {
+        assertEquals(0, reader(" [ ] ").readArray().length());
+    }
+
+    @Test
+    public void truncatedInput() throws Exception {
+        for (String json : TRUNCATED) {
+            try {
+                reader(json).readValue();
+                fail("Expected JsonException for " + json);
+            } catch (JsonException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void truncatedArrayOnPeek() throws IOException {
+        JsonReader reader = reader("[");
+        try {
+            reader.beginArray();
+            reader.hasNext();
+            fail("Expected JsonException");
+        } catch (JsonException e) {
+            // expected
+        }
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+}
@@ -0,0 +1,223 @@
+package ru.euphoria.messenger.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays {@link ListDiff.Result#dispatchTo(ListDiff.UpdateCallback)} on a copy
+ * of the old list: the result must be the new list, and changes must be
+ * dispatched exactly for kept items, which contents differ from the new item.
+ */
+public class ListDiffTest {
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void randomLists() {
+        Random random = new Random(42);
+        for (int round = 0; round < ROUNDS; round++) {
+            // few ids, so lists have duplicates
+            int ids = 1 + random.nextInt(round % 2 == 0 ? 8 : 100);
+            List<Item> oldList = randomList(random, random.nextInt(40), ids);
+            List<Item> newList = edit(random, oldList, ids);
+            check("round " + round, oldList, newList);
+        }
+    }
+
+    @Test
+    public void sameLists() {
+        List<Item> list = randomList(new Random(1), 50, 20);
+        assertTrue(diff(list, new ArrayList<>(list)).isEmpty());
+        assertTrue(diff(new ArrayList<Item>(), new ArrayList<Item>()).isEmpty());
+    }
+
+    @Test
+    public void reversedList() {
+        List<Item> oldList = randomList(new Random(2), 30, 1000);
+        List<Item> newList = new ArrayList<>(oldList);
+        Collections.reverse(newList);
+        check("reversed", oldList, newList);
+    }
+
+    @Test
+    public void fromAndToEmptyList() {
+        List<Item> list = randomList(new Random(3), 20, 5);
+        check("from empty", new ArrayList<Item>(), list);
+        check("to empty", list, new ArrayList<Item>());
+    }
+
+    @Test
+    public void changedContents() {
+        List<Item> oldList = randomList(new Random(4), 10, 1000);
+        List<Item> newList = new ArrayList<>(oldList);
+        newList.set(3, new Item(oldList.get(3).id, oldList.get(3).content + 1));
+        newList.set(4, new Item(oldList.get(4).id, oldList.get(4).content + 1));
+        newList.set(8, new Item(oldList.get(8).id, oldList.get(8).content + 1));
+
+        Replay replay = check("changed", oldList, newList);
+        assertEquals(new TreeSet<>(Arrays.asList(3, 4, 8)), replay.changed);
+        assertEquals(0, replay.structural);
+    }
+
+    private static Replay check(String message, List<Item> oldList, List<Item> newList) {
+        Replay replay = new Replay(oldList, newList);
+        diff(oldList, newList).dispatchTo(replay);
+
+        List<Item> result = replay.list;
+        assertEquals(message + ": size", newList.size(), result.size());
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < newList.size(); i++) {
+            assertEquals(message + ": id at " + i, newList.get(i).id, result.get(i).id);
+            Item item = result.get(i);
+            if (!item.inserted && item.content != newList.get(i).content) {
+                expected.add(i);
+            }
+        }
+        assertEquals(message + ": changed positions", expected, replay.changed);
+        return replay;
+    }
+
+    private static ListDiff.Result diff(final List<Item> oldList, final List<Item> newList) {
+        return ListDiff.calculate(new ListDiff.Callback() {
+            @Override
+            public int getOldSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewSize() {
+                return newList.size();
+            }
+
+            @Override
+            public long getOldId(int oldPosition) {
+                return oldList.get(oldPosition).id;
+            }
+
+            @Override
+            public long getNewId(int newPosition) {
+                return newList.get(newPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldList.get(oldPosition).content == newList.get(newPosition).content;
+            }
+        });
+    }
+
+    private static List<Item> randomList(Random random, int size, int ids) {
+        List<Item> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Item(random.nextInt(ids), random.nextInt(3)));
+        }
+        return list;
+    }
+
+    /**
+     * Returns a copy of the list with removed, moved, changed and inserted items
+     */
+    private static List<Item> edit(Random random, List<Item> list, int ids) {
+        List<Item> result = new ArrayList<>(list);
+        int edits = random.nextInt(10);
+        for (int i = 0; i < edits; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 && !result.isEmpty()) {
+                result.remove(random.nextInt(result.size()));
+            } else if (op == 1 && !result.isEmpty()) {
+                Item item = result.remove(random.nextInt(result.size()));
+                result.add(random.nextInt(result.size() + 1), item);
+            } else if (op == 2 && !result.isEmpty()) {
+                int position = random.nextInt(result.size());
+                Item item = result.get(position);
+                result.set(position, new Item(item.id, item.content + 1));
+            } else {
+                result.add(random.nextInt(result.size() + 1), new Item(random.nextInt(ids), random.nextInt(3)));
+            }
+        }
+        return result;
+    }
+
+    private static class Item {
+        final long id;
+        final int content;
+        /** True for a copy of new item, which is inserted by replay */
+        final boolean inserted;
+
+        Item(long id, int content) {
+            this(id, content, false);
+        }
+
+        Item(long id, int content, boolean inserted) {
+            this.id = id;
+            this.content = content;
+            this.inserted = inserted;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + content;
+        }
+    }
+
+    /**
+     * Applies updates to a copy of the old list, inserted items are copied
+     * from the new list, changed items are only recorded
+     */
+    private static class Replay implements ListDiff.UpdateCallback {
+        final List<Item> list;
+        final List<Item> newList;
+        final TreeSet<Integer> changed = new TreeSet<>();
+        int structural;
+
+        Replay(List<Item> oldList, List<Item> newList) {
+            this.list = new ArrayList<>(oldList);
+            this.newList = newList;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            assertTrue(count > 0);
+            assertTrue(position <= list.size());
+            for (int i = 0; i < count; i++) {
+                Item item = newList.get(position + i);
+                list.add(position + i, new Item(item.id, item.content, true));
+            }
+            structural++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            assertTrue(count > 0);
+            assertTrue(position + count <= list.size());
+            list.subList(position, position + count).clear();
+            structural++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            assertTrue(fromPosition < list.size() && toPosition < list.size());
+            list.add(toPosition, list.remove(fromPosition));
+            structural++;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            assertTrue(count > 0);
+            assertTrue(position + count <= list.size());
+            for (int i = position; i < position + count; i++) {
+                assertFalse("changed twice " + i, changed.contains(i));
+                changed.add(i);
+            }
+        }
+    }
+}
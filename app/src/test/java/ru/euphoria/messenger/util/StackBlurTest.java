@@ -0,0 +1,90 @@
+package ru.euphoria.messenger.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks that {@link StackBlur#blur(int[], int, int, int, int, java.util.concurrent.Executor)}
+ * is the same as {@link StackBlur#blurReference(int[], int, int, int)} pixel by pixel,
+ * on the calling thread and in bands, for sizes around tiles and bands.
+ */
+public class StackBlurTest {
+    private static final int[][] SIZES = {
+            {1, 1}, {1, 40}, {40, 1}, {15, 17}, {16, 16}, {33, 70}, {100, 64}, {257, 129}
+    };
+    private static final int[] RADII = {1, 2, 5, 16, 25, 70};
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameAsReference() {
+        Random random = new Random(42);
+        for (int[] size : SIZES) {
+            int[] source = randomPixels(random, size[0] * size[1]);
+            for (int radius : RADII) {
+                for (int bands = 1; bands <= 4; bands++) {
+                    check(source, size[0], size[1], radius, bands);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameAsReferenceOnMaxRadius() {
+        int[] source = randomPixels(new Random(7), 300 * 210);
+        check(source, 300, 210, StackBlur.MAX_RADIUS, 2);
+        // larger radii fall back to the reference
+        check(source, 300, 210, StackBlur.MAX_RADIUS + 1, 2);
+    }
+
+    @Test
+    public void sameAsReferenceOnFlatImage() {
+        int[] source = new int[128 * 96];
+        Arrays.fill(source, 0x80ffffff);
+        check(source, 128, 96, 30, 3);
+    }
+
+    @Test
+    public void zeroRadiusKeepsPixels() {
+        int[] source = randomPixels(new Random(1), 20 * 20);
+        int[] pixels = source.clone();
+        StackBlur.blur(pixels, 20, 20, 0);
+        assertArrayEquals(source, pixels);
+    }
+
+    private void check(int[] source, int width, int height, int radius, int bands) {
+        int[] expected = source.clone();
+        StackBlur.blurReference(expected, width, height, radius);
+
+        int[] actual = source.clone();
+        StackBlur.blur(actual, width, height, radius, bands, executor);
+        assertArrayEquals(width + "x" + height + ", radius " + radius + ", bands " + bands,
+                expected, actual);
+    }
+
+    private static int[] randomPixels(Random random, int size) {
+        int[] pixels = new int[size];
+        for (int i = 0; i < size; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,138 @@
+package ru.euphoria.messenger.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test of {@link StripedIntLruCache}: threads get, put, remove and
+ * clear random keys, values are derived from keys, so any returned value
+ * must match its key, and the cache must never exceed its max size.
+ */
+public class StripedIntLruCacheTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 200000;
+    private static final int KEYS = 4096;
+    private static final int MAX_SIZE = 256;
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final AtomicLong creates = new AtomicLong();
+        final StripedIntLruCache<String> cache = new StripedIntLruCache<String>(MAX_SIZE) {
+            @Override
+            protected String create(int key) {
+                creates.incrementAndGet();
+                // odd keys are unknown, they are stored as negative entries
+                return (key & 1) == 0 ? valueOf(key) : null;
+            }
+        };
+        final int maxSize = cache.maxSize();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        int key = random.nextInt(KEYS) - KEYS / 2;
+                        int op = random.nextInt(100);
+                        if (op < 60) {
+                            String value = cache.get(key);
+                            if (value != null) {
+                                assertEquals(valueOf(key), value);
+                            }
+                        } else if (op < 85) {
+                            cache.put(key, valueOf(key));
+                        } else if (op < 97) {
+                            String value = cache.remove(key);
+                            if (value != null) {
+                                assertEquals(valueOf(key), value);
+                            }
+                        } else if (op < 98) {
+                            cache.clear();
+                        } else {
+                            String value = cache.peek(key);
+                            if (value != null) {
+                                assertEquals(valueOf(key), value);
+                            }
+                        }
+                        if ((i & 1023) == 0) {
+                            assertTrue("size " + cache.size(), cache.size() <= maxSize);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            // rethrows assertion errors of workers
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(cache.size() <= maxSize);
+        assertTrue(creates.get() > 0);
+        assertEquals(maxSize, cache.maxSize());
+
+        // the cache is still consistent after the stress
+        for (int key = -KEYS / 2; key < KEYS / 2; key++) {
+            String value = cache.peek(key);
+            if (value != null) {
+                assertEquals(valueOf(key), value);
+            }
+        }
+    }
+
+    @Test
+    public void negativeEntries() {
+        StripedIntLruCache<String> cache = new StripedIntLruCache<String>(16) {
+            @Override
+            protected String create(int key) {
+                return null;
+            }
+        };
+
+        assertNull(cache.get(1));
+        assertNull(cache.get(1));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.negativeHitCount());
+
+        cache.put(1, "one");
+        assertEquals("one", cache.get(1));
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        StripedIntLruCache<String> cache = new StripedIntLruCache<>(64, 4);
+        for (int key = 0; key < 10000; key++) {
+            cache.put(key, valueOf(key));
+            assertTrue(cache.size() <= cache.maxSize());
+        }
+        assertEquals(cache.maxSize(), cache.size());
+
+        cache.resize(8);
+        assertTrue(cache.size() <= cache.maxSize());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private static String valueOf(int key) {
+        return "value" + key;
+    }
+}
@@ -0,0 +1,123 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.model.VKAudio;
+import ru.euphoria.messenger.api.model.VKDoc;
+import ru.euphoria.messenger.api.model.VKLink;
+import ru.euphoria.messenger.api.model.VKMessage;
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.api.model.VKPhoto;
+import ru.euphoria.messenger.database.ModelCodec;
+
+/**
+ * Shared state of codec benchmarks: attachments of one message,
+ * like they are stored in the messages table, and their encoded blobs.
+ */
+@State(Scope.Benchmark)
+public class AttachmentsState {
+    /** The number of attachments, the last one is a forwarded message */
+    @Param({"1", "4", "10"})
+    public int count;
+
+    public ArrayList<VKModel> attachments;
+    public byte[] encoded;
+    public byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        attachments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            switch (i % 4) {
+                case 0:
+                    attachments.add(photo(i));
+                    break;
+                case 1:
+                    attachments.add(doc(i));
+                    break;
+                case 2:
+                    attachments.add(audio(i));
+                    break;
+                default:
+                    attachments.add(forward(i));
+                    break;
+            }
+        }
+
+        encoded = ModelCodec.encode(attachments);
+        serialized = serialize(attachments);
+    }
+
+    static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static VKPhoto photo(int i) {
+        VKPhoto photo = new VKPhoto();
+        photo.id = 456239000 + i;
+        photo.album_id = -3;
+        photo.owner_id = 1234567;
+        photo.width = 1280;
+        photo.height = 960;
+        photo.date = 1488000000L + i;
+        photo.photo_75 = "https://pp.userapi.com/c837/v837/1/75_" + i + ".jpg";
+        photo.photo_130 = "https://pp.userapi.com/c837/v837/1/130_" + i + ".jpg";
+        photo.photo_604 = "https://pp.userapi.com/c837/v837/1/604_" + i + ".jpg";
+        photo.photo_807 = "https://pp.userapi.com/c837/v837/1/807_" + i + ".jpg";
+        photo.photo_1280 = "https://pp.userapi.com/c837/v837/1/1280_" + i + ".jpg";
+        return photo;
+    }
+
+    private static VKDoc doc(int i) {
+        VKDoc doc = new VKDoc();
+        doc.id = 440000000L + i;
+        doc.owner_id = 1234567;
+        doc.title = "report_" + i + ".pdf";
+        doc.size = 1048576;
+        doc.ext = "pdf";
+        doc.url = "https://vk.com/doc1234567_" + doc.id + "?hash=a1b2c3d4e5";
+        doc.access_key = "f00dfeed" + i;
+        doc.type = VKDoc.TYPE_TEXT;
+        return doc;
+    }
+
+    private static VKAudio audio(int i) {
+        VKAudio audio = new VKAudio();
+        audio.id = 456239100L + i;
+        audio.owner_id = 1234567;
+        audio.artist = "Artist " + i;
+        audio.title = "Title of the song " + i;
+        audio.duration = 215;
+        audio.url = "https://cs1-23v4.vk-cdn.net/p5/" + i + ".mp3";
+        return audio;
+    }
+
+    private static VKMessage forward(int i) {
+        VKMessage message = new VKMessage();
+        message.id = 100000 + i;
+        message.user_id = 7654321;
+        message.date = 1488000000L + i;
+        message.body = "Forwarded message with some text, which is long enough to be typical " + i;
+        message.attachments = new ArrayList<>();
+        message.attachments.add(photo(i));
+
+        VKLink link = new VKLink();
+        link.url = "https://example.com/article/" + i;
+        link.title = "Article " + i;
+        link.description = "Description of the article";
+        message.attachments.add(link);
+        return message;
+    }
+}
@@ -0,0 +1,18 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import ru.euphoria.messenger.json.JsonException;
+import ru.euphoria.messenger.json.JsonObject;
+
+/**
+ * Parsing of the whole response into {@link JsonObject} tree,
+ * the way {@code JsonObject(String)} is used by old api code
+ */
+public class JsonParserBenchmark {
+
+    @Benchmark
+    public JsonObject parse(PayloadState state) throws JsonException {
+        return new JsonObject(state.json);
+    }
+}
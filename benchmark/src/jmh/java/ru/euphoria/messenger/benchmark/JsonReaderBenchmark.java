@@ -0,0 +1,93 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import ru.euphoria.messenger.json.JsonException;
+import ru.euphoria.messenger.json.JsonObject;
+import ru.euphoria.messenger.json.JsonReader;
+import ru.euphoria.messenger.json.JsonToken;
+
+/**
+ * Streaming of the response with {@link JsonReader}
+ */
+public class JsonReaderBenchmark {
+
+    /** Materializes the whole tree from chars */
+    @Benchmark
+    public JsonObject readObject(PayloadState state) throws IOException, JsonException {
+        JsonReader reader = new JsonReader(new StringReader(state.json));
+        try {
+            return reader.readObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Materializes the whole tree from UTF-8 bytes, like api responses */
+    @Benchmark
+    public JsonObject readObjectFromBytes(PayloadState state) throws IOException, JsonException {
+        JsonReader reader = new JsonReader(new ByteArrayInputStream(state.bytes));
+        try {
+            return reader.readObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Visits every token without building a tree, the lower bound of reading */
+    @Benchmark
+    public void tokens(PayloadState state, Blackhole blackhole) throws IOException, JsonException {
+        JsonReader reader = new JsonReader(new StringReader(state.json));
+        try {
+            visit(reader, blackhole);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Skips the whole document */
+    @Benchmark
+    public void skip(PayloadState state) throws IOException, JsonException {
+        JsonReader reader = new JsonReader(new StringReader(state.json));
+        try {
+            reader.skipValue();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void visit(JsonReader reader, Blackhole blackhole) throws IOException, JsonException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    blackhole.consume(reader.nextName());
+                    visit(reader, blackhole);
+                }
+                reader.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    visit(reader, blackhole);
+                }
+                reader.endArray();
+                break;
+            case BOOLEAN:
+                blackhole.consume(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                break;
+            default:
+                // numbers are read as strings too
+                blackhole.consume(reader.nextString());
+        }
+    }
+}
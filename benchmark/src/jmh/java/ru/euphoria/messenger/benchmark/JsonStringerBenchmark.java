@@ -0,0 +1,17 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import ru.euphoria.messenger.json.JsonStringer;
+
+/**
+ * Encoding of parsed tree back to string with {@link JsonStringer},
+ * e.g. execute code of batch requests and cached responses
+ */
+public class JsonStringerBenchmark {
+
+    @Benchmark
+    public String stringify(PayloadState state) {
+        return state.tree.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+
+import ru.euphoria.messenger.api.model.VKModel;
+import ru.euphoria.messenger.database.ModelCodec;
+
+/**
+ * Encoding and decoding of attachments with {@link ModelCodec}
+ * against Java serialization, which was used by the cache before
+ */
+public class ModelCodecBenchmark {
+
+    @Benchmark
+    public byte[] encode(AttachmentsState state) {
+        return ModelCodec.encode(state.attachments);
+    }
+
+    @Benchmark
+    public ArrayList<VKModel> decode(AttachmentsState state) {
+        return ModelCodec.decode(state.encoded);
+    }
+
+    @Benchmark
+    public byte[] serialize(AttachmentsState state) throws IOException {
+        return AttachmentsState.serialize(state.attachments);
+    }
+
+    @Benchmark
+    public Object deserialize(AttachmentsState state) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state.serialized));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ru.euphoria.messenger.io.Charsets;
+import ru.euphoria.messenger.json.JsonException;
+import ru.euphoria.messenger.json.JsonObject;
+
+/**
+ * Shared state of json benchmarks: the payload as string,
+ * as UTF-8 bytes (like network stream) and as parsed tree.
+ */
+@State(Scope.Benchmark)
+public class PayloadState {
+    @Param({Payloads.HISTORY, Payloads.DIALOGS, Payloads.USERS, Payloads.LONG_POLL})
+    public String payload;
+
+    public String json;
+    public byte[] bytes;
+    public JsonObject tree;
+
+    @Setup
+    public void setup() throws JsonException {
+        json = Payloads.create(payload);
+        bytes = json.getBytes(Charsets.UTF_8);
+        tree = new JsonObject(json);
+    }
+}
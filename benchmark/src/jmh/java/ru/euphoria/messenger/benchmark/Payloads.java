@@ -0,0 +1,251 @@
+package ru.euphoria.messenger.benchmark;
+
+import java.util.Random;
+
+import ru.euphoria.messenger.json.JsonArray;
+import ru.euphoria.messenger.json.JsonException;
+import ru.euphoria.messenger.json.JsonObject;
+
+/**
+ * Generates realistic VK API responses for benchmarks.
+ * Payloads are deterministic, so results of runs are comparable.
+ */
+public class Payloads {
+    public static final String HISTORY = "history";
+    public static final String DIALOGS = "dialogs";
+    public static final String USERS = "users";
+    public static final String LONG_POLL = "longpoll";
+
+    private static final String[] WORDS = {
+            "привет", "как", "дела", "ок", "завтра", "в", "10:00", "hello", "see", "you",
+            "\uD83D\uDE00", "\uD83D\uDC4D", "\"цитата\"", "ссылка:", "https://vk.com/wall1_2",
+            "да", "нет", "может быть", "\\o/", "спасибо!"
+    };
+
+    private final Random random = new Random(42);
+
+    // use create(String)
+    private Payloads() {
+    }
+
+    /**
+     * Returns the json response by name
+     *
+     * @param name the name of payload, e.g. {@link #HISTORY}
+     */
+    public static String create(String name) {
+        Payloads payloads = new Payloads();
+        try {
+            switch (name) {
+                case HISTORY:
+                    return payloads.history(200).toString();
+                case DIALOGS:
+                    return payloads.dialogs(200).toString();
+                case USERS:
+                    return payloads.users(1000).toString();
+                case LONG_POLL:
+                    return payloads.longPoll(500).toString();
+                default:
+                    throw new IllegalArgumentException("Unknown payload " + name);
+            }
+        } catch (JsonException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** messages.getHistory with photos, docs, stickers and forwarded messages */
+    private JsonObject history(int count) throws JsonException {
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            JsonObject msg = message(1000000 - i, 1490000000 - i * 60);
+            if (random.nextInt(10) == 0) {
+                msg.put("fwd_messages", new JsonArray()
+                        .put(message(0, 1480000000))
+                        .put(message(0, 1480000060)));
+            }
+            items.put(msg);
+        }
+
+        return new JsonObject().put("response", new JsonObject()
+                .put("count", 25000)
+                .put("items", items)
+                .put("in_read", 999990)
+                .put("out_read", 999995));
+    }
+
+    /** messages.getDialogs with chats and private messages */
+    private JsonObject dialogs(int count) throws JsonException {
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            JsonObject msg = message(2000000 - i, 1490000000 - i * 3600);
+            if (random.nextInt(4) == 0) {
+                msg.put("title", text(3))
+                        .put("chat_id", 100 + i)
+                        .put("admin_id", 1 + random.nextInt(1000000))
+                        .put("users_count", 2 + random.nextInt(200))
+                        .put("chat_active", new JsonArray().put(1).put(2).put(3).put(4))
+                        .put("photo_50", photo("c50", 50))
+                        .put("photo_100", photo("c100", 100))
+                        .put("photo_200", photo("c200", 200));
+            } else {
+                msg.put("title", " ... ");
+            }
+
+            JsonObject item = new JsonObject().put("message", msg);
+            if (random.nextBoolean()) {
+                item.put("unread", 1 + random.nextInt(50));
+                item.put("in_read", msg.optInt("id") - 3);
+                item.put("out_read", msg.optInt("id"));
+            }
+            items.put(item);
+        }
+
+        return new JsonObject().put("response", new JsonObject()
+                .put("count", 1200)
+                .put("unread_dialogs", 12)
+                .put("items", items));
+    }
+
+    /** users.get with all fields, requested by the app */
+    private JsonObject users(int count) throws JsonException {
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            int id = 1 + random.nextInt(400000000);
+            items.put(new JsonObject()
+                    .put("id", id)
+                    .put("first_name", "Игорь")
+                    .put("last_name", "Морозкин")
+                    .put("sex", 1 + random.nextInt(2))
+                    .put("nickname", "")
+                    .put("domain", "id" + id)
+                    .put("screen_name", "id" + id)
+                    .put("bdate", "1.1.1990")
+                    .put("city", new JsonObject().put("id", 1).put("title", "Москва"))
+                    .put("country", new JsonObject().put("id", 1).put("title", "Россия"))
+                    .put("photo_50", photo("u50", 50))
+                    .put("photo_100", photo("u100", 100))
+                    .put("photo_200", photo("u200", 200))
+                    .put("photo_max_orig", photo("umax", 400))
+                    .put("has_mobile", 1)
+                    .put("online", random.nextInt(2))
+                    .put("online_mobile", random.nextInt(2))
+                    .put("status", text(6))
+                    .put("last_seen", new JsonObject()
+                            .put("time", 1490000000 - random.nextInt(100000))
+                            .put("platform", 1 + random.nextInt(7)))
+                    .put("followers_count", random.nextInt(10000))
+                    .put("common_count", random.nextInt(100))
+                    .put("counters", new JsonObject()
+                            .put("albums", random.nextInt(20))
+                            .put("videos", random.nextInt(200))
+                            .put("audios", random.nextInt(2000))
+                            .put("photos", random.nextInt(2000))
+                            .put("friends", random.nextInt(1000))
+                            .put("followers", random.nextInt(10000))));
+        }
+        return new JsonObject().put("response", items);
+    }
+
+    /** updates of long poll server: new messages, read, online/offline, typing */
+    private JsonObject longPoll(int count) throws JsonException {
+        JsonArray updates = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            int peer = 1 + random.nextInt(1000000);
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    JsonObject extra = new JsonObject().put("title", " ... ");
+                    if (random.nextInt(4) == 0) {
+                        extra.put("attach1_type", "photo").put("attach1", peer + "_" + (456239000 + i));
+                    }
+                    updates.put(new JsonArray()
+                            .put(4).put(3000000 + i).put(random.nextInt(64)).put(peer)
+                            .put(1490000000 + i).put(text(1 + random.nextInt(12))).put(extra));
+                    break;
+                case 2:
+                    updates.put(new JsonArray().put(6).put(peer).put(3000000 + i));
+                    break;
+                case 3:
+                    updates.put(new JsonArray().put(8).put(-peer).put(random.nextInt(8)).put(1490000000 + i));
+                    break;
+                case 4:
+                    updates.put(new JsonArray().put(9).put(-peer).put(random.nextInt(2)).put(1490000000 + i));
+                    break;
+                default:
+                    updates.put(new JsonArray().put(61).put(peer).put(1));
+            }
+        }
+        return new JsonObject().put("ts", 1700000000).put("updates", updates);
+    }
+
+    private JsonObject message(int id, int date) throws JsonException {
+        JsonObject msg = new JsonObject()
+                .put("id", id)
+                .put("date", date)
+                .put("out", random.nextInt(2))
+                .put("user_id", 1 + random.nextInt(1000000))
+                .put("read_state", random.nextInt(2))
+                .put("title", " ... ")
+                .put("body", text(1 + random.nextInt(30)));
+
+        int kind = random.nextInt(8);
+        if (kind == 0) {
+            msg.put("attachments", new JsonArray().put(new JsonObject()
+                    .put("type", "photo")
+                    .put("photo", new JsonObject()
+                            .put("id", 456239000 + random.nextInt(1000))
+                            .put("album_id", -3)
+                            .put("owner_id", 1 + random.nextInt(1000000))
+                            .put("photo_75", photo("p75", 75))
+                            .put("photo_130", photo("p130", 130))
+                            .put("photo_604", photo("p604", 604))
+                            .put("photo_807", photo("p807", 807))
+                            .put("width", 1280)
+                            .put("height", 960)
+                            .put("text", "")
+                            .put("date", date)
+                            .put("access_key", Long.toHexString(random.nextLong())))));
+        } else if (kind == 1) {
+            msg.put("attachments", new JsonArray().put(new JsonObject()
+                    .put("type", "sticker")
+                    .put("sticker", new JsonObject()
+                            .put("id", random.nextInt(5000))
+                            .put("product_id", random.nextInt(200))
+                            .put("photo_64", photo("s64", 64))
+                            .put("photo_128", photo("s128", 128))
+                            .put("photo_256", photo("s256", 256))
+                            .put("width", 256)
+                            .put("height", 256))));
+        } else if (kind == 2) {
+            msg.put("attachments", new JsonArray().put(new JsonObject()
+                    .put("type", "doc")
+                    .put("doc", new JsonObject()
+                            .put("id", 437000000 + random.nextInt(1000))
+                            .put("owner_id", 1 + random.nextInt(1000000))
+                            .put("title", "report.pdf")
+                            .put("size", random.nextInt(10000000))
+                            .put("ext", "pdf")
+                            .put("url", "https://vk.com/doc1_437000000?hash=" + Long.toHexString(random.nextLong()))
+                            .put("date", date)
+                            .put("type", 1))));
+        }
+        return msg;
+    }
+
+    private String photo(String prefix, int size) {
+        return "https://pp.userapi.com/c" + (600000 + random.nextInt(10000))
+                + "/v" + random.nextInt(1000000) + "/" + prefix + "/"
+                + Integer.toHexString(random.nextInt()) + "_" + size + ".jpg";
+    }
+
+    private String text(int words) {
+        StringBuilder buffer = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i != 0) {
+                buffer.append(random.nextInt(10) == 0 ? "\n" : " ");
+            }
+            buffer.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.euphoria.messenger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ru.euphoria.messenger.util.StackBlur;
+
+/**
+ * {@link StackBlur#blur} on the calling thread and in bands against
+ * {@link StackBlur#blurReference}, the original implementation.
+ * The blur is in place, so each op blurs a fresh copy of pixels.
+ */
+@State(Scope.Thread)
+public class StackBlurBenchmark {
+    /** The side of square image, e.g. an avatar and a background */
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"8", "25"})
+    public int radius;
+
+    private int[] source;
+    private int[] pixels;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        source = new int[size * size];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextInt();
+        }
+        pixels = new int[source.length];
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int[] reference() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        StackBlur.blurReference(pixels, size, size, radius);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] blur() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        StackBlur.blur(pixels, size, size, radius);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] blurParallel() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        StackBlur.blur(pixels, size, size, radius, executor);
+        return pixels;
+    }
+}